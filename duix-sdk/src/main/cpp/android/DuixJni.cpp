@@ -10,6 +10,7 @@
 #include "JniHelper.h"
 #include "aesmain.h"
 #include "jmat.h"
+#include "jpool.h"
 #include "Log.h"
 
 #if __ARM_NEON
@@ -93,6 +94,33 @@ extern "C" {
     return rst;
   }
 
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_initWenetex(JNIEnv *env, jobject thiz,
+      jstring fnwenet,jint backend){
+    if(!g_digit)return -1;
+    std::string str = getStringUTF(env,fnwenet);
+    return dhduix_initWenetex(g_digit,(char*)str.c_str(),backend);
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_benchWenet(JNIEnv *env, jobject thiz,
+      jstring fnwenet,jint rounds,jintArray arrcost){
+    if(!g_digit)return -1;
+    std::string str = getStringUTF(env,fnwenet);
+    int costs[DUIX_WENET_BACKENDS];
+    int best = dhduix_benchWenet(g_digit,(char*)str.c_str(),rounds,costs);
+    if(arrcost){
+      int len = env->GetArrayLength(arrcost);
+      if(len>DUIX_WENET_BACKENDS)len = DUIX_WENET_BACKENDS;
+      env->SetIntArrayRegion(arrcost,0,len,(jint*)costs);
+    }
+    return best;
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_initOrt(JNIEnv *env, jobject thiz,
+      jint intra,jint inter,jint optlevel,jint flags){
+    if(!g_digit)return -1;
+    return dhduix_initOrt(g_digit,intra,inter,optlevel,flags);
+  }
+
   JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_initMunet(JNIEnv *env, jobject thiz,
       jstring fnparam,jstring fnbin,jstring fnmask){
     if(!g_digit)return -1;
@@ -113,6 +141,55 @@ extern "C" {
     return rst;
   }
 
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_initMunetq(JNIEnv *env, jobject thiz,
+      jstring fnparam,jstring fnbin,jstring fnmask,jint kind,jint int8){
+    if(!g_digit)return -1;
+    std::string sparam = getStringUTF(env,fnparam);
+    std::string sbin = getStringUTF(env,fnbin);
+    std::string smask = getStringUTF(env,fnmask);
+    int rst = dhduix_initMunetq(g_digit,(char*)sparam.c_str(),(char*)sbin.c_str(),(char*)smask.c_str(),kind?kind:168,int8);
+    return rst;
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_initCache(JNIEnv *env, jobject thiz,
+      jstring cachedir,jint memcnt,jint diskcnt){
+    if(!g_digit)return -1;
+    std::string sdir = getStringUTF(env,cachedir);
+    int rst = dhduix_initCache(g_digit,(char*)sdir.c_str(),memcnt,diskcnt);
+    return rst;
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_initPool(JNIEnv *env, jobject thiz,
+      jint threads){
+    if(!g_digit)return -1;
+    return dhduix_initPool(g_digit,threads);
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_setQuality(JNIEnv *env, jobject thiz,
+      jint flags){
+    if(!g_digit)return -1;
+    return dhduix_setQuality(g_digit,flags);
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_setThreads(JNIEnv *env, jobject thiz,
+      jint threads){
+    if(!g_digit)return -1;
+    return dhduix_setThreads(g_digit,threads);
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_setVad(JNIEnv *env, jobject thiz,
+      jint db,jint hang){
+    if(!g_digit)return -1;
+    return dhduix_setVad(g_digit,db,hang);
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_silent(JNIEnv *env, jobject thiz,
+      jlong sessid,jint index){
+    if(!g_digit)return -1;
+    uint64_t sid = sessid;
+    return dhduix_silent(g_digit,sid,index);
+  }
+
   JNIEXPORT jlong JNICALL Java_ai_guiji_duix_DuixNcnn_newsession(JNIEnv *env, jobject thiz){
     if(!g_digit)return -1;
     uint64_t sessid = dhduix_newsession(g_digit);
@@ -129,6 +206,16 @@ extern "C" {
     return rst;
   }
 
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_pushfull(JNIEnv *env, jobject thiz, 
+      jlong sessid,jbyteArray arrbuf,jint size,jint kind){
+    if(!g_digit)return -1;
+    jbyte *pcmbuf = (jbyte *) env->GetByteArrayElements(arrbuf, 0);
+    uint64_t sid = sessid;
+    int rst = dhduix_pushfull(g_digit,sid,(char*)pcmbuf,size,kind);
+    env->ReleaseByteArrayElements(arrbuf,pcmbuf, JNI_ABORT);
+    return rst;
+  }
+
   JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_finsession(JNIEnv *env, jobject thiz,jlong sessid){
     if(!g_digit)return -1;
     uint64_t sid = sessid;
@@ -153,28 +240,59 @@ extern "C" {
     return dhduix_readycnt(g_digit,sid);
   }
 
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_waitready(JNIEnv *env, jobject thiz,jlong sessid,jint cnt,jint timeout){
+    if(!g_digit)return -1;
+    uint64_t sid = sessid;
+    return dhduix_waitready(g_digit,sid,cnt,timeout);
+  }
+
+  struct loadjpg_s{
+    const char* fn[2];
+    uint8_t*    buf[2];
+    int         width;
+    int         height;
+  };
+
+  static void loadjpg_task(void* arg,int inx){
+    loadjpg_s* task = (loadjpg_s*)arg;
+    JMat mat(task->width,task->height,task->buf[inx]);
+    mat.loadjpg(task->fn[inx],1);
+  }
+
   JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_fileload(JNIEnv* env, jobject thiz,
       jstring picfile, jstring mskfile,jint width,jint height,
       jbyteArray arrpic,jbyteArray arrmsk,jint bursize){
   //
     std::string s_pic = getStringUTF(env,picfile);
     std::string s_msk = getStringUTF(env,mskfile);
+    int cnt = s_msk.length()?2:1;
     jbyte *picbuf = (jbyte *) env->GetPrimitiveArrayCritical(arrpic, 0);
-    JMat* mat_pic = new JMat(width,height,(uint8_t*)picbuf);
-    mat_pic->loadjpg(s_pic,1);
+    jbyte *mskbuf = cnt>1?(jbyte *) env->GetPrimitiveArrayCritical(arrmsk, 0):NULL;
+    //picture and mask decode side by side on the worker pool
+    loadjpg_s task = {{s_pic.c_str(),s_msk.c_str()},{(uint8_t*)picbuf,(uint8_t*)mskbuf},width,height};
+    jpool_run(cnt,loadjpg_task,&task);
+    if(mskbuf)env->ReleasePrimitiveArrayCritical( arrmsk,mskbuf, 0);
     env->ReleasePrimitiveArrayCritical( arrpic,picbuf, 0);
-    delete mat_pic;
-
-    if(s_msk.length()){
-        jbyte *mskbuf = (jbyte *) env->GetPrimitiveArrayCritical(arrmsk, 0);
-        JMat* mat_msk = new JMat(width,height,(uint8_t*)mskbuf);
-        mat_msk->loadjpg(s_msk,1);
-        env->ReleasePrimitiveArrayCritical( arrmsk,mskbuf, 0);
-        delete mat_msk;
-    }
     return 0;
   }
 
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_fileroi(JNIEnv* env, jobject thiz,
+      jstring picfile, jintArray arrbox, jint scale, jint width, jint height,
+      jbyteArray arrpic, jint bufsize){
+    if(width*height*3>bufsize)return -1;
+    std::string s_pic = getStringUTF(env,picfile);
+    jint *boxData = (jint*) env->GetPrimitiveArrayCritical( arrbox, 0);
+    jbyte *picbuf = (jbyte *) env->GetPrimitiveArrayCritical(arrpic, 0);
+    int rst = 0;
+    {
+      JMat mat_pic(width,height,(uint8_t*)picbuf);
+      rst = mat_pic.loadjpgroi(s_pic.c_str(),(int*)boxData,scale,1);
+    }
+    env->ReleasePrimitiveArrayCritical( arrpic,picbuf, 0);
+    env->ReleasePrimitiveArrayCritical( arrbox, boxData, 0);
+    return rst;
+  }
+
   JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_bufrst(JNIEnv* env, jobject thiz,
       jlong sessid, jintArray arrbox, jint inx,
       jbyteArray arrimg,jint imgsize){
@@ -212,6 +330,163 @@ extern "C" {
     return rst;
   }
 
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_filebatch(JNIEnv* env, jobject thiz,
+      jlong sessid,jobjectArray arrpic, jobjectArray arrmsk,
+      jintArray arrbox, jintArray arrinx,
+      jobjectArray arrimg,jobjectArray arrmskbuf,jint imgsize){
+    if(!g_digit)return -1;
+    uint64_t sid = sessid;
+    int cnt = env->GetArrayLength(arrinx);
+    if((cnt<1)||(env->GetArrayLength(arrbox)<cnt*4))return -11;
+    std::vector<std::string> vec_pic(cnt);
+    std::vector<std::string> vec_msk(cnt);
+    std::vector<char*> vec_fnpic(cnt);
+    std::vector<char*> vec_fnmsk(cnt);
+    std::vector<jbyteArray> vec_arrimg(cnt);
+    std::vector<jbyteArray> vec_arrmsk(cnt);
+    std::vector<char*> vec_img(cnt);
+    std::vector<char*> vec_mskbuf(cnt);
+    for(int k=0;k<cnt;k++){
+      jstring jpic = (jstring)env->GetObjectArrayElement(arrpic,k);
+      jstring jmsk = (jstring)env->GetObjectArrayElement(arrmsk,k);
+      vec_pic[k] = getStringUTF(env,jpic);
+      vec_msk[k] = getStringUTF(env,jmsk);
+      env->DeleteLocalRef(jpic);
+      env->DeleteLocalRef(jmsk);
+      vec_fnpic[k] = (char*)vec_pic[k].c_str();
+      vec_fnmsk[k] = (char*)vec_msk[k].c_str();
+      vec_arrimg[k] = (jbyteArray)env->GetObjectArrayElement(arrimg,k);
+      vec_arrmsk[k] = (jbyteArray)env->GetObjectArrayElement(arrmskbuf,k);
+      vec_img[k] = (char*)env->GetByteArrayElements(vec_arrimg[k],0);
+      vec_mskbuf[k] = (char*)env->GetByteArrayElements(vec_arrmsk[k],0);
+    }
+    jint *boxData = env->GetIntArrayElements(arrbox, 0);
+    jint *inxData = env->GetIntArrayElements(arrinx, 0);
+    int rst = dhduix_filebatch(g_digit,sid,cnt,
+        vec_fnpic.data(),(int*)boxData,vec_fnmsk.data(),(int*)inxData,
+        vec_img.data(),vec_mskbuf.data(),imgsize);
+    env->ReleaseIntArrayElements(arrinx,inxData,JNI_ABORT);
+    env->ReleaseIntArrayElements(arrbox,boxData,JNI_ABORT);
+    for(int k=0;k<cnt;k++){
+      env->ReleaseByteArrayElements(vec_arrimg[k],(jbyte*)vec_img[k],0);
+      env->ReleaseByteArrayElements(vec_arrmsk[k],(jbyte*)vec_mskbuf[k],0);
+      env->DeleteLocalRef(vec_arrimg[k]);
+      env->DeleteLocalRef(vec_arrmsk[k]);
+    }
+    return rst;
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_setframes(JNIEnv* env, jobject thiz,
+      jobjectArray arrpic, jobjectArray arrmsk, jintArray arrbox){
+    if(!g_digit)return -1;
+    int cnt = env->GetArrayLength(arrpic);
+    if((env->GetArrayLength(arrmsk)<cnt)||(env->GetArrayLength(arrbox)<cnt*4))return -11;
+    std::vector<std::string> vec_pic(cnt);
+    std::vector<std::string> vec_msk(cnt);
+    std::vector<char*> vec_fnpic(cnt);
+    std::vector<char*> vec_fnmsk(cnt);
+    for(int k=0;k<cnt;k++){
+      jstring jpic = (jstring)env->GetObjectArrayElement(arrpic,k);
+      jstring jmsk = (jstring)env->GetObjectArrayElement(arrmsk,k);
+      vec_pic[k] = getStringUTF(env,jpic);
+      vec_msk[k] = getStringUTF(env,jmsk);
+      env->DeleteLocalRef(jpic);
+      env->DeleteLocalRef(jmsk);
+      vec_fnpic[k] = (char*)vec_pic[k].c_str();
+      vec_fnmsk[k] = (char*)vec_msk[k].c_str();
+    }
+    jint *boxData = env->GetIntArrayElements(arrbox, 0);
+    int rst = dhduix_setframes(g_digit,cnt,vec_fnpic.data(),vec_fnmsk.data(),(int*)boxData);
+    env->ReleaseIntArrayElements(arrbox,boxData,JNI_ABORT);
+    return rst;
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_frameload(JNIEnv* env, jobject thiz,
+      jint frameid, jbyteArray arrpic, jbyteArray arrmsk, jint imgsize){
+    if(!g_digit)return -1;
+    jbyte *picbuf = (jbyte *) env->GetPrimitiveArrayCritical(arrpic, 0);
+    //null mask array: the mask of the frame is not wanted
+    jbyte *mskbuf = arrmsk?(jbyte *) env->GetPrimitiveArrayCritical(arrmsk, 0):NULL;
+    int rst = dhduix_frameload(g_digit,frameid,(char*)picbuf,(char*)mskbuf,imgsize);
+    if(mskbuf)env->ReleasePrimitiveArrayCritical( arrmsk,mskbuf, 0);
+    env->ReleasePrimitiveArrayCritical( arrpic,picbuf, 0);
+    return rst;
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_frameroi(JNIEnv* env, jobject thiz,
+      jint frameid, jintArray arrbox, jint scale, jbyteArray arrpic, jint imgsize){
+    if(!g_digit)return -1;
+    jint *boxData = (jint*) env->GetPrimitiveArrayCritical( arrbox, 0);
+    jbyte *picbuf = (jbyte *) env->GetPrimitiveArrayCritical(arrpic, 0);
+    int rst = dhduix_frameroi(g_digit,frameid,(int*)boxData,scale,(char*)picbuf,imgsize);
+    env->ReleasePrimitiveArrayCritical( arrpic,picbuf, 0);
+    env->ReleasePrimitiveArrayCritical( arrbox, boxData, 0);
+    return rst;
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_framerst(JNIEnv* env, jobject thiz,
+      jlong sessid, jint frameid, jint inx, jbyteArray arrimg, jbyteArray arrmsk, jint imgsize){
+    if(!g_digit)return -1;
+    uint64_t sid = sessid;
+    jbyte *imgbuf = (jbyte*) env->GetPrimitiveArrayCritical(arrimg, 0);
+    jbyte *mskbuf = arrmsk?(jbyte*) env->GetPrimitiveArrayCritical(arrmsk, 0):NULL;
+    int rst = dhduix_framerst(g_digit,sid,frameid,inx,(char*)imgbuf,(char*)mskbuf,imgsize);
+    if(mskbuf)env->ReleasePrimitiveArrayCritical( arrmsk,mskbuf, 0);
+    env->ReleasePrimitiveArrayCritical( arrimg,imgbuf, 0);
+    return rst;
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_framebatch(JNIEnv* env, jobject thiz,
+      jlong sessid, jintArray arrid, jintArray arrinx,
+      jobjectArray arrimg,jobjectArray arrmskbuf,jint imgsize){
+    if(!g_digit)return -1;
+    uint64_t sid = sessid;
+    int cnt = env->GetArrayLength(arrinx);
+    if((cnt<1)||(env->GetArrayLength(arrid)<cnt))return -11;
+    std::vector<jbyteArray> vec_arrimg(cnt);
+    std::vector<jbyteArray> vec_arrmsk(cnt);
+    std::vector<char*> vec_img(cnt);
+    std::vector<char*> vec_mskbuf(cnt);
+    for(int k=0;k<cnt;k++){
+      vec_arrimg[k] = (jbyteArray)env->GetObjectArrayElement(arrimg,k);
+      vec_arrmsk[k] = (jbyteArray)env->GetObjectArrayElement(arrmskbuf,k);
+      vec_img[k] = (char*)env->GetByteArrayElements(vec_arrimg[k],0);
+      vec_mskbuf[k] = (char*)env->GetByteArrayElements(vec_arrmsk[k],0);
+    }
+    jint *idData = env->GetIntArrayElements(arrid, 0);
+    jint *inxData = env->GetIntArrayElements(arrinx, 0);
+    int rst = dhduix_framebatch(g_digit,sid,cnt,(int*)idData,(int*)inxData,
+        vec_img.data(),vec_mskbuf.data(),imgsize);
+    env->ReleaseIntArrayElements(arrinx,inxData,JNI_ABORT);
+    env->ReleaseIntArrayElements(arrid,idData,JNI_ABORT);
+    for(int k=0;k<cnt;k++){
+      env->ReleaseByteArrayElements(vec_arrimg[k],(jbyte*)vec_img[k],0);
+      env->ReleaseByteArrayElements(vec_arrmsk[k],(jbyte*)vec_mskbuf[k],0);
+      env->DeleteLocalRef(vec_arrimg[k]);
+      env->DeleteLocalRef(vec_arrmsk[k]);
+    }
+    return rst;
+  }
+
+  JNIEXPORT jint JNICALL Java_ai_guiji_duix_DuixNcnn_tick(JNIEnv* env, jobject thiz,
+      jlong sessid, jint frameid, jint playinx, jint flags, jintArray arrdirty,
+      jbyteArray arrimg, jbyteArray arrmsk, jint imgsize, jintArray arrstatus){
+    if(!g_digit)return -1;
+    if(env->GetArrayLength(arrstatus)<DUIX_TICK_COUNT)return -11;
+    uint64_t sid = sessid;
+    int status[DUIX_TICK_COUNT];
+    jint *dirtyData = (jint*) env->GetPrimitiveArrayCritical( arrdirty, 0);
+    jbyte *imgbuf = (jbyte*) env->GetPrimitiveArrayCritical(arrimg, 0);
+    jbyte *mskbuf = (jbyte*) env->GetPrimitiveArrayCritical(arrmsk, 0);
+    int rst = dhduix_tick(g_digit,sid,frameid,playinx,flags,(int*)dirtyData,
+        (char*)imgbuf,(char*)mskbuf,imgsize,status);
+    env->ReleasePrimitiveArrayCritical( arrmsk,mskbuf, 0);
+    env->ReleasePrimitiveArrayCritical( arrimg,imgbuf, 0);
+    env->ReleasePrimitiveArrayCritical( arrdirty, dirtyData, JNI_ABORT);
+    env->SetIntArrayRegion(arrstatus,0,DUIX_TICK_COUNT,(jint*)status);
+    return rst;
+  }
+
     JNIEXPORT jint JNICALL
         Java_ai_guiji_duix_DuixNcnn_startgpg(JNIEnv *env, jobject thiz, jstring picfn,jstring gpgfn){
             std::string s_pic = getStringUTF(env,picfn);
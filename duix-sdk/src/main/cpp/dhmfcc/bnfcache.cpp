@@ -0,0 +1,241 @@
+#include "bnfcache.h"
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <dirent.h>
+#include <sys/stat.h>
+#include <sys/time.h>
+#include <algorithm>
+
+extern "C"{
+#pragma pack(push)
+#pragma pack(4)
+  typedef struct _bnf_hdr {
+    char        head[4];
+    int         pcmsize;
+    int         blocks;
+    int         items;
+  }bnf_hdr;
+#pragma pack(pop)
+}
+
+BnfEntry::BnfEntry(int size){
+  pcmsize = size;
+}
+
+BnfEntry::~BnfEntry(){
+  for(int k=0;k<arrbnf.size();k++){
+    jmat_free(arrbnf[k]);
+  }
+  arrbnf.clear();
+  arrblock.clear();
+}
+
+int BnfEntry::append(int block,jmat_t* bnf){
+  arrblock.push_back(block);
+  arrbnf.push_back(bnf);
+  blocks += block;
+  return blocks;
+}
+
+int BnfEntry::bytes(){
+  int size = 0;
+  for(int k=0;k<arrbnf.size();k++){
+    size += arrbnf[k]->buf.size;
+  }
+  return size;
+}
+
+BnfEntry* BnfEntry::clone(){
+  BnfEntry* entry = new BnfEntry(pcmsize);
+  for(int k=0;k<arrbnf.size();k++){
+    entry->append(arrblock[k],jmat_clone(arrbnf[k]));
+  }
+  return entry;
+}
+
+BnfCache::BnfCache(const char* dir,const char* model,int memcnt,int diskcnt){
+  if(dir)m_dir = dir;
+  if(m_dir.length()){
+    mkdir(m_dir.c_str(),0755);
+  }
+  //features depend on the wenet model, keep keys of different models apart
+  if(model){
+    m_seed = bnfcache_hash(m_seed,(const uint8_t*)model,strlen(model));
+  }
+  m_memcnt = memcnt>0?memcnt:1;
+  m_diskcnt = diskcnt;
+}
+
+BnfCache::~BnfCache(){
+  std::unique_lock<std::mutex> lock(m_lock);
+  for(auto& it:map_mem){
+    delete it.second.first;
+  }
+  map_mem.clear();
+  lst_lru.clear();
+}
+
+uint64_t BnfCache::makekey(uint64_t pcmhash,int minoff,int minblock,int maxblock){
+  int seg[3] = {minoff,minblock,maxblock};
+  uint64_t key = m_seed;
+  key = bnfcache_hash(key,(const uint8_t*)seg,sizeof(seg));
+  key = bnfcache_hash(key,(const uint8_t*)&pcmhash,sizeof(pcmhash));
+  return key;
+}
+
+std::string BnfCache::filename(uint64_t key){
+  char fn[32];
+  sprintf(fn,"/%016llx.bnf",(unsigned long long)key);
+  return m_dir + fn;
+}
+
+int BnfCache::touch(uint64_t key,BnfEntry* entry){
+  auto it = map_mem.find(key);
+  if(it!=map_mem.end()){
+    lst_lru.erase(it->second.second);
+    if(it->second.first!=entry)delete it->second.first;
+    map_mem.erase(it);
+  }
+  lst_lru.push_front(key);
+  map_mem[key] = std::make_pair(entry,lst_lru.begin());
+  while(map_mem.size()>m_memcnt){
+    uint64_t last = lst_lru.back();
+    lst_lru.pop_back();
+    auto lit = map_mem.find(last);
+    if(lit!=map_mem.end()){
+      delete lit->second.first;
+      map_mem.erase(lit);
+    }
+  }
+  return 0;
+}
+
+BnfEntry* BnfCache::get(uint64_t key){
+  std::unique_lock<std::mutex> lock(m_lock);
+  BnfEntry* entry = NULL;
+  auto it = map_mem.find(key);
+  if(it!=map_mem.end()){
+    entry = it->second.first;
+    lst_lru.erase(it->second.second);
+    lst_lru.push_front(key);
+    it->second.second = lst_lru.begin();
+  }else{
+    entry = loadfile(key);
+    if(!entry)return NULL;
+    touch(key,entry);
+  }
+  return entry->clone();
+}
+
+int BnfCache::put(uint64_t key,BnfEntry* entry){
+  if(!entry)return -1;
+  if(!entry->blocks){
+    delete entry;
+    return -2;
+  }
+  std::unique_lock<std::mutex> lock(m_lock);
+  touch(key,entry);
+  if(m_dir.length()&&m_diskcnt>0){
+    savefile(key,entry);
+    trimdisk();
+  }
+  return 0;
+}
+
+int BnfCache::savefile(uint64_t key,BnfEntry* entry){
+  std::string fn = filename(key);
+  std::string fntmp = fn + ".tmp";
+  FILE* file = fopen(fntmp.c_str(),"wb");
+  if(!file)return -1;
+  bnf_hdr head;
+  memset(&head,0,sizeof(bnf_hdr));
+  head.head[0]='b';
+  head.head[1]='n';
+  head.head[2]='f';
+  head.head[3]='1';
+  head.pcmsize = entry->pcmsize;
+  head.blocks = entry->blocks;
+  head.items = entry->arrbnf.size();
+  int rst = fwrite(&head,sizeof(bnf_hdr),1,file)==1?0:-2;
+  for(int k=0;(k<head.items)&&!rst;k++){
+    jmat_t* bnf = entry->arrbnf[k];
+    int item[2] = {entry->arrblock[k],bnf->height};
+    if(fwrite(item,sizeof(item),1,file)!=1)rst = -2;
+    if(fwrite(bnf->data,bnf->buf.size,1,file)!=1)rst = -2;
+  }
+  fclose(file);
+  if(rst){
+    remove(fntmp.c_str());
+    return rst;
+  }
+  return rename(fntmp.c_str(),fn.c_str());
+}
+
+BnfEntry* BnfCache::loadfile(uint64_t key){
+  if(!m_dir.length())return NULL;
+  std::string fn = filename(key);
+  FILE* file = fopen(fn.c_str(),"rb");
+  if(!file)return NULL;
+  bnf_hdr head;
+  memset(&head,0,sizeof(bnf_hdr));
+  BnfEntry* entry = NULL;
+  int rst = fread(&head,sizeof(bnf_hdr),1,file)==1?0:-1;
+  char* arr = head.head;
+  if(!rst&&(arr[0]=='b')&&(arr[1]=='n')&&(arr[2]=='f')&&(arr[3]=='1')){
+    entry = new BnfEntry(head.pcmsize);
+    for(int k=0;k<head.items;k++){
+      int item[2] = {0,0};
+      if(fread(item,sizeof(item),1,file)!=1){
+        rst = -2;
+        break;
+      }
+      if((item[0]<1)||(item[1]<item[0])||(item[1]>BNFCACHE_MAXBLOCK+STREAM_CNT_BNF)){
+        rst = -3;
+        break;
+      }
+      jmat_t* bnf = jmat_alloc(STREAM_BASE_BNF,item[1],1,0,4,NULL);
+      if(fread(bnf->data,bnf->buf.size,1,file)!=1){
+        jmat_free(bnf);
+        rst = -2;
+        break;
+      }
+      entry->append(item[0],bnf);
+    }
+    if(!rst&&(entry->blocks!=head.blocks))rst = -4;
+  }else{
+    rst = -11;
+  }
+  fclose(file);
+  if(rst){
+    if(entry)delete entry;
+    remove(fn.c_str());
+    return NULL;
+  }
+  //disk tier is lru by mtime
+  utimes(fn.c_str(),NULL);
+  return entry;
+}
+
+int BnfCache::trimdisk(){
+  DIR* dir = opendir(m_dir.c_str());
+  if(!dir)return -1;
+  std::vector<std::pair<time_t,std::string>> files;
+  struct dirent* ent = NULL;
+  while((ent = readdir(dir))!=NULL){
+    int len = strlen(ent->d_name);
+    if((len<5)||strcmp(ent->d_name+len-4,".bnf"))continue;
+    std::string fn = m_dir + "/" + ent->d_name;
+    struct stat st;
+    if(stat(fn.c_str(),&st))continue;
+    files.push_back(std::make_pair(st.st_mtime,fn));
+  }
+  closedir(dir);
+  int cnt = files.size() - m_diskcnt;
+  if(cnt<=0)return 0;
+  std::sort(files.begin(),files.end());
+  for(int k=0;k<cnt;k++){
+    remove(files[k].second.c_str());
+  }
+  return cnt;
+}
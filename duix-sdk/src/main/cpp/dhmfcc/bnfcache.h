@@ -0,0 +1,58 @@
+#pragma once
+#include "dh_data.h"
+#include "aicommon.h"
+#include <mutex>
+#include <vector>
+#include <list>
+#include <string>
+#include <unordered_map>
+
+#define BNFCACHE_SEED  14695981039346656037ULL
+#define BNFCACHE_PRIME 1099511628211ULL
+#define BNFCACHE_MAXBLOCK STREAM_BASE_CNT
+
+//fnv1a, can be fed chunk by chunk
+static inline uint64_t bnfcache_hash(uint64_t hash,const uint8_t* buf,int len){
+  for(int k=0;k<len;k++){
+    hash ^= buf[k];
+    hash *= BNFCACHE_PRIME;
+  }
+  return hash;
+}
+
+//wenet output of one session, one bnf mat per PcmItem
+class BnfEntry{
+  public:
+    int pcmsize = 0;
+    int blocks = 0;
+    std::vector<int>      arrblock;
+    std::vector<jmat_t*>  arrbnf;
+    int append(int block,jmat_t* bnf);
+    int bytes();
+    BnfEntry* clone();
+    BnfEntry(int size = 0);
+    ~BnfEntry();
+};
+
+class BnfCache{
+  private:
+    std::mutex  m_lock;
+    std::string m_dir;
+    uint64_t    m_seed = BNFCACHE_SEED;
+    int         m_memcnt = 16;
+    int         m_diskcnt = 128;
+    std::list<uint64_t>  lst_lru;
+    std::unordered_map<uint64_t,std::pair<BnfEntry*,std::list<uint64_t>::iterator>> map_mem;
+    std::string filename(uint64_t key);
+    int         touch(uint64_t key,BnfEntry* entry);
+    int         savefile(uint64_t key,BnfEntry* entry);
+    BnfEntry*   loadfile(uint64_t key);
+    int         trimdisk();
+  public:
+    BnfCache(const char* dir,const char* model,int memcnt = 16,int diskcnt = 128);
+    //segmentation decides how the pcm is cut into items, entries of other settings do not fit
+    uint64_t    makekey(uint64_t pcmhash,int minoff,int minblock,int maxblock);
+    BnfEntry*   get(uint64_t key);
+    int         put(uint64_t key,BnfEntry* entry);
+    ~BnfCache();
+};
@@ -1,6 +1,7 @@
 #include "dhpcm.h"
 #include "mfcc/mfcc.hpp"
 #include <stdio.h>
+#include <math.h>
 #include "aicommon.h"
 #include <vector>
 #include <string>
@@ -125,6 +126,16 @@ int PcmItem::readblock(){
   return  pcm_read;
 }
 
+int PcmItem::loadbnf(jmat_t* wav,jmat_t* bnf){
+  if(m_wav)jmat_free(m_wav);
+  if(m_mfcc)jmat_free(m_mfcc);
+  m_wav = wav;
+  pcm_block = wav->height;
+  m_mfcc = bnf;
+  m_ready = 1;
+  return 0;
+}
+
 int PcmItem::numblock(){
   return pcm_block;
 }
@@ -438,12 +449,11 @@ PcmSession::PcmSession(uint64_t sessid,int minoff,int mincnt,int maxcnt){
   m_cachepos = 0;
   m_cachemax = STREAM_BASE_PCM*maxcnt*10;
   m_lastitem = NULL;
-  m_arrflag = (int*)malloc(1024*sizeof(int));
-  memset(m_arrflag,0,1024*sizeof(int));
-  m_arrmax = (int*)malloc(sizeof(int)*1024000);
-  memset(m_arrmax,0,sizeof(int)*1024000);
-  m_arrmin = (int*)malloc(sizeof(int)*1024000);
-  memset(m_arrmin,0,sizeof(int)*1024000);
+  m_arritem = PCMSESS_INITITEM;
+  m_arrmax = (int*)malloc(sizeof(int)*m_arritem);
+  memset(m_arrmax,0,sizeof(int)*m_arritem);
+  m_arrmin = (int*)malloc(sizeof(int)*m_arritem);
+  memset(m_arrmin,0,sizeof(int)*m_arritem);
 }
 
 PcmSession::~PcmSession(){
@@ -453,8 +463,9 @@ PcmSession::~PcmSession(){
     if(item) delete item;
     vec_pcm[k] = NULL;
   }
+  if(m_capture)delete m_capture;
+  if(m_arrquiet)free(m_arrquiet);
   free(m_pcmcache);
-  free(m_arrflag);
   free(m_arrmin);
   free(m_arrmax);
 }
@@ -464,6 +475,192 @@ int PcmSession::setflip(int flip){
   return 0;
 }
 
+int PcmSession::setcache(int enable){
+  if(enable){
+    if(!m_capture&&!m_totalpush)m_capture = new BnfEntry();
+  }else if(m_capture){
+    delete m_capture;
+    m_capture = NULL;
+  }
+  return 0;
+}
+
+int PcmSession::setvad(int db,int hang){
+  if(m_totalpush)return -1;
+  if(db>=0){
+    m_vadthresh = 0;
+    return 0;
+  }
+  if(!m_arrquiet){
+    m_vadmax = PCMVAD_INITBLOCK;
+    m_arrquiet = (uint8_t*)malloc(m_vadmax);
+  }
+  double rms = 32768.0*pow(10.0,db/20.0);
+  m_vadthresh = (int64_t)(rms*rms*STREAM_BASE_SAMP);
+  if(m_vadthresh<1)m_vadthresh = 1;
+  m_vadhang = hang>0?hang:0;
+  return 0;
+}
+
+int PcmSession::vadblock(){
+  if(m_vadcnt>=m_vadmax){
+    //silent reads under the lock while the array moves
+    std::unique_lock<std::mutex> lock(m_lock);
+    uint8_t* grown = (uint8_t*)realloc(m_arrquiet,m_vadmax*2);
+    if(!grown)return -1;
+    m_arrquiet = grown;
+    m_vadmax *= 2;
+  }
+  m_arrquiet[m_vadcnt] = m_vadsum<m_vadthresh;
+  //flag first, the render thread reads up to m_vadcnt
+  m_vadcnt++;
+  m_vadsum = 0;
+  m_vadpos = 0;
+  return 0;
+}
+
+//s16le, a chunk may end inside a sample
+int PcmSession::vadfeed(uint8_t* buf,int len){
+  if(!m_vadthresh)return 0;
+  for(int k=0;k<len;k++){
+    if(m_vadpos&1){
+      int v = (int16_t)(m_vadlow|(buf[k]<<8));
+      m_vadsum += v*v;
+    }else{
+      m_vadlow = buf[k];
+    }
+    if(++m_vadpos==STREAM_BASE_PCM)vadblock();
+  }
+  return 0;
+}
+
+int PcmSession::silent(int inx){
+  if(!m_vadthresh||(inx<0))return 0;
+  int cnt = m_vadcnt;
+  int last = inx+m_vadhang;
+  if((last>=cnt)&&!m_finished)return 0;
+  //before the start and after the end count as quiet
+  std::unique_lock<std::mutex> lock(m_lock);
+  for(int k=inx-m_vadhang;k<=last;k++){
+    if((k<0)||(k>=cnt))continue;
+    if(!m_arrquiet[k])return 0;
+  }
+  return 1;
+}
+
+int PcmSession::capture(PcmItem* item){
+  if(!m_capture)return 0;
+  if(m_capture->blocks+item->numblock()>BNFCACHE_MAXBLOCK){
+    //too long to be a replayed prompt
+    delete m_capture;
+    m_capture = NULL;
+    return -1;
+  }
+  m_capture->append(item->numblock(),jmat_clone(item->bnf()));
+  return 1;
+}
+
+BnfEntry* PcmSession::takecache(){
+  if(!m_capture)return NULL;
+  if(!m_finished)return NULL;
+  if(m_calccnt<m_workcnt)return NULL;
+  BnfEntry* entry = m_capture;
+  m_capture = NULL;
+  if(entry->blocks!=m_numpush){
+    delete entry;
+    return NULL;
+  }
+  entry->pcmsize = m_totalpush;
+  return entry;
+}
+
+int PcmSession::loadcache(uint64_t sessid,uint8_t* buf,int len,BnfEntry* entry){
+  if(m_sessid!=sessid)return -2;
+  if(m_totalpush||vec_pcm.size())return -1;
+  if(entry->pcmsize!=len)return -3;
+  int allblock = (len+STREAM_BASE_PCM-1)/STREAM_BASE_PCM;
+  if(allblock!=entry->blocks)return -4;
+  if(m_capture){
+    delete m_capture;
+    m_capture = NULL;
+  }
+  uint8_t* curhead = buf;
+  int cursize = len;
+  for(int k=0;k<entry->arrbnf.size();k++){
+    int block = entry->arrblock[k];
+    jmat_t* wav = jmat_alloc(STREAM_BASE_PCM,block,1,0,1,NULL);
+    int cpsize = block*STREAM_BASE_PCM;
+    if(cpsize>cursize)cpsize = cursize;
+    memcpy(wav->data,curhead,cpsize);
+    curhead += cpsize;
+    cursize -= cpsize;
+    PcmItem* item = new PcmItem(m_curflag,0,block,m_flip,m_fileblock);
+    item->loadbnf(wav,entry->arrbnf[k]);
+    entry->arrbnf[k] = NULL;
+    if(pushitem(item)<0){
+      delete item;
+      return -5;
+    }
+    m_numpush += block;
+    m_numcalc += block;
+    m_workcnt ++;
+    m_calccnt ++;
+  }
+  m_hash = bnfcache_hash(m_hash,buf,len);
+  m_totalpush = len;
+  vadfeed(buf,len);
+  if(m_vadpos)vadblock();
+  m_finished = 1;
+  m_first = 0;
+  return entry->blocks;
+}
+
+int PcmSession::pushitem(PcmItem* item){
+  //readblock and runcalc look items up on other threads
+  std::unique_lock<std::mutex> lock(m_lock);
+  int cnt = vec_pcm.size();
+  if(cnt>=m_arritem){
+    int grow = m_arritem*2;
+    int* amin = (int*)realloc(m_arrmin,sizeof(int)*grow);
+    if(amin)m_arrmin = amin;
+    int* amax = amin?(int*)realloc(m_arrmax,sizeof(int)*grow):NULL;
+    if(amax)m_arrmax = amax;
+    if(!amin||!amax)return -1;
+    m_arritem = grow;
+  }
+  vec_pcm.push_back(item);
+  m_lastitem = item;
+  m_arrmin[cnt] = m_fileblock;
+  m_fileblock += item->numblock();
+  m_arrmax[cnt] = m_fileblock;
+  return cnt;
+}
+
+PcmItem* PcmSession::itemat(int k,int take){
+  std::unique_lock<std::mutex> lock(m_lock);
+  if((k<0)||(k>=(int)vec_pcm.size()))return NULL;
+  PcmItem* item = vec_pcm[k];
+  if(take)vec_pcm[k] = NULL;
+  return item;
+}
+
+PcmItem* PcmSession::finditem(int inx,int* newinx){
+  std::unique_lock<std::mutex> lock(m_lock);
+  if((m_readcnt<(int)vec_pcm.size())&&(inx<m_arrmax[m_readcnt])&&(inx>=m_arrmin[m_readcnt])){
+    *newinx = inx - m_arrmin[m_readcnt];
+    return vec_pcm[m_readcnt];
+  }
+  for(int k=0;k<m_calccnt;k++){
+    //printf("==k %d max %d min %d\n",k,m_arrmax[k],m_arrmin[k]);
+    if((inx<m_arrmax[k])&&(inx>=m_arrmin[k])){
+      m_readcnt = k;
+      *newinx = inx - m_arrmin[k];
+      return vec_pcm[k];
+    }
+  }
+  return NULL;
+}
+
 int PcmSession::appenditem(jmat_t* mat,int noone){
   //std::unique_lock lock(m_lock);
   //printf("===append %d\n",mat->height*STREAM_BASE_PCM);
@@ -480,11 +677,11 @@ int PcmSession::appenditem(jmat_t* mat,int noone){
   }
   int rst = item->fillPcm(m_sessid,0,mpre,mat);
   //printf("===fill %d\n",rst);
-  vec_pcm.push_back(item);
-  m_lastitem = item;
-  m_arrmin[vec_pcm.size()-1] = m_fileblock;
-  m_fileblock += item->numblock();
-  m_arrmax[vec_pcm.size()-1] = m_fileblock;
+  if(pushitem(item)<0){
+    delete item;
+    if(mpre)jmat_free(mpre);
+    return -1;
+  }
 
   m_numpush += chkblock;
   m_lastitem = item;
@@ -543,6 +740,8 @@ int PcmSession::pushpcm(uint64_t sessid,uint8_t* buf,int len){
   uint8_t* curhead = buf;
   int cursize = len;
   m_totalpush += len;
+  m_hash = bnfcache_hash(m_hash,buf,len);
+  vadfeed(buf,len);
   int allcnt = m_cachepos + cursize;
 
   while(allcnt >= m_cachemax){
@@ -571,6 +770,7 @@ int PcmSession::simppcm(uint64_t sessid,uint8_t* buf,int len){
   uint8_t* curhead = buf;
   int cursize = len;
   m_totalpush += len;
+  vadfeed(buf,len);
   //int chkblock = m_first&&!m_lastitem?m_mincnt:m_maxcnt;
   //int chksize = m_first&&!m_lastitem?m_firstsize:m_basesize;
   //int chkfirst = m_first&&!m_lastitem;
@@ -619,9 +819,14 @@ int PcmSession::simppcm(uint64_t sessid,uint8_t* buf,int len){
 int PcmSession::conpcm(uint64_t sessid){
   //if(m_finished)return -1;
   if(m_sessid!=sessid)return -2;
+  //an unfinished tail is dropped like the cache, a finished one was padded to a block
   m_cachepos = 0;
+  m_vadsum = 0;
+  m_vadpos = 0;
   m_finished = 0;
   m_curflag ++;
+  //several utterances in one session, no single key for them
+  setcache(0);
   return 0;
 }
 
@@ -638,6 +843,8 @@ int PcmSession::finpcm(uint64_t sessid){
     memcpy(mat->data,m_pcmcache,m_cachepos);
     appenditem(mat);
   }
+  //zero padding adds no energy
+  if(m_vadpos)vadblock();
   m_finished = 1;
   return 0;
 }
@@ -646,9 +853,10 @@ int PcmSession::runfirst(uint64_t sessid,WeAI* weai){
   if(m_sessid!=sessid)return -2;
   if(!m_first)return 0;
   if(m_calccnt)return 0;
-  PcmItem* item = vec_pcm[m_calccnt];
+  PcmItem* item = itemat(m_calccnt);
   if(item){
     item->runWenet(weai);
+    capture(item);
     m_numcalc += item->numblock();
   }
   m_calccnt ++;
@@ -665,9 +873,10 @@ int PcmSession::runcalc(uint64_t sessid,WeAI* weai,int mincalc){
     int dist = m_calccnt - m_readcnt;
     //printf("===disc %d work %d mincalc %d\n",dist,m_workcnt,mincalc);
     if(dist<mincalc){
-      PcmItem* item = vec_pcm[m_calccnt];
+      PcmItem* item = itemat(m_calccnt);
       if(item){
         item->runWenet(weai);
+        capture(item);
         m_numcalc += item->numblock();
       }
       m_calccnt ++;
@@ -682,8 +891,7 @@ int PcmSession::runcalc(uint64_t sessid,WeAI* weai,int mincalc){
     int dist = m_readcnt - m_clrcnt;
     if(dist>5){
       for(int k=0;k<m_readcnt-5;k++){
-        PcmItem* item = vec_pcm[k];
-        vec_pcm[k] = NULL;
+        PcmItem* item = itemat(k,1);
         if(item){ 
           delete item;
           m_clrcnt = k;
@@ -738,22 +946,8 @@ int PcmSession::readblock(uint64_t sessid,jmat_t* mbnf,int inx){
   //printf("===inx %d num %d\n",inx,m_numcalc);
   if(inx>=m_numcalc)return -99;
   int rst = 0;
-  PcmItem* curitem = NULL;
   int newinx = 0;
-  if((inx<m_arrmax[m_readcnt])&&(inx>=m_arrmin[m_readcnt])){
-    curitem = vec_pcm[m_readcnt];
-    newinx = inx - m_arrmin[m_readcnt];
-  }else{
-    for(int k=0;k<m_calccnt;k++){
-      //printf("==k %d max %d min %d\n",k,m_arrmax[k],m_arrmin[k]);
-      if((inx<m_arrmax[k])&&(inx>=m_arrmin[k])){
-        curitem = vec_pcm[k];
-        m_readcnt = k;
-        newinx = inx - m_arrmin[k];
-        break;
-      }
-    }
-  }
+  PcmItem* curitem = finditem(inx,&newinx);
   //printf("===curitem %p inx %d new %d\n",curitem,inx ,newinx);
   if(curitem){
     rst = curitem->readblock(newinx,NULL,mbnf);
@@ -772,7 +966,8 @@ int PcmSession::readnext(uint64_t sessid,jmat_t* mpcm,jmat_t* mbnf){
   if(m_totalread<m_totalpush){
     //printf("===q %d r %d\n",m_readcnt,m_calccnt);
     if(m_readcnt<m_calccnt){
-      PcmItem* item = vec_pcm[m_readcnt];      
+      PcmItem* item = itemat(m_readcnt);
+      if(!item)return 0;
       int rst = item->readblock(mpcm,mbnf);
       if(!rst){
         m_readcnt++;
@@ -6,9 +6,14 @@
 #include <vector>
 #include "dhwenet.h"
 #include "wenetai.h"
+#include "bnfcache.h"
 
 //#define PCMDEBUG 1
 #define AIRUN_FLAG 1
+//energy vad flags, one per 40ms block of a session, grown by doubling
+#define PCMVAD_INITBLOCK 256
+//item bounds, grown with vec_pcm
+#define PCMSESS_INITITEM 64
 class PcmItem{
   private:
     uint64_t m_sessid = 0;
@@ -50,6 +55,8 @@ class PcmItem{
     int readbnf(char* buf);
     int numblock();
     int startinx(){return m_inx;};
+    jmat_t* bnf(){return m_mfcc;};
+    int loadbnf(jmat_t* wav,jmat_t* bnf);
     int endinx(){return m_inx+pcm_block;};
     int readblock();
     void dump(FILE* dumpfile);
@@ -114,7 +121,6 @@ class PcmSession{
     uint8_t      *m_pcmcache = NULL;
 
     std::mutex  m_lock;
-    int         *m_arrflag;
     int         m_curflag = 1;
 
     std::vector<PcmItem*>  vec_pcm ;
@@ -141,10 +147,39 @@ class PcmSession{
     int     m_flip = 0;
     int         *m_arrmax = NULL;
     int         *m_arrmin = NULL;
+    int         m_arritem = 0;
+    //vec_pcm and the bounds move when they grow, other threads go through these under m_lock
+    int     pushitem(PcmItem* item);
+    PcmItem* itemat(int k,int take=0);
+    PcmItem* finditem(int inx,int* newinx);
     int         m_fileblock = 0;
     int         m_calcblock = 0;
+    uint64_t    m_hash = BNFCACHE_SEED;
+    BnfEntry    *m_capture = NULL;
+    int     capture(PcmItem* item);
+    uint8_t     *m_arrquiet = NULL;
+    int         m_vadmax = 0;
+    volatile int m_vadcnt = 0;
+    int64_t     m_vadthresh = 0;
+    int64_t     m_vadsum = 0;
+    int         m_vadpos = 0;
+    int         m_vadlow = 0;
+    int         m_vadhang = 0;
+    int     vadfeed(uint8_t* buf,int len);
+    int     vadblock();
   public:
+    //db<0 rms threshold in dBFS, 0 turns it off, hang quiet blocks needed on each side
+    //only before the first push, the flags follow the pushed bytes
+    int setvad(int db,int hang);
+    //1 when block inx and hang blocks around it are quiet, 0 when voiced or not known yet
+    int silent(int inx);
     int setflip(int flip);
+    int setcache(int enable);
+    uint64_t pcmhash(){return m_hash;};
+    uint64_t cachekey(BnfCache* cache){return cache->makekey(m_hash,m_minoff,m_mincnt,m_maxcnt);};
+    uint64_t cachekey(BnfCache* cache,uint8_t* buf,int len){return cache->makekey(bnfcache_hash(BNFCACHE_SEED,buf,len),m_minoff,m_mincnt,m_maxcnt);};
+    int loadcache(uint64_t sessid,uint8_t* buf,int len,BnfEntry* entry);
+    BnfEntry* takecache();
     uint64_t sessid(){return m_sessid;};
     int simppcm(uint64_t sessid,uint8_t* buf,int len);
     int pushpcm(uint64_t sessid,uint8_t* buf,int len);
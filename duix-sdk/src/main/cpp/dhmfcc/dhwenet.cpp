@@ -4,6 +4,7 @@
 #include <string>
 #include "aicommon.h"
 #include "mfcc/mfcc.hpp"
+#include "mfcc/melfast.hpp"
 
 
 int DhWenet::cntmel(int pcmblock){
@@ -21,13 +22,13 @@ int DhWenet::cntbnf(int melblock){
 int DhWenet::calcmfcc(float* fwav,float* mel2){
     int rst = 0;
     int melcnt = MFCC_WAVCHUNK/160+1;
-    rst = log_mel(fwav,MFCC_WAVCHUNK, 16000,mel2);
+    rst = log_mel_fast(fwav,MFCC_WAVCHUNK, 16000,mel2);
     return rst;
 }
 
 int DhWenet::calcmfcc(float* fwav,int fsample,float* mel2,int melcnt){
     int rst = 0;
-    rst = log_mel(fwav,fsample, 16000,mel2);
+    rst = log_mel_fast(fwav,fsample, 16000,mel2);
     return rst;
 }
 
@@ -37,7 +38,7 @@ int DhWenet::calcmfcc(jmat_t* mwav,jmat_t* mmel){
     for(size_t k=0;k<mwav->height;k++){
         float* fwav = (float*)jmat_row(mwav,k);
         float* mel2 = (float*)jmat_row(mmel,k);
-        rst = log_mel(fwav,MFCC_WAVCHUNK, 16000,mel2);
+        rst = log_mel_fast(fwav,MFCC_WAVCHUNK, 16000,mel2);
     }
     return rst;
 }
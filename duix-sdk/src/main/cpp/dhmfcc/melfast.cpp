@@ -0,0 +1,207 @@
+#include "mfcc/melfast.hpp"
+#include "mfcc/mfcc.hpp"
+#include "mfcc/AudioFFT.hpp"
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <vector>
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define MEL_NEON 1
+#elif defined(__SSE__)
+#include <xmmintrin.h>
+#define MEL_SSE 1
+#endif
+
+#define MEL_RATE    16000
+#define MEL_NFFT    1024
+#define MEL_HOP     160
+#define MEL_WIN     800
+#define MEL_BANKS   80
+#define MEL_BINS    (MEL_NFFT/2+1)
+//bins rounded up to 4 lanes, the tail stays zero
+#define MEL_BINPAD  ((MEL_BINS+3)&~3)
+#define MEL_WINOFF  ((MEL_NFFT-MEL_WIN)/2)
+#define MEL_PAD     (MEL_NFFT/2)
+#define MEL_EMPH    0.97f
+#define MEL_REFDB   20.0f
+
+static inline void vmulwin(float* dst,const float* src,const float* win,int cnt){
+  int k = 0;
+#if defined(MEL_NEON)
+  for(;k+4<=cnt;k+=4){
+    vst1q_f32(dst+k,vmulq_f32(vld1q_f32(src+k),vld1q_f32(win+k)));
+  }
+#elif defined(MEL_SSE)
+  for(;k+4<=cnt;k+=4){
+    _mm_storeu_ps(dst+k,_mm_mul_ps(_mm_loadu_ps(src+k),_mm_loadu_ps(win+k)));
+  }
+#endif
+  for(;k<cnt;k++)dst[k] = src[k]*win[k];
+}
+
+static inline void vpower(float* dst,const float* re,const float* im,int cnt){
+  int k = 0;
+#if defined(MEL_NEON)
+  for(;k+4<=cnt;k+=4){
+    float32x4_t vr = vld1q_f32(re+k);
+    float32x4_t vi = vld1q_f32(im+k);
+    vst1q_f32(dst+k,vmlaq_f32(vmulq_f32(vr,vr),vi,vi));
+  }
+#elif defined(MEL_SSE)
+  for(;k+4<=cnt;k+=4){
+    __m128 vr = _mm_loadu_ps(re+k);
+    __m128 vi = _mm_loadu_ps(im+k);
+    _mm_storeu_ps(dst+k,_mm_add_ps(_mm_mul_ps(vr,vr),_mm_mul_ps(vi,vi)));
+  }
+#endif
+  for(;k<cnt;k++)dst[k] = re[k]*re[k]+im[k]*im[k];
+}
+
+//cnt is a multiple of 4
+static inline float vdot(const float* a,const float* b,int cnt){
+#if defined(MEL_NEON)
+  float32x4_t acc = vdupq_n_f32(0.0f);
+  for(int k=0;k<cnt;k+=4){
+    acc = vmlaq_f32(acc,vld1q_f32(a+k),vld1q_f32(b+k));
+  }
+#if defined(__aarch64__)
+  return vaddvq_f32(acc);
+#else
+  float32x2_t sum = vadd_f32(vget_low_f32(acc),vget_high_f32(acc));
+  return vget_lane_f32(vpadd_f32(sum,sum),0);
+#endif
+#elif defined(MEL_SSE)
+  __m128 acc = _mm_setzero_ps();
+  for(int k=0;k<cnt;k+=4){
+    acc = _mm_add_ps(acc,_mm_mul_ps(_mm_loadu_ps(a+k),_mm_loadu_ps(b+k)));
+  }
+  acc = _mm_add_ps(acc,_mm_movehl_ps(acc,acc));
+  acc = _mm_add_ss(acc,_mm_shuffle_ps(acc,acc,1));
+  return _mm_cvtss_f32(acc);
+#else
+  float sum = 0.0f;
+  for(int k=0;k<cnt;k++)sum += a[k]*b[k];
+  return sum;
+#endif
+}
+
+//hann window and sparse filterbank, one copy per process
+struct MelTables{
+  float window[MEL_WIN];
+  int   start[MEL_BANKS];
+  int   cnt[MEL_BANKS];
+  int   off[MEL_BANKS];
+  std::vector<float> weights;
+
+  MelTables(){
+    double pi = 3.14159265358979323846;
+    for(int k=1;k<=MEL_WIN;k++){
+      window[k-1] = float(0.5*(1-cos(2*pi*k/(MEL_WIN+1))));
+    }
+    std::vector<double> basis(MEL_BANKS*MEL_BINS);
+    mel_filters(MEL_NFFT,MEL_BANKS,basis.data());
+    //each band only covers the bins between its neighbours
+    for(int m=0;m<MEL_BANKS;m++){
+      const double* row = basis.data()+m*MEL_BINS;
+      int first = 0;
+      int last = -1;
+      for(int k=0;k<MEL_BINS;k++){
+        if(row[k]!=0.0){
+          if(last<0)first = k;
+          last = k;
+        }
+      }
+      if(last<first){
+        first = 0;
+        last = 0;
+      }
+      int len = (last-first+4)&~3;
+      start[m] = first;
+      cnt[m] = len;
+      off[m] = weights.size();
+      for(int k=0;k<len;k++){
+        int bin = first+k;
+        weights.push_back(bin<MEL_BINS?(float)row[bin]:0.0f);
+      }
+    }
+  }
+};
+
+static const MelTables& meltables(){
+  static MelTables tables;
+  return tables;
+}
+
+//fft plan and buffers, kept across calls of the calc worker
+struct MelScratch{
+  audiofft::AudioFFT fft;
+  float* pad = NULL;
+  int   padcap = 0;
+  float frame[MEL_NFFT];
+  float re[MEL_BINPAD];
+  float im[MEL_BINPAD];
+  float power[MEL_BINPAD];
+
+  MelScratch(){
+    fft.init(MEL_NFFT);
+    //outside the window and past the last bin nothing is written
+    memset(frame,0,sizeof(frame));
+    memset(re,0,sizeof(re));
+    memset(im,0,sizeof(im));
+    memset(power,0,sizeof(power));
+  }
+
+  int grow(int size){
+    if(size<=padcap)return 0;
+    int cap = size+size/4;
+    float* buf = (float*)realloc(pad,cap*sizeof(float));
+    if(!buf)return -1;
+    pad = buf;
+    padcap = cap;
+    return 0;
+  }
+
+  ~MelScratch(){
+    if(pad)free(pad);
+  }
+};
+
+static thread_local MelScratch g_melscratch;
+
+int log_mel_fast(float* ifile_data, int ifile_length,int nSamples_per_sec,float* ofile_data) {
+  if(nSamples_per_sec!=MEL_RATE)return -1;
+  //reflect padding needs more samples than the pad, short input keeps the old path
+  if(ifile_length<=MEL_PAD)return log_mel(ifile_data,ifile_length,nSamples_per_sec,ofile_data);
+  const MelTables& tab = meltables();
+  MelScratch& sc = g_melscratch;
+  int size = ifile_length+2*MEL_PAD;
+  if(sc.grow(size))return -2;
+
+  //pre-emphasis straight into the padded buffer
+  float* emph = sc.pad+MEL_PAD;
+  emph[0] = 0.0f;
+  for(int k=1;k<ifile_length;k++){
+    emph[k] = ifile_data[k]-ifile_data[k-1]*MEL_EMPH;
+  }
+  //BORDER_REFLECT_101
+  for(int k=1;k<=MEL_PAD;k++){
+    emph[-k] = emph[k];
+    emph[ifile_length-1+k] = emph[ifile_length-1-k];
+  }
+
+  int frames = (size-MEL_NFFT)/MEL_HOP+1;
+  float* out = ofile_data;
+  for(int f=0;f<frames;f++){
+    const float* src = sc.pad+f*MEL_HOP;
+    vmulwin(sc.frame+MEL_WINOFF,src+MEL_WINOFF,tab.window,MEL_WIN);
+    sc.fft.fft(sc.frame,sc.re,sc.im);
+    vpower(sc.power,sc.re,sc.im,MEL_BINPAD);
+    for(int m=0;m<MEL_BANKS;m++){
+      float mel = vdot(tab.weights.data()+tab.off[m],sc.power+tab.start[m],tab.cnt[m]);
+      *out++ = 10.0f*log10f(mel+1e-5f)-MEL_REFDB;
+    }
+  }
+  return 0;
+}
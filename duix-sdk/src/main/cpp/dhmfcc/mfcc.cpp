@@ -2,6 +2,7 @@
 #include "mfcc/AudioFFT.hpp"
 #include "mfcc/iir_filter.hpp"
 #include "opencv2/core.hpp"
+#include <string.h>
 
 static int nSamplesPerSec = 16000;
 static int length_DFT = 1024;//2048;
@@ -162,6 +163,15 @@ static cv::Mat_<double> mel_spectrogram_create(int nps, int n_fft, int n_mels) {
     return weights;
 }
 
+int mel_filters(int n_fft,int n_mels,double* weights) {
+    cv::Mat_<double> basis = mel_spectrogram_create(nSamplesPerSec, n_fft, n_mels);
+    int n_fft_2 = 1 + n_fft / 2;
+    for (int i = 0; i < n_mels; i++) {
+        memcpy(weights + i * n_fft_2, basis[i], n_fft_2 * sizeof(double));
+    }
+    return 0;
+}
+
 //"""Short-time Fourier transform (STFT)""": 默认center=True, window='hann', pad_mode='reflect'
 static cv::Mat_<double> MagnitudeSpectrogram(const cv::Mat_<float> *emphasis_data, int n_fft = 2048, int hop_length = 0, int win_length = 0) {
     if (win_length == 0) {
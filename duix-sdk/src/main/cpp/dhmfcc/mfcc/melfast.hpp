@@ -0,0 +1,6 @@
+#pragma once
+
+//streaming log-mel, same layout and parameters as log_mel
+//window and filterbank are built once per process, fft plan and scratch are kept per thread
+//single precision, neon on arm and sse on host
+int log_mel_fast(float* ifile_data, int ifile_length,int nSamples_per_sec,float* ofile_data) ;
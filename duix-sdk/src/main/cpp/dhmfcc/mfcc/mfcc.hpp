@@ -5,3 +5,5 @@
 
 
 int log_mel(float* ifile_data, int ifile_length,int nSamples_per_sec,float* ofile_data) ;
+//slaney mel filterbank, n_mels x (n_fft/2+1) doubles
+int mel_filters(int n_fft,int n_mels,double* weights);
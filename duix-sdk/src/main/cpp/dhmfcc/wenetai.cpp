@@ -1,4 +1,10 @@
 #include "wenetai.h"
+#include <math.h>
+#include <time.h>
+#include <unordered_map>
+#ifdef __ANDROID__
+#include "nnapi_provider_factory.h"
+#endif
 WeAI::WeAI(int melcnt,int bnfcnt,int trd){
   n_trd = trd;
   dimin = melcnt;
@@ -38,36 +44,148 @@ int WeAI::test(){
   return dorun(bufin,dimin,bufout,dimout);
 }
 
+static uint64_t bench_usstamp(){
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC,&ts);
+  return ts.tv_sec*1000000ull + ts.tv_nsec/1000;
+}
+
+int WeAI::bench(int rounds){
+  //log-mel like values, zeros would let some kernels take shortcuts
+  int cnt = dimin*80;
+  for(int k=0;k<cnt;k++){
+    bufin[k] = -30.0f + 20.0f*sinf(k*0.013f) + (k%80)*0.1f;
+  }
+  buflen[0] = dimin;
+  test();
+  if(rounds<1)rounds = 1;
+  uint64_t tick = bench_usstamp();
+  for(int k=0;k<rounds;k++){
+    test();
+  }
+  return (int)((bench_usstamp()-tick)/rounds);
+}
+
 int WeOnnx::dorun(float* mel,int melcnt,float* bnf,int bnfcnt){
-  //
+  if(bindmel&&(melcnt==bindmel)&&(bnfcnt==bindbnf)){
+    //only the item buffers move, names, shapes and the length stay bound
+    if(mel!=bindin){
+      tensorin = Ort::Value::CreateTensor( memoryInfo, mel ,sizein ,  shapein, 3 ,ONNX_TENSOR_ELEMENT_DATA_TYPE_FLOAT);
+      binding.BindInput(names_in[0],tensorin);
+      bindin = mel;
+    }
+    if(bnf!=bindout){
+      tensorout = Ort::Value::CreateTensor( memoryInfo, bnf ,sizeout ,  shapeout, 3 ,ONNX_TENSOR_ELEMENT_DATA_TYPE_FLOAT);
+      binding.BindOutput(names_out[0],tensorout);
+      bindout = bnf;
+    }
+    session.Run(runOptions,binding);
+    return 0;
+  }
   Ort::Value arrin[2] = {Ort::Value::CreateTensor( memoryInfo, mel ,sizein ,  shapein, 3 ,ONNX_TENSOR_ELEMENT_DATA_TYPE_FLOAT),Ort::Value::CreateTensor( memoryInfo, buflen ,sizelen ,  shapelen, 1 ,ONNX_TENSOR_ELEMENT_DATA_TYPE_INT32)};
   Ort::Value arrout[1] = {Ort::Value::CreateTensor( memoryInfo, bnf ,sizeout ,  shapeout, 3 ,ONNX_TENSOR_ELEMENT_DATA_TYPE_FLOAT)};
   session.Run(runOptions, names_in, arrin, 2, names_out,arrout, 1);
   return 0;
 }
 
-WeOnnx::WeOnnx(std::string modelfn,int mel,int bnf,int trd):WeAI(mel,bnf,trd){
+int WeOnnx::setprovider(const WeOrtConf& conf){
+  try{
+    if(conf.provider==WEORT_PROVIDER_XNNPACK){
+      std::unordered_map<std::string,std::string> opts;
+      opts["intra_op_num_threads"] = std::to_string(conf.intra);
+      sessionOptions.AppendExecutionProvider("XNNPACK",opts);
+      return conf.provider;
+    }
+#ifdef __ANDROID__
+    if(conf.provider==WEORT_PROVIDER_NNAPI){
+      Ort::ThrowOnError(OrtSessionOptionsAppendExecutionProvider_Nnapi(sessionOptions,0));
+      return conf.provider;
+    }
+#endif
+  }catch(Ort::Exception& e){
+    printf("===wenet provider %d unavailable %s\n",conf.provider,e.what());
+  }
+  return WEORT_PROVIDER_CPU;
+}
+
+WeOnnx::WeOnnx(std::string modelfn,int mel,int bnf,int trd,const WeOrtConf* conf):WeAI(mel,bnf,trd){
   //
+  WeOrtConf defconf;
+  if(!conf)conf = &defconf;
   env = Ort::Env(OrtLoggingLevel::ORT_LOGGING_LEVEL_WARNING, "wenet");
   sessionOptions = Ort::SessionOptions();
-//  sessionOptions.SetIntraOpNumThreads(n_trd);
-    sessionOptions.SetIntraOpNumThreads(2);
-// todo jth add
-  //sessionOptions.SetIntraOpNumThreads(1);
-  //sessionOptions.SetInterOpNumThreads(1);
+  int provider = setprovider(*conf);
+  m_provider = provider;
+  //xnnpack runs its own pool, the session pool would only spin next to it
+  sessionOptions.SetIntraOpNumThreads(provider==WEORT_PROVIDER_XNNPACK?1:conf->intra);
+  if(conf->inter>1){
+    sessionOptions.SetExecutionMode(ExecutionMode::ORT_PARALLEL);
+    sessionOptions.SetInterOpNumThreads(conf->inter);
+  }
+  if(!conf->spinning){
+    sessionOptions.AddConfigEntry("session.intra_op.allow_spinning", "0");
+    sessionOptions.AddConfigEntry("session.inter_op.allow_spinning", "0");
+  }
   sessionOptions.AddConfigEntry("session.disable_prepacking", "1");
-  sessionOptions.SetGraphOptimizationLevel( GraphOptimizationLevel::ORT_ENABLE_ALL);
+  GraphOptimizationLevel level = GraphOptimizationLevel::ORT_ENABLE_ALL;
+  if(conf->optlevel==0)level = GraphOptimizationLevel::ORT_DISABLE_ALL;
+  else if(conf->optlevel==1)level = GraphOptimizationLevel::ORT_ENABLE_BASIC;
+  else if(conf->optlevel==2)level = GraphOptimizationLevel::ORT_ENABLE_EXTENDED;
+  sessionOptions.SetGraphOptimizationLevel(level);
+  if(conf->mempattern){
+    sessionOptions.EnableMemPattern();
+  }else{
+    sessionOptions.DisableMemPattern();
+  }
+  if(conf->arena){
+    sessionOptions.EnableCpuMemArena();
+  }else{
+    sessionOptions.DisableCpuMemArena();
+  }
   session = Ort::Session(env, modelfn.c_str(), sessionOptions);
   memoryInfo = Ort::MemoryInfo::CreateCpu( OrtAllocatorType::OrtDeviceAllocator, OrtMemType::OrtMemTypeCPU);
   //Ort::MemoryInfo::CreateCpu( OrtAllocatorType::OrtArenaAllocator, OrtMemType::OrtMemTypeDefault);
-  //tensorin = Ort::Value::CreateTensor( memoryInfo, bufin ,sizein ,  shapein, 3 ,ONNX_TENSOR_ELEMENT_DATA_TYPE_FLOAT);
-  //tensorlen = Ort::Value::CreateTensor( memoryInfo, buflen ,sizelen ,  shapelen, 1 ,ONNX_TENSOR_ELEMENT_DATA_TYPE_INT32);
-  //tensorout = Ort::Value::CreateTensor( memoryInfo, bufout ,sizeout ,  shapeout, 3 ,ONNX_TENSOR_ELEMENT_DATA_TYPE_FLOAT);
+  //buflen is rewritten by run before every dorun, the bound tensor reads it in place
+  tensorlen = Ort::Value::CreateTensor( memoryInfo, buflen ,sizelen ,  shapelen, 1 ,ONNX_TENSOR_ELEMENT_DATA_TYPE_INT32);
+  binding = Ort::IoBinding(session);
+  binding.BindInput(names_in[1],tensorlen);
+  bindmel = mel;
+  bindbnf = bnf;
+  printf("===wenet ort mel %d intra %d inter %d opt %d provider %d spin %d\n",mel,conf->intra,conf->inter,conf->optlevel,provider,conf->spinning);
 }
 
 WeOnnx::~WeOnnx(){
 }
 
+WeAI* weai_create(int backend,std::string modelfn,int mel,int bnf,const WeOrtConf* conf){
+  WeOrtConf ortconf;
+  if(conf)ortconf = *conf;
+  try{
+    switch(backend){
+      case WEAI_BACKEND_ONNX:
+      case WEAI_BACKEND_XNNPACK:
+      case WEAI_BACKEND_NNAPI:{
+        ortconf.provider = backend;
+        WeOnnx* onnx = new WeOnnx(modelfn,mel,bnf,4,&ortconf);
+        if(onnx->provider()!=backend){
+          delete onnx;
+          return NULL;
+        }
+        return onnx;
+      }
+#ifdef WENETOPENV
+      case WEAI_BACKEND_OPENVINO:
+        return new WeOpvn(modelfn+"_ov.bin",modelfn+"_ov.xml",mel,bnf,4);
+#endif
+      default:
+        break;
+    }
+  }catch(std::exception& e){
+    printf("===wenet backend %d failed %s\n",backend,e.what());
+  }
+  return NULL;
+}
+
 
 #ifdef WENETOPENV
 int WeOpvn::dorun(float* mel,int melcnt,float* bnf,int bnfcnt){
@@ -28,9 +28,34 @@ class WeAI{
     WeAI(int melcnt,int bnfcnt,int trd=4);
     int run(float* mel,int melcnt,float* bnf,int bnfcnt);
     int test();
+    //average us per run on a canned mel block, after one warm up run
+    int bench(int rounds);
     virtual ~WeAI();
 };
 
+//runtime backends, the onnx ones match WEORT_PROVIDER_*
+#define WEAI_BACKEND_ONNX       0
+#define WEAI_BACKEND_XNNPACK    1
+#define WEAI_BACKEND_NNAPI      2
+#define WEAI_BACKEND_OPENVINO   3
+#define WEAI_BACKEND_MNN        4
+#define WEAI_BACKEND_COUNT      5
+
+
+#define WEORT_PROVIDER_CPU      0
+#define WEORT_PROVIDER_XNNPACK  1
+#define WEORT_PROVIDER_NNAPI    2
+
+//onnxruntime session settings, the defaults are what the session used before
+struct WeOrtConf{
+  int intra = 2;
+  int inter = 1;
+  int optlevel = 99;      //0 disable,1 basic,2 extended,99 all
+  int mempattern = 1;
+  int arena = 1;
+  int spinning = 1;       //0 lets the intra op threads sleep between runs, munet gets the cores
+  int provider = WEORT_PROVIDER_CPU;
+};
 
 #define WENETONNX  1
 #ifdef WENETONNX
@@ -38,19 +63,29 @@ class WeAI{
 class WeOnnx:public WeAI{
   protected:
 
-    //Ort::Value tensorin{nullptr};
-    //Ort::Value tensorlen{nullptr};
-    //Ort::Value tensorout{nullptr};
-
     Ort::Env env{nullptr};
     Ort::SessionOptions sessionOptions{nullptr};
     Ort::RunOptions runOptions;
     Ort::Session session{nullptr};
     Ort::MemoryInfo memoryInfo{nullptr};
+
+    //bound for the block size the session was made for, other sizes take the plain Run
+    Ort::Value tensorin{nullptr};
+    Ort::Value tensorlen{nullptr};
+    Ort::Value tensorout{nullptr};
+    Ort::IoBinding binding{nullptr};
+    int   m_provider = 0;
+    int   bindmel = 0;
+    int   bindbnf = 0;
+    float* bindin = NULL;
+    float* bindout = NULL;
   protected:
     virtual int dorun(float* mel,int melcnt,float* bnf,int bnfcnt);
+    int setprovider(const WeOrtConf& conf);
   public:
-    WeOnnx(std::string modelfn,int mel,int bnf,int trd);
+    WeOnnx(std::string modelfn,int mel,int bnf,int trd,const WeOrtConf* conf=NULL);
+    //provider the session really got, a missing one falls back to cpu
+    int provider(){return m_provider;};
     virtual ~WeOnnx();
 };
 #endif
@@ -90,3 +125,6 @@ class WeOpvn:public WeAI{
 };
 #endif
 
+//NULL when the backend is not built in, not supported on this device or fails to load
+//openvino reads modelfn+"_ov.bin" and modelfn+"_ov.xml"
+WeAI* weai_create(int backend,std::string modelfn,int mel,int bnf,const WeOrtConf* conf=NULL);
@@ -90,7 +90,12 @@ void BlendGramSimp(unsigned char *Src,unsigned char* Mask, unsigned char *Dest,
 	}
 }
 
-void BlendGramAlpha3(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height)
+//scalar references, the dispatching entries and vector kernels are in blendsimd.cpp
+//alpha3 is checked bit for bit against the vector path, keep the mul and add unfused
+#ifdef __clang__
+#pragma STDC FP_CONTRACT OFF
+#endif
+void BlendGramAlpha3Ref(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height)
 {
     //printf("w %d h %d\n",Width,Height);
 	unsigned char *LinePS, *LinePD,*LinePM;
@@ -119,7 +124,7 @@ void BlendGramAlpha3(unsigned char *Src,unsigned char* Mask, unsigned char *Dest
 	}
 }
 
-void BlendGramAlpha(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height)
+void BlendGramAlphaRef(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height)
 {
 	unsigned char *LinePS, *LinePD,*LinePM;
 	for (int Y = 0; Y < Height; Y += 1)
@@ -146,7 +151,7 @@ void BlendGramAlpha(unsigned char *Src,unsigned char* Mask, unsigned char *Dest,
 	}
 }
 
-void BlendGramAlphaRev(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height)
+void BlendGramAlphaRevRef(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height)
 {
 	unsigned char *LinePS, *LinePD,*LinePM;
 	for (int Y = 0; Y < Height; Y += 1)
@@ -274,6 +274,19 @@ void BlendGramSimp(unsigned char *Src,unsigned char* Mask, unsigned char *Dest,
 void BlendGramAlpha(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height);
 void BlendGramAlpha3(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height);
 void BlendGramAlphaRev(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height);
+void BlendGramAlphaRef(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height);
+void BlendGramAlpha3Ref(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height);
+void BlendGramAlphaRevRef(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height);
+
+//vector level of BlendGramAlpha/Alpha3/AlphaRev, picked from the cpu at load
+#define BLEND_LEVEL_AUTO    -1
+#define BLEND_LEVEL_SCALAR  0
+#define BLEND_LEVEL_NEON    1
+#define BLEND_LEVEL_SSSE3   2
+#define BLEND_LEVEL_AVX2    3
+//force a level, capped at what the cpu has, AUTO goes back to the best; not thread safe, call before blending
+int BlendGramLevel(int level);
+int BlendGramCurLevel();
 /*
 void BlendImageAdjustWithMask(CBitmap* bmp,CBitmap* adj,CBitmap* dst ,CBitmap* msk,int mode);
 void BlendImageAdjustWithMaskEx(CBitmap* bmp,CBitmap* adj,CBitmap* dst ,CBitmap* msk,int mode);
@@ -0,0 +1,352 @@
+#include <stdio.h>
+#include <string.h>
+#include "blendgram.h"
+
+//vector kernels of the alpha blends, the scalar *Ref functions in blendgram.cpp are the reference
+//rows are packed so a whole image is one run of width*height pixels
+//x/255 of the integer blends is (x+(x>>8)+1)>>8, exact for x<=255*255
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define BLEND_NEON 1
+#elif (defined(__x86_64__) || defined(__i386__)) && (defined(__GNUC__) || defined(__clang__))
+#include <immintrin.h>
+#define BLEND_X86 1
+#endif
+
+typedef void (*BlendKernel)(uchar* src,uchar* mask,uchar* dst,int pixels);
+
+#ifdef BLEND_NEON
+static inline uint8x8_t neon_div255(uint16x8_t x){
+  uint16x8_t t = vaddq_u16(vaddq_u16(x,vshrq_n_u16(x,8)),vdupq_n_u16(1));
+  return vshrn_n_u16(t,8);
+}
+
+//(m*a+(255-m)*b)/255 on 16 lanes
+static inline uint8x16_t neon_mix(uint8x16_t a,uint8x16_t b,uint8x16_t m,uint8x16_t n){
+  uint16x8_t lo = vmlal_u8(vmull_u8(vget_low_u8(m),vget_low_u8(a)),vget_low_u8(n),vget_low_u8(b));
+  uint16x8_t hi = vmlal_u8(vmull_u8(vget_high_u8(m),vget_high_u8(a)),vget_high_u8(n),vget_high_u8(b));
+  return vcombine_u8(neon_div255(lo),neon_div255(hi));
+}
+
+static void neon_alpha(uchar* src,uchar* mask,uchar* dst,int pixels){
+  int k = 0;
+  uint8x16_t full = vdupq_n_u8(255);
+  for(;k+16<=pixels;k+=16){
+    uint8x16x3_t d = vld3q_u8(dst+k*3);
+    uint8x16x3_t s = vld3q_u8(src+k*3);
+    uint8x16_t m = vld1q_u8(mask+k);
+    uint8x16_t n = vsubq_u8(full,m);
+    d.val[0] = neon_mix(d.val[0],s.val[0],m,n);
+    d.val[1] = neon_mix(d.val[1],s.val[1],m,n);
+    d.val[2] = neon_mix(d.val[2],s.val[2],m,n);
+    vst3q_u8(dst+k*3,d);
+  }
+  if(k<pixels)BlendGramAlphaRef(src+k*3,mask+k,dst+k*3,pixels-k,1);
+}
+
+static void neon_alpharev(uchar* src,uchar* mask,uchar* dst,int pixels){
+  int k = 0;
+  uint8x16_t full = vdupq_n_u8(255);
+  for(;k+16<=pixels;k+=16){
+    uint8x16x3_t d = vld3q_u8(dst+k*3);
+    uint8x16x3_t s = vld3q_u8(src+k*3);
+    uint8x16_t m = vld1q_u8(mask+k);
+    uint8x16_t n = vsubq_u8(full,m);
+    d.val[0] = neon_mix(s.val[0],d.val[0],m,n);
+    d.val[1] = neon_mix(s.val[1],d.val[1],m,n);
+    d.val[2] = neon_mix(s.val[2],d.val[2],m,n);
+    vst3q_u8(dst+k*3,d);
+  }
+  if(k<pixels)BlendGramAlphaRevRef(src+k*3,mask+k,dst+k*3,pixels-k,1);
+}
+
+#if defined(__aarch64__)
+//same float steps as the reference: m/255, 1-alpha, d*alpha+s*beta, clamp, truncate
+static inline uint32x4_t neon_mixf(uint32x4_t d,uint32x4_t s,float32x4_t alpha,float32x4_t beta){
+  float32x4_t v = vaddq_f32(vmulq_f32(vcvtq_f32_u32(d),alpha),vmulq_f32(vcvtq_f32_u32(s),beta));
+  v = vminq_f32(vmaxq_f32(v,vdupq_n_f32(0.0f)),vdupq_n_f32(255.0f));
+  return vcvtq_u32_f32(v);
+}
+
+static inline uint8x16_t neon_mix3(uint8x16_t d,uint8x16_t s,const float32x4_t* alpha,const float32x4_t* beta){
+  uint16x8_t d16[2] = {vmovl_u8(vget_low_u8(d)),vmovl_u8(vget_high_u8(d))};
+  uint16x8_t s16[2] = {vmovl_u8(vget_low_u8(s)),vmovl_u8(vget_high_u8(s))};
+  uint16x4_t out[4];
+  for(int h=0;h<2;h++){
+    uint32x4_t lo = neon_mixf(vmovl_u16(vget_low_u16(d16[h])),vmovl_u16(vget_low_u16(s16[h])),alpha[h*2],beta[h*2]);
+    uint32x4_t hi = neon_mixf(vmovl_u16(vget_high_u16(d16[h])),vmovl_u16(vget_high_u16(s16[h])),alpha[h*2+1],beta[h*2+1]);
+    out[h*2] = vmovn_u32(lo);
+    out[h*2+1] = vmovn_u32(hi);
+  }
+  return vcombine_u8(vmovn_u16(vcombine_u16(out[0],out[1])),vmovn_u16(vcombine_u16(out[2],out[3])));
+}
+
+static void neon_alpha3(uchar* src,uchar* mask,uchar* dst,int pixels){
+  int k = 0;
+  float32x4_t f255 = vdupq_n_f32(255.0f);
+  float32x4_t one = vdupq_n_f32(1.0f);
+  for(;k+16<=pixels;k+=16){
+    uint8x16x3_t d = vld3q_u8(dst+k*3);
+    uint8x16x3_t s = vld3q_u8(src+k*3);
+    //only the first channel of the mask counts
+    uint8x16_t m = vld3q_u8(mask+k*3).val[0];
+    uint16x8_t m16[2] = {vmovl_u8(vget_low_u8(m)),vmovl_u8(vget_high_u8(m))};
+    float32x4_t alpha[4];
+    float32x4_t beta[4];
+    for(int h=0;h<2;h++){
+      alpha[h*2] = vdivq_f32(vcvtq_f32_u32(vmovl_u16(vget_low_u16(m16[h]))),f255);
+      alpha[h*2+1] = vdivq_f32(vcvtq_f32_u32(vmovl_u16(vget_high_u16(m16[h]))),f255);
+      beta[h*2] = vsubq_f32(one,alpha[h*2]);
+      beta[h*2+1] = vsubq_f32(one,alpha[h*2+1]);
+    }
+    d.val[0] = neon_mix3(d.val[0],s.val[0],alpha,beta);
+    d.val[1] = neon_mix3(d.val[1],s.val[1],alpha,beta);
+    d.val[2] = neon_mix3(d.val[2],s.val[2],alpha,beta);
+    vst3q_u8(dst+k*3,d);
+  }
+  if(k<pixels)BlendGramAlpha3Ref(src+k*3,mask+k*3,dst+k*3,pixels-k,1);
+}
+#endif
+#endif
+
+#ifdef BLEND_X86
+#define BLEND_SSSE3 __attribute__((target("ssse3")))
+#define BLEND_AVX2  __attribute__((target("avx2")))
+
+//16 single channel mask bytes spread over the 48 bytes of 16 rgb pixels
+BLEND_SSSE3 static inline void sse_expand(__m128i m,__m128i* out){
+  const __m128i sh0 = _mm_setr_epi8(0,0,0,1,1,1,2,2,2,3,3,3,4,4,4,5);
+  const __m128i sh1 = _mm_setr_epi8(5,5,6,6,6,7,7,7,8,8,8,9,9,9,10,10);
+  const __m128i sh2 = _mm_setr_epi8(10,11,11,11,12,12,12,13,13,13,14,14,14,15,15,15);
+  out[0] = _mm_shuffle_epi8(m,sh0);
+  out[1] = _mm_shuffle_epi8(m,sh1);
+  out[2] = _mm_shuffle_epi8(m,sh2);
+}
+
+//first channel of 16 rgb mask pixels, gathered from 48 bytes
+BLEND_SSSE3 static inline __m128i sse_gather(const uchar* mask){
+  const __m128i g0 = _mm_setr_epi8(0,3,6,9,12,15,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1);
+  const __m128i g1 = _mm_setr_epi8(-1,-1,-1,-1,-1,-1,2,5,8,11,14,-1,-1,-1,-1,-1);
+  const __m128i g2 = _mm_setr_epi8(-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,-1,1,4,7,10,13);
+  __m128i a = _mm_shuffle_epi8(_mm_loadu_si128((const __m128i*)mask),g0);
+  __m128i b = _mm_shuffle_epi8(_mm_loadu_si128((const __m128i*)(mask+16)),g1);
+  __m128i c = _mm_shuffle_epi8(_mm_loadu_si128((const __m128i*)(mask+32)),g2);
+  return _mm_or_si128(_mm_or_si128(a,b),c);
+}
+
+BLEND_SSSE3 static inline __m128i sse_div255(__m128i x){
+  __m128i t = _mm_add_epi16(_mm_add_epi16(x,_mm_srli_epi16(x,8)),_mm_set1_epi16(1));
+  return _mm_srli_epi16(t,8);
+}
+
+BLEND_SSSE3 static inline __m128i sse_mix(__m128i a,__m128i b,__m128i m){
+  const __m128i zero = _mm_setzero_si128();
+  const __m128i full = _mm_set1_epi16(255);
+  __m128i mlo = _mm_unpacklo_epi8(m,zero);
+  __m128i mhi = _mm_unpackhi_epi8(m,zero);
+  __m128i lo = _mm_add_epi16(_mm_mullo_epi16(mlo,_mm_unpacklo_epi8(a,zero)),
+      _mm_mullo_epi16(_mm_sub_epi16(full,mlo),_mm_unpacklo_epi8(b,zero)));
+  __m128i hi = _mm_add_epi16(_mm_mullo_epi16(mhi,_mm_unpackhi_epi8(a,zero)),
+      _mm_mullo_epi16(_mm_sub_epi16(full,mhi),_mm_unpackhi_epi8(b,zero)));
+  return _mm_packus_epi16(sse_div255(lo),sse_div255(hi));
+}
+
+BLEND_SSSE3 static void sse_alpha(uchar* src,uchar* mask,uchar* dst,int pixels){
+  int k = 0;
+  __m128i m[3];
+  for(;k+16<=pixels;k+=16){
+    sse_expand(_mm_loadu_si128((const __m128i*)(mask+k)),m);
+    for(int c=0;c<3;c++){
+      __m128i* pd = (__m128i*)(dst+k*3+c*16);
+      __m128i d = _mm_loadu_si128(pd);
+      __m128i s = _mm_loadu_si128((const __m128i*)(src+k*3+c*16));
+      _mm_storeu_si128(pd,sse_mix(d,s,m[c]));
+    }
+  }
+  if(k<pixels)BlendGramAlphaRef(src+k*3,mask+k,dst+k*3,pixels-k,1);
+}
+
+BLEND_SSSE3 static void sse_alpharev(uchar* src,uchar* mask,uchar* dst,int pixels){
+  int k = 0;
+  __m128i m[3];
+  for(;k+16<=pixels;k+=16){
+    sse_expand(_mm_loadu_si128((const __m128i*)(mask+k)),m);
+    for(int c=0;c<3;c++){
+      __m128i* pd = (__m128i*)(dst+k*3+c*16);
+      __m128i d = _mm_loadu_si128(pd);
+      __m128i s = _mm_loadu_si128((const __m128i*)(src+k*3+c*16));
+      _mm_storeu_si128(pd,sse_mix(s,d,m[c]));
+    }
+  }
+  if(k<pixels)BlendGramAlphaRevRef(src+k*3,mask+k,dst+k*3,pixels-k,1);
+}
+
+//4 bytes through the reference float steps
+BLEND_SSSE3 static inline __m128i sse_mixf(__m128i d,__m128i s,__m128i m){
+  __m128 alpha = _mm_div_ps(_mm_cvtepi32_ps(m),_mm_set1_ps(255.0f));
+  __m128 beta = _mm_sub_ps(_mm_set1_ps(1.0f),alpha);
+  __m128 v = _mm_add_ps(_mm_mul_ps(_mm_cvtepi32_ps(d),alpha),_mm_mul_ps(_mm_cvtepi32_ps(s),beta));
+  v = _mm_min_ps(_mm_max_ps(v,_mm_setzero_ps()),_mm_set1_ps(255.0f));
+  return _mm_cvttps_epi32(v);
+}
+
+BLEND_SSSE3 static inline __m128i sse_mix3(__m128i d,__m128i s,__m128i m){
+  const __m128i zero = _mm_setzero_si128();
+  __m128i d16[2] = {_mm_unpacklo_epi8(d,zero),_mm_unpackhi_epi8(d,zero)};
+  __m128i s16[2] = {_mm_unpacklo_epi8(s,zero),_mm_unpackhi_epi8(s,zero)};
+  __m128i m16[2] = {_mm_unpacklo_epi8(m,zero),_mm_unpackhi_epi8(m,zero)};
+  __m128i out[2];
+  for(int h=0;h<2;h++){
+    __m128i lo = sse_mixf(_mm_unpacklo_epi16(d16[h],zero),_mm_unpacklo_epi16(s16[h],zero),_mm_unpacklo_epi16(m16[h],zero));
+    __m128i hi = sse_mixf(_mm_unpackhi_epi16(d16[h],zero),_mm_unpackhi_epi16(s16[h],zero),_mm_unpackhi_epi16(m16[h],zero));
+    out[h] = _mm_packs_epi32(lo,hi);
+  }
+  return _mm_packus_epi16(out[0],out[1]);
+}
+
+BLEND_SSSE3 static void sse_alpha3(uchar* src,uchar* mask,uchar* dst,int pixels){
+  int k = 0;
+  __m128i m[3];
+  for(;k+16<=pixels;k+=16){
+    sse_expand(sse_gather(mask+k*3),m);
+    for(int c=0;c<3;c++){
+      __m128i* pd = (__m128i*)(dst+k*3+c*16);
+      __m128i d = _mm_loadu_si128(pd);
+      __m128i s = _mm_loadu_si128((const __m128i*)(src+k*3+c*16));
+      _mm_storeu_si128(pd,sse_mix3(d,s,m[c]));
+    }
+  }
+  if(k<pixels)BlendGramAlpha3Ref(src+k*3,mask+k*3,dst+k*3,pixels-k,1);
+}
+
+BLEND_AVX2 static inline __m128i avx_mix(__m128i a,__m128i b,__m128i m){
+  const __m256i full = _mm256_set1_epi16(255);
+  const __m256i one = _mm256_set1_epi16(1);
+  __m256i m16 = _mm256_cvtepu8_epi16(m);
+  __m256i x = _mm256_add_epi16(_mm256_mullo_epi16(m16,_mm256_cvtepu8_epi16(a)),
+      _mm256_mullo_epi16(_mm256_sub_epi16(full,m16),_mm256_cvtepu8_epi16(b)));
+  x = _mm256_srli_epi16(_mm256_add_epi16(_mm256_add_epi16(x,_mm256_srli_epi16(x,8)),one),8);
+  //packus works per lane, pull both halves down before taking the low 16 bytes
+  __m256i p = _mm256_permute4x64_epi64(_mm256_packus_epi16(x,x),0xD8);
+  return _mm256_castsi256_si128(p);
+}
+
+BLEND_AVX2 static void avx_alpha(uchar* src,uchar* mask,uchar* dst,int pixels){
+  int k = 0;
+  __m128i m[6];
+  for(;k+32<=pixels;k+=32){
+    sse_expand(_mm_loadu_si128((const __m128i*)(mask+k)),m);
+    sse_expand(_mm_loadu_si128((const __m128i*)(mask+k+16)),m+3);
+    for(int c=0;c<6;c++){
+      __m128i* pd = (__m128i*)(dst+k*3+c*16);
+      __m128i d = _mm_loadu_si128(pd);
+      __m128i s = _mm_loadu_si128((const __m128i*)(src+k*3+c*16));
+      _mm_storeu_si128(pd,avx_mix(d,s,m[c]));
+    }
+  }
+  if(k<pixels)sse_alpha(src+k*3,mask+k,dst+k*3,pixels-k);
+}
+
+BLEND_AVX2 static void avx_alpharev(uchar* src,uchar* mask,uchar* dst,int pixels){
+  int k = 0;
+  __m128i m[6];
+  for(;k+32<=pixels;k+=32){
+    sse_expand(_mm_loadu_si128((const __m128i*)(mask+k)),m);
+    sse_expand(_mm_loadu_si128((const __m128i*)(mask+k+16)),m+3);
+    for(int c=0;c<6;c++){
+      __m128i* pd = (__m128i*)(dst+k*3+c*16);
+      __m128i d = _mm_loadu_si128(pd);
+      __m128i s = _mm_loadu_si128((const __m128i*)(src+k*3+c*16));
+      _mm_storeu_si128(pd,avx_mix(s,d,m[c]));
+    }
+  }
+  if(k<pixels)sse_alpharev(src+k*3,mask+k,dst+k*3,pixels-k);
+}
+#endif
+
+static void ref_alpha(uchar* src,uchar* mask,uchar* dst,int pixels){
+  BlendGramAlphaRef(src,mask,dst,pixels,1);
+}
+
+static void ref_alpha3(uchar* src,uchar* mask,uchar* dst,int pixels){
+  BlendGramAlpha3Ref(src,mask,dst,pixels,1);
+}
+
+static void ref_alpharev(uchar* src,uchar* mask,uchar* dst,int pixels){
+  BlendGramAlphaRevRef(src,mask,dst,pixels,1);
+}
+
+struct BlendKernels{
+  int level;
+  BlendKernel alpha;
+  BlendKernel alpha3;
+  BlendKernel alpharev;
+};
+
+static int blend_detect(){
+#ifdef BLEND_NEON
+  return BLEND_LEVEL_NEON;
+#elif defined(BLEND_X86)
+  __builtin_cpu_init();
+  if(__builtin_cpu_supports("avx2"))return BLEND_LEVEL_AVX2;
+  if(__builtin_cpu_supports("ssse3"))return BLEND_LEVEL_SSSE3;
+  return BLEND_LEVEL_SCALAR;
+#else
+  return BLEND_LEVEL_SCALAR;
+#endif
+}
+
+static BlendKernels blend_pick(int level){
+  BlendKernels ks = {BLEND_LEVEL_SCALAR,ref_alpha,ref_alpha3,ref_alpharev};
+#ifdef BLEND_NEON
+  if(level>=BLEND_LEVEL_NEON){
+    ks.level = BLEND_LEVEL_NEON;
+    ks.alpha = neon_alpha;
+    ks.alpharev = neon_alpharev;
+#if defined(__aarch64__)
+    //armv7 neon has no float divide, alpha3 stays scalar there
+    ks.alpha3 = neon_alpha3;
+#endif
+  }
+#elif defined(BLEND_X86)
+  if(level>=BLEND_LEVEL_SSSE3){
+    ks.level = BLEND_LEVEL_SSSE3;
+    ks.alpha = sse_alpha;
+    ks.alpha3 = sse_alpha3;
+    ks.alpharev = sse_alpharev;
+  }
+  if(level>=BLEND_LEVEL_AVX2){
+    //alpha3 is float bound, the ssse3 kernel is kept
+    ks.level = BLEND_LEVEL_AVX2;
+    ks.alpha = avx_alpha;
+    ks.alpharev = avx_alpharev;
+  }
+#endif
+  return ks;
+}
+
+static BlendKernels g_kernels = blend_pick(blend_detect());
+
+int BlendGramLevel(int level){
+  int best = blend_detect();
+  if((level<0)||(level>best))level = best;
+  g_kernels = blend_pick(level);
+  return g_kernels.level;
+}
+
+int BlendGramCurLevel(){
+  return g_kernels.level;
+}
+
+void BlendGramAlpha(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height){
+  g_kernels.alpha(Src,Mask,Dest,Width*Height);
+}
+
+void BlendGramAlpha3(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height){
+  g_kernels.alpha3(Src,Mask,Dest,Width*Height);
+}
+
+void BlendGramAlphaRev(unsigned char *Src,unsigned char* Mask, unsigned char *Dest, int Width, int Height){
+  g_kernels.alpharev(Src,Mask,Dest,Width*Height);
+}
@@ -153,36 +153,80 @@ int JMat::loadgpg(std::string gpgfile){
 
 #ifdef USE_TURBOJPG
 #include "turbojpeg.h"
-int JMat::loadjpg(std::string picfile,int flag){
-  tjhandle tjInstance = NULL;
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/stat.h>
+
+//decoder context of one thread, handle and input buffer are kept between frames
+struct JpgCtx{
+  tjhandle        handle = NULL;
+  unsigned char*  buf = NULL;
+  size_t          cap = 0;
+  int readfile(const char* fn,size_t* psize);
+  ~JpgCtx(){
+    if(handle)tj3Destroy(handle);
+    if(buf)tj3Free(buf);
+  }
+};
+
+static thread_local JpgCtx g_jpgctx;
+
+int JpgCtx::readfile(const char* fn,size_t* psize){
+  int fd = open(fn,O_RDONLY|O_CLOEXEC);
+  if(fd<0)return -1;
+  struct stat st;
+  if(fstat(fd,&st)<0){
+    close(fd);
+    return -2;
+  }
+  size_t size = st.st_size;
+  if(size == 0){
+    close(fd);
+    return -3;
+  }
+  if(cap<size){
+    //grow with some headroom, frames of one model differ a little in size
+    size_t ncap = size + size/4;
+    unsigned char* nbuf = (unsigned char*)tj3Alloc(ncap);
+    if(!nbuf){
+      close(fd);
+      return -4;
+    }
+    if(buf)tj3Free(buf);
+    buf = nbuf;
+    cap = ncap;
+  }
+  size_t pos = 0;
+  while(pos<size){
+    ssize_t cnt = pread(fd,buf+pos,size-pos,pos);
+    if(cnt<=0)break;
+    pos += cnt;
+  }
+  close(fd);
+  if(pos<size)return -2;
+  *psize = size;
+  return 0;
+}
+
+int JMat::loadjpg(const std::string& picfile,int flag){
+  return loadjpg(picfile.c_str(),flag);
+}
+
+int JMat::loadjpg(const char* picfile,int flag){
+  JpgCtx* ctx = &g_jpgctx;
   int rst = 0;
   size_t jpegSize = 0;
   size_t imgSize = 0;
-  int newbuf = 0;
-  unsigned char *jpegBuf = NULL;
-  if(1){
-    long size;
-    FILE *jpegFile = NULL;
-    const char* fn = picfile.c_str();
-    if ((jpegFile = fopen(fn, "rb")) == NULL)return -1;
-    if (fseek(jpegFile, 0, SEEK_END) < 0 || ((size = ftell(jpegFile)) < 0) || (fseek(jpegFile, 0, SEEK_SET) < 0)){
-      fclose(jpegFile);
-      return -2;
-    }
-    if (size == 0){
-      fclose(jpegFile);
-      return -3;
-    }
-    jpegSize = size;
-    jpegBuf = (unsigned char*)tj3Alloc(jpegSize);
-    fread(jpegBuf, jpegSize, 1, jpegFile);
-    fclose(jpegFile);
+  rst = ctx->readfile(picfile,&jpegSize);
+  if(rst)return rst;
+  if(!ctx->handle){
+    if ((ctx->handle = tj3Init(TJINIT_DECOMPRESS)) == NULL)return -11;
   }
-  if ((tjInstance = tj3Init(TJINIT_DECOMPRESS)) == NULL)return -11;
+  tjhandle tjInstance = ctx->handle;
+  unsigned char *jpegBuf = ctx->buf;
   while(1){
     unsigned char *imgBuf = NULL;
     int w, h;
-    int inSubsamp, inColorspace;
     int pixelFormat = TJPF_BGR;
     rst = tj3DecompressHeader(tjInstance, jpegBuf, jpegSize);
     if(rst<0){
@@ -191,8 +235,6 @@ int JMat::loadjpg(std::string picfile,int flag){
     }
     w = tj3Get(tjInstance, TJPARAM_JPEGWIDTH);
     h = tj3Get(tjInstance, TJPARAM_JPEGHEIGHT);
-    inSubsamp = tj3Get(tjInstance, TJPARAM_SUBSAMP);
-    inColorspace = tj3Get(tjInstance, TJPARAM_COLORSPACE);
     imgSize = w * h * tjPixelSize[pixelFormat];
     if(imgSize <0){
       rst = -13;
@@ -218,15 +260,94 @@ int JMat::loadjpg(std::string picfile,int flag){
     m_height = h;
     break;
   }
-  if(jpegBuf)tj3Free(jpegBuf);
-  jpegBuf = NULL;
-  tj3Destroy(tjInstance);
-  tjInstance = NULL;
+  return rst;
+}
+
+//refresh only box [x1,y1,x2,y2] of a frame already holding this picture
+//the region is widened to the MCU grid and decoded at 1/scale (1,2,4,8),
+//this mat must be the whole picture at that scale, pixels outside stay untouched
+int JMat::loadjpgroi(const char* picfile,const int* box,int scale,int flag){
+  if((scale!=1)&&(scale!=2)&&(scale!=4)&&(scale!=8))return -17;
+  if(!m_buf||(m_bit!=1)||(m_channel!=3))return -16;
+  JpgCtx* ctx = &g_jpgctx;
+  int rst = 0;
+  size_t jpegSize = 0;
+  rst = ctx->readfile(picfile,&jpegSize);
+  if(rst)return rst;
+  if(!ctx->handle){
+    if ((ctx->handle = tj3Init(TJINIT_DECOMPRESS)) == NULL)return -11;
+  }
+  tjhandle tjInstance = ctx->handle;
+  unsigned char *jpegBuf = ctx->buf;
+  tjscalingfactor sf = {1,scale};
+  while(1){
+    if(tj3DecompressHeader(tjInstance, jpegBuf, jpegSize)<0){
+      rst = -12;
+      break;
+    }
+    int w = tj3Get(tjInstance, TJPARAM_JPEGWIDTH);
+    int h = tj3Get(tjInstance, TJPARAM_JPEGHEIGHT);
+    int subsamp = tj3Get(tjInstance, TJPARAM_SUBSAMP);
+    int sw = TJSCALED(w,sf);
+    int sh = TJSCALED(h,sf);
+    if((sw!=m_width)||(sh!=m_height)){
+      rst = -16;
+      break;
+    }
+    int x1 = box[0]/scale;
+    int y1 = box[1]/scale;
+    int x2 = (box[2]+scale-1)/scale;
+    int y2 = (box[3]+scale-1)/scale;
+    if(x1<0)x1 = 0;
+    if(y1<0)y1 = 0;
+    if(x2>sw)x2 = sw;
+    if(y2>sh)y2 = sh;
+    if((x2<=x1)||(y2<=y1)){
+      rst = -13;
+      break;
+    }
+    if(tj3SetScalingFactor(tjInstance, sf)<0){
+      rst = -17;
+      break;
+    }
+    tjregion region = TJUNCROPPED;
+    if(subsamp>=0){
+      //left edge must sit on the scaled MCU grid
+      int mcuw = TJSCALED(tjMCUWidth[subsamp],sf);
+      region.x = x1 - x1%mcuw;
+      region.y = y1;
+      region.w = x2 - region.x;
+      region.h = y2 - y1;
+    }else{
+      //unknown subsampling can not be cropped, decode the whole picture
+      y1 = 0;
+    }
+    if(tj3SetCroppingRegion(tjInstance, region)<0){
+      rst = -14;
+      break;
+    }
+    unsigned char* imgBuf = (unsigned char*)m_buf + y1*m_stride + region.x*3;
+    if(tj3Decompress8(tjInstance, jpegBuf, jpegSize, imgBuf, m_stride, TJPF_BGR) < 0){
+      rst = -15;
+    }
+    break;
+  }
+  //the handle is shared with loadjpg, leave it uncropped and unscaled
+  tj3SetCroppingRegion(tjInstance, TJUNCROPPED);
+  tj3SetScalingFactor(tjInstance, TJUNSCALED);
   return rst;
 }
 
 #else
-int JMat::loadjpg(std::string picfile,int flag){
+int JMat::loadjpg(const std::string& picfile,int flag){
+  return -1;
+}
+
+int JMat::loadjpg(const char* picfile,int flag){
+  return -1;
+}
+
+int JMat::loadjpgroi(const char* picfile,const int* box,int scale,int flag){
   return -1;
 }
 #endif
@@ -70,7 +70,9 @@ class JMat:public JBuf{
         JMat(std::string picfile,int flag=0);
         JMat();
         int load(std::string picfile,int flag=0);
-        int loadjpg(std::string picfile,int flag=0);
+        int loadjpg(const std::string& picfile,int flag=0);
+        int loadjpg(const char* picfile,int flag=0);
+        int loadjpgroi(const char* picfile,const int* box,int scale=1,int flag=0);
         int savegpg(std::string gpgfile);
         int loadgpg(std::string gpgfile);
         float* fdata();
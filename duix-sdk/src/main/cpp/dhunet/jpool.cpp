@@ -0,0 +1,143 @@
+#include "jpool.h"
+#include <stdio.h>
+#include <stdlib.h>
+#include <memory>
+#include "opencv2/core.hpp"
+#include "opencv2/core/parallel/parallel_backend.hpp"
+
+JWorkPool::JWorkPool(int threads){
+  m_next = 0;
+  m_finished = 0;
+  pthread_mutex_init(&m_jobmutex,NULL);
+  pthread_mutex_init(&m_mutex,NULL);
+  pthread_cond_init(&m_cond,NULL);
+  pthread_cond_init(&m_donecond,NULL);
+  m_cnt = threads>0?threads:0;
+  if(m_cnt){
+    m_threads = (pthread_t*)malloc(sizeof(pthread_t)*m_cnt);
+    for(int k=0;k<m_cnt;k++){
+      pthread_create(m_threads+k,NULL,worker,this);
+    }
+  }
+}
+
+JWorkPool::~JWorkPool(){
+  pthread_mutex_lock(&m_mutex);
+  m_running = 0;
+  pthread_cond_broadcast(&m_cond);
+  pthread_mutex_unlock(&m_mutex);
+  for(int k=0;k<m_cnt;k++){
+    pthread_join(m_threads[k],NULL);
+  }
+  if(m_threads)free(m_threads);
+  pthread_mutex_destroy(&m_jobmutex);
+  pthread_mutex_destroy(&m_mutex);
+  pthread_cond_destroy(&m_cond);
+  pthread_cond_destroy(&m_donecond);
+}
+
+void JWorkPool::runtasks(){
+  int inx;
+  while((inx = m_next.fetch_add(1))<m_tasks){
+    m_fn(m_arg,inx);
+    if(m_finished.fetch_add(1)+1==m_tasks){
+      pthread_mutex_lock(&m_mutex);
+      pthread_cond_broadcast(&m_donecond);
+      pthread_mutex_unlock(&m_mutex);
+    }
+  }
+}
+
+void* JWorkPool::worker(void* arg){
+  JWorkPool* pool = (JWorkPool*)arg;
+  int seq = 0;
+  while(1){
+    pthread_mutex_lock(&pool->m_mutex);
+    while(pool->m_running&&(pool->m_seq==seq)){
+      pthread_cond_wait(&pool->m_cond,&pool->m_mutex);
+    }
+    if(!pool->m_running){
+      pthread_mutex_unlock(&pool->m_mutex);
+      break;
+    }
+    seq = pool->m_seq;
+    pool->m_active++;
+    pthread_mutex_unlock(&pool->m_mutex);
+    pool->runtasks();
+    pthread_mutex_lock(&pool->m_mutex);
+    pool->m_active--;
+    if(!pool->m_active)pthread_cond_broadcast(&pool->m_donecond);
+    pthread_mutex_unlock(&pool->m_mutex);
+  }
+  return NULL;
+}
+
+int JWorkPool::parallel(int cnt,jpool_fn fn,void* arg){
+  if(cnt<1)return 0;
+  if((cnt==1)||!m_cnt||pthread_mutex_trylock(&m_jobmutex)){
+    for(int k=0;k<cnt;k++)fn(arg,k);
+    return cnt;
+  }
+  pthread_mutex_lock(&m_mutex);
+  //late workers of the last job must be out before the counters are reset
+  while(m_active)pthread_cond_wait(&m_donecond,&m_mutex);
+  m_fn = fn;
+  m_arg = arg;
+  m_tasks = cnt;
+  m_next = 0;
+  m_finished = 0;
+  m_seq++;
+  pthread_cond_broadcast(&m_cond);
+  pthread_mutex_unlock(&m_mutex);
+  runtasks();
+  pthread_mutex_lock(&m_mutex);
+  while(m_finished<cnt)pthread_cond_wait(&m_donecond,&m_mutex);
+  pthread_mutex_unlock(&m_mutex);
+  pthread_mutex_unlock(&m_jobmutex);
+  return cnt;
+}
+
+//opencv parallel_for_ on the same pool, so resize/cvtColor do not start their own threads
+class JPoolBackend:public cv::parallel::ParallelForAPI{
+  private:
+    JWorkPool* m_pool;
+    struct Job{
+      FN_parallel_for_body_cb_t cb;
+      void* data;
+    };
+    static void runjob(void* arg,int inx){
+      Job* job = (Job*)arg;
+      job->cb(inx,inx+1,job->data);
+    }
+  public:
+    JPoolBackend(JWorkPool* pool):m_pool(pool){};
+    virtual void parallel_for(int tasks,FN_parallel_for_body_cb_t body_callback,void* callback_data){
+      Job job = {body_callback,callback_data};
+      m_pool->parallel(tasks,runjob,&job);
+    }
+    virtual int getThreadNum() const{return 0;};
+    virtual int getNumThreads() const{return m_pool->threads()+1;};
+    virtual int setNumThreads(int nThreads){return m_pool->threads()+1;};
+    virtual const char* getName() const{return "duixpool";};
+};
+
+static JWorkPool* g_pool = NULL;
+
+int jpool_setup(int threads){
+  //created once and kept for the process, opencv holds on to the backend
+  if(g_pool||(threads<1))return g_pool?g_pool->threads():0;
+  g_pool = new JWorkPool(threads);
+  cv::parallel::setParallelForBackend(std::make_shared<JPoolBackend>(g_pool),false);
+  printf("===jpool threads %d\n",threads);
+  return threads;
+}
+
+JWorkPool* jpool_get(){
+  return g_pool;
+}
+
+int jpool_run(int cnt,jpool_fn fn,void* arg){
+  if(g_pool)return g_pool->parallel(cnt,fn,arg);
+  for(int k=0;k<cnt;k++)fn(arg,k);
+  return cnt;
+}
@@ -0,0 +1,41 @@
+#pragma once
+#include <pthread.h>
+#include <atomic>
+
+typedef void (*jpool_fn)(void* arg,int inx);
+
+//small fork-join pool, the calling thread works on the job too
+//one job runs at a time, a caller that finds the pool busy runs its tasks inline
+class JWorkPool{
+  private:
+    int             m_cnt = 0;
+    pthread_t       *m_threads = NULL;
+    pthread_mutex_t m_jobmutex;
+    pthread_mutex_t m_mutex;
+    pthread_cond_t  m_cond;
+    pthread_cond_t  m_donecond;
+    volatile int    m_running = 1;
+    int             m_seq = 0;
+    int             m_active = 0;
+
+    jpool_fn        m_fn = NULL;
+    void            *m_arg = NULL;
+    int             m_tasks = 0;
+    std::atomic<int> m_next;
+    std::atomic<int> m_finished;
+
+    static void* worker(void* arg);
+    void runtasks();
+  public:
+    JWorkPool(int threads);
+    virtual ~JWorkPool();
+    int threads(){return m_cnt;};
+    //fn(arg,inx) for inx in [0,cnt), returns when all are done
+    int parallel(int cnt,jpool_fn fn,void* arg);
+};
+
+//process wide pool, NULL until jpool_setup
+int jpool_setup(int threads);
+JWorkPool* jpool_get();
+//parallel on the process pool, serial when there is none
+int jpool_run(int cnt,jpool_fn fn,void* arg);
@@ -1,15 +1,57 @@
 #include "malpha.h"
 
 MWorkMat::MWorkMat(JMat* pic,JMat* msk,const int* boxs,int kind){
-    m_boxx = boxs[0];
-    m_boxy=boxs[1];
-    m_boxwidth=boxs[2]-m_boxx;
-    m_boxheight=boxs[3]-m_boxy;
+    setbox(boxs);
     //printf("x %d y %d w %d h %d \n",m_boxx,m_boxy,m_boxwidth,m_boxheight);
     m_pic = pic;
     m_msk = msk;
+    initkind(kind);
+}
+
+MWorkMat::MWorkMat(int kind,int maxw,int maxh){
+    m_pooled = 1;
+    m_maxw = maxw;
+    m_maxh = maxh;
+    m_boxx = m_boxy = m_boxwidth = m_boxheight = 0;
+    m_pic = NULL;
+    m_msk = NULL;
+    initkind(kind);
+    pic_cloneadjw = new JMat(adjw,adjw,3,0,1);
+    matpic_orgsrcw.create(srcw,srcw,CV_8UC3);
+    matmsk_orgsrcw.create(srcw,srcw,CV_8UC3);
+    m_fggray.create(srcw,srcw,CV_8UC1);
+}
+
+int MWorkMat::reserve(int boxw,int boxh){
+    if(!m_pooled)return -1;
+    if(boxw*boxh<=m_rstcap)return 0;
+    JMat* buf = new JMat(boxw,boxh,3,0,1);
+    if(m_rstbuf)delete m_rstbuf;
+    m_rstbuf = buf;
+    m_rstcap = boxw*boxh;
+    return 1;
+}
+
+int MWorkMat::reset(JMat* pic,JMat* msk,const int* boxs){
+    if(!m_pooled)return -1;
+    if((boxs[2]-boxs[0]>m_maxw)||(boxs[3]-boxs[1]>m_maxh))return -2;
+    if((boxs[0]<0)||(boxs[1]<0)||(boxs[2]<=boxs[0])||(boxs[3]<=boxs[1]))return -3;
+    setbox(boxs);
+    //a box larger than the table's grows the arena once
+    reserve(m_boxwidth,m_boxheight);
+    m_pic = pic;
+    m_msk = msk;
+    return 0;
+}
 
+void MWorkMat::setbox(const int* boxs){
+    m_boxx = boxs[0];
+    m_boxy=boxs[1];
+    m_boxwidth=boxs[2]-m_boxx;
+    m_boxheight=boxs[3]-m_boxy;
+}
 
+void MWorkMat::initkind(int kind){
     if(kind==168){
 
       srcw = 168;
@@ -47,6 +89,7 @@ MWorkMat::~MWorkMat(){
     delete pic_maskadjw;
     delete msk_realadjw;
     if(pic_cloneadjw) delete pic_cloneadjw;
+    if(m_rstbuf) delete m_rstbuf;
 }
 
 int MWorkMat::munet(JMat** ppic,JMat** pmsk){
@@ -58,7 +101,7 @@ int MWorkMat::munet(JMat** ppic,JMat** pmsk){
 
 int MWorkMat::premunet(){
     matpic_roisrc = cv::Mat(m_pic->cvmat(),cv::Rect(m_boxx,m_boxy,m_boxwidth,m_boxheight));
-    cv::resize(matpic_roisrc , matpic_orgsrcw, cv::Size(srcw, srcw), cv::INTER_AREA);
+    cv::resize(matpic_roisrc , matpic_orgsrcw, cv::Size(srcw, srcw), m_interp);
     matpic_roiadjw = cv::Mat(matpic_orgsrcw,cv::Rect(edge,edge,adjw,adjw));
     cv::Mat cvmask = pic_maskadjw->cvmat();
     cv::Mat cvreal = pic_realadjw->cvmat();
@@ -67,7 +110,12 @@ int MWorkMat::premunet(){
     //getchar();
     matpic_roiadjw.copyTo(cvreal);
     matpic_roiadjw.copyTo(cvmask);
-    pic_cloneadjw = pic_realadjw->refclone(0);
+    if(m_pooled){
+      memcpy(pic_cloneadjw->data(),pic_realadjw->data(),pic_realadjw->size());
+    }else{
+      if(pic_cloneadjw)delete pic_cloneadjw;
+      pic_cloneadjw = pic_realadjw->refclone(0);
+    }
     cv::rectangle(cvmask,cv::Rect(mskx,msky,mskw,mskh),cv::Scalar(0,0,0),-1);//,cv::LineTypes::FILLED);
     return 0;
 }
@@ -86,16 +134,21 @@ int MWorkMat::finmunet(JMat* fgpic){
     if(m_msk) vtacc((uint8_t*)matpic_orgsrcw.data,srcw*srcw);
     //cv::imwrite("accend.bmp",matpic_orgsrcw);
     if(fgpic&&(fgpic->width()==srcw)){
-      std::vector<cv::Mat> list;
-      cv::split(matpic_orgsrcw,list);
+      //rgb of the crop plus the gray mask as alpha, written straight into an rgba fgpic
+      if(!m_msk||(fgpic->channel()!=4))return -1;
       matmsk_roisrc = cv::Mat(m_msk->cvmat(),cv::Rect(m_boxx,m_boxy,m_boxwidth,m_boxheight));
       cv::resize(matmsk_roisrc , matmsk_orgsrcw, cv::Size(srcw, srcw), cv::INTER_AREA);
-      cv::Mat rrr(srcw,srcw,CV_8UC1);
-      cv::cvtColor(matmsk_orgsrcw,rrr,cv::COLOR_RGB2GRAY);
-      list.push_back(rrr);
-      cv::merge(list,fgpic->cvmat());
+      cv::cvtColor(matmsk_orgsrcw,m_fggray,cv::COLOR_RGB2GRAY);
+      cv::Mat fgsrc[2] = {matpic_orgsrcw,m_fggray};
+      cv::Mat fgdst(srcw,srcw,CV_8UC4,fgpic->data());
+      static const int fromto[] = {0,0,1,1,2,2,3,3};
+      cv::mixChannels(fgsrc,2,&fgdst,1,fromto,4);
     }else{
-      cv::resize(matpic_orgsrcw, matpic_roirst, cv::Size(m_boxwidth, m_boxheight), cv::INTER_AREA);
+      if(m_pooled){
+        //header over the arena, resize writes in place
+        matpic_roirst = cv::Mat(m_boxheight,m_boxwidth,CV_8UC3,m_rstbuf->data());
+      }
+      cv::resize(matpic_orgsrcw, matpic_roirst, cv::Size(m_boxwidth, m_boxheight), m_interp);
       if(fgpic){
         matpic_roisrc = cv::Mat(fgpic->cvmat(),cv::Rect(m_boxx,m_boxy,m_boxwidth,m_boxheight));
         matpic_roirst.copyTo(matpic_roisrc);
@@ -23,13 +23,24 @@ class MWorkMat{
     JMat*   m_pic;
     JMat*   m_msk;
 
+    //pooled mode, buffers live as long as the workmat
+    int     m_pooled = 0;
+    int     m_maxw = 0;
+    int     m_maxh = 0;
+    //box result arena, sized to the largest box reserved so far
+    JMat*   m_rstbuf = NULL;
+    int     m_rstcap = 0;
+    cv::Mat m_fggray;
+    //resample of the munet crop, linear is cheaper than area when frames overrun
+    int     m_interp = cv::INTER_AREA;
+
     JMat*   pic_realadjw;//blendimg
     JMat*   pic_maskadjw;
 
     cv::Mat matpic_roisrc;//box area
     cv::Mat matpic_orgsrcw;
     cv::Mat matpic_roiadjw;
-    JMat*   pic_cloneadjw;//blendimg
+    JMat*   pic_cloneadjw = NULL;//blendimg
     cv::Mat matpic_roirst;
 
     //
@@ -42,8 +53,16 @@ class MWorkMat{
     cv::Mat matmsk_roirst;
 
     int vtacc(uint8_t* buf,int count);
+    void initkind(int kind);
+    void setbox(const int* boxs);
   public:
     MWorkMat(JMat* pic,JMat* msk,const int* boxs,int kind=168);
+    //pooled workmat for boxes up to maxw x maxh, rebind each frame with reset
+    MWorkMat(int kind,int maxw,int maxh);
+    int reset(JMat* pic,JMat* msk,const int* boxs);
+    //grow the box result arena, the frame table knows the largest box up front
+    int reserve(int boxw,int boxh);
+    void setfast(int fast){m_interp = fast?cv::INTER_LINEAR:cv::INTER_AREA;}
     int premunet();
     int munet(JMat** ppic,JMat** pmsk);
     int finmunet(JMat* fgpic=NULL);
@@ -0,0 +1,246 @@
+#include "mcalib.h"
+#include "layer.h"
+#include "paramdict.h"
+#include "modelbin.h"
+#include <math.h>
+#include <string.h>
+#include <algorithm>
+
+//stand-in of the layers ncnn2int8 quantizes, it only reads params and weights
+//so the bin offsets of the builtin layers in between stay in step
+class CalibLayer : public ncnn::Layer{
+  public:
+    int dwconv = 0;
+    int inner = 0;
+    int outputs = 0;
+    int groups = 1;
+    int biasterm = 0;
+    int wsize = 0;
+    int quant = 0;
+    std::vector<float> scales;
+
+    virtual int load_param(const ncnn::ParamDict& pd){
+      outputs = pd.get(0,0);
+      if(inner){
+        biasterm = pd.get(1,0);
+        wsize = pd.get(2,0);
+      }else{
+        biasterm = pd.get(5,0);
+        wsize = pd.get(6,0);
+        if(dwconv)groups = pd.get(7,1);
+      }
+      quant = pd.get(8,0);
+      return 0;
+    }
+
+    virtual int load_model(const ncnn::ModelBin& mb){
+      if(quant){
+        printf("===calib %s is already int8\n",name.c_str());
+        return -1;
+      }
+      ncnn::Mat weight = mb.load(wsize,0);
+      if(weight.empty())return -100;
+      if(biasterm){
+        ncnn::Mat bias = mb.load(outputs,1);
+        if(bias.empty())return -100;
+      }
+      int chans = dwconv?groups:outputs;
+      if(chans<1)return -1;
+      int per = wsize/chans;
+      const float* pw = (const float*)weight.data;
+      scales.resize(chans);
+      for(int c=0;c<chans;c++){
+        float absmax = 0.0f;
+        for(int k=0;k<per;k++){
+          float v = fabsf(pw[c*per+k]);
+          if(v>absmax)absmax = v;
+        }
+        scales[c] = absmax==0.0f?1.0f:127.0f/absmax;
+      }
+      return 0;
+    }
+};
+
+static ncnn::Layer* calib_conv(void* userdata){
+  return new CalibLayer();
+}
+
+static ncnn::Layer* calib_dwconv(void* userdata){
+  CalibLayer* layer = new CalibLayer();
+  layer->dwconv = 1;
+  return layer;
+}
+
+static ncnn::Layer* calib_inner(void* userdata){
+  CalibLayer* layer = new CalibLayer();
+  layer->inner = 1;
+  return layer;
+}
+
+static int calib_quantizable(const std::string& type){
+  return (type=="Convolution")||(type=="ConvolutionDepthWise")||(type=="InnerProduct");
+}
+
+int MunetCalib::init(ncnn::Net& net,const char* fnparam,const char* fnbin){
+  m_items.clear();
+  m_pass = 0;
+  m_frames = 0;
+  const std::vector<ncnn::Layer*>& layers = net.layers();
+  for(size_t k=0;k<layers.size();k++){
+    ncnn::Layer* layer = layers[k];
+    if(!calib_quantizable(layer->type))continue;
+    if(layer->bottoms.size()!=1)continue;
+    Item item;
+    item.layer = k;
+    item.blob = layer->bottoms[0];
+    item.name = layer->name;
+    m_items.push_back(item);
+  }
+  printf("===calib %d quantizable layers\n",(int)m_items.size());
+  if(m_items.empty())return -1;
+  return scanweights(fnparam,fnbin);
+}
+
+int MunetCalib::scanweights(const char* fnparam,const char* fnbin){
+  ncnn::Net net;
+  net.opt.use_vulkan_compute = false;
+  net.register_custom_layer("Convolution",calib_conv);
+  net.register_custom_layer("ConvolutionDepthWise",calib_dwconv);
+  net.register_custom_layer("InnerProduct",calib_inner);
+  int rst = net.load_param(fnparam);
+  if(!rst)rst = net.load_model(fnbin);
+  if(rst){
+    printf("===calib weights failed %d\n",rst);
+    return -2;
+  }
+  //same param file, the layer indexes match the munet net
+  const std::vector<ncnn::Layer*>& layers = net.layers();
+  for(size_t k=0;k<m_items.size();k++){
+    Item& item = m_items[k];
+    if((item.layer>=(int)layers.size())||(layers[item.layer]->name!=item.name))return -3;
+    item.wscales = ((CalibLayer*)layers[item.layer])->scales;
+  }
+  return 0;
+}
+
+int MunetCalib::nextpass(){
+  m_pass++;
+  m_frames = 0;
+  for(size_t k=0;k<m_items.size();k++){
+    m_items[k].hist.assign(MCALIB_BINS,0.0);
+  }
+  return m_pass;
+}
+
+int MunetCalib::observe(Mobunet* munet,JMat* pic,JMat* msk,JMat* feat,int rect){
+  ncnn::Mat inpic;
+  ncnn::Mat inwenet;
+  munet->makeinput(pic,msk,feat,inpic,inwenet,rect);
+  ncnn::Extractor ex = munet->net().create_extractor();
+  //every bottom is pulled from the same run
+  ex.set_light_mode(false);
+  ex.input("face",inpic);
+  ex.input("audio",inwenet);
+  for(size_t k=0;k<m_items.size();k++){
+    Item& item = m_items[k];
+    ncnn::Mat blob;
+    int rst = ex.extract(item.blob,blob);
+    if(rst)return rst;
+    int size = blob.w*blob.h*blob.d;
+    for(int c=0;c<blob.c;c++){
+      const float* ptr = blob.channel(c);
+      if(m_pass==0){
+        for(int i=0;i<size;i++){
+          float v = fabsf(ptr[i]);
+          if(v>item.absmax)item.absmax = v;
+        }
+      }else if(item.absmax>0.0f){
+        float binscale = MCALIB_BINS/item.absmax;
+        for(int i=0;i<size;i++){
+          if(ptr[i]==0.0f)continue;
+          int inx = std::min((int)(fabsf(ptr[i])*binscale),MCALIB_BINS-1);
+          item.hist[inx] += 1.0;
+        }
+      }
+    }
+  }
+  m_frames++;
+  return 0;
+}
+
+static double calib_kl(const std::vector<double>& p,const std::vector<double>& q){
+  double sump = 0;
+  double sumq = 0;
+  for(size_t k=0;k<p.size();k++){
+    sump += p[k];
+    sumq += q[k];
+  }
+  if((sump<=0)||(sumq<=0))return 1e30;
+  double kl = 0;
+  for(size_t k=0;k<p.size();k++){
+    if(p[k]<=0)continue;
+    double pp = p[k]/sump;
+    double qq = q[k]/sumq;
+    //a bin the quantized side lost costs a fixed penalty
+    kl += qq>0?pp*log(pp/qq):1.0;
+  }
+  return kl;
+}
+
+//tensorrt style threshold search, 2048 bins merged down to 128 levels
+float MunetCalib::klscale(const Item& item){
+  const int target = 128;
+  const std::vector<double>& hist = item.hist;
+  if((item.absmax<=0.0f)||(hist.size()!=MCALIB_BINS))return 1.0f;
+  double best = 1e30;
+  int bestinx = MCALIB_BINS;
+  std::vector<double> clip;
+  std::vector<double> expand;
+  for(int thresh=target;thresh<=MCALIB_BINS;thresh++){
+    clip.assign(hist.begin(),hist.begin()+thresh);
+    for(int k=thresh;k<MCALIB_BINS;k++)clip[thresh-1] += hist[k];
+    expand.assign(thresh,0.0);
+    int merged = thresh/target;
+    for(int j=0;j<target;j++){
+      int start = j*merged;
+      int stop = (j==target-1)?thresh:start+merged;
+      double sum = 0;
+      int nonzero = 0;
+      for(int k=start;k<stop;k++){
+        sum += clip[k];
+        if(clip[k]>0)nonzero++;
+      }
+      if(!nonzero)continue;
+      for(int k=start;k<stop;k++){
+        if(clip[k]>0)expand[k] = sum/nonzero;
+      }
+    }
+    double kl = calib_kl(clip,expand);
+    if(kl<best){
+      best = kl;
+      bestinx = thresh;
+    }
+  }
+  float threshold = (bestinx+0.5f)*item.absmax/MCALIB_BINS;
+  return 127.0f/threshold;
+}
+
+int MunetCalib::save(const char* fntable,int method){
+  FILE* file = fopen(fntable,"wb");
+  if(!file)return -1;
+  for(size_t k=0;k<m_items.size();k++){
+    const Item& item = m_items[k];
+    fprintf(file,"%s_param_0 ",item.name.c_str());
+    for(size_t c=0;c<item.wscales.size();c++)fprintf(file,"%f ",item.wscales[c]);
+    fprintf(file,"\n");
+  }
+  for(size_t k=0;k<m_items.size();k++){
+    const Item& item = m_items[k];
+    float scale = item.absmax>0.0f?127.0f/item.absmax:1.0f;
+    if((method==MCALIB_KL)&&(m_pass>0))scale = klscale(item);
+    fprintf(file,"%s %f\n",item.name.c_str(),scale);
+  }
+  fclose(file);
+  printf("===calib table %s layers %d method %s\n",fntable,(int)m_items.size(),method==MCALIB_KL?"kl":"absmax");
+  return 0;
+}
@@ -0,0 +1,38 @@
+#pragma once
+#include "munet.h"
+#include "net.h"
+#include <stdio.h>
+#include <string>
+#include <vector>
+
+//int8 calibration of the munet, writes the table ncnn2int8 takes
+//weights: per output channel absmax of every conv/dwconv/innerproduct
+//blobs: bottom of the same layers, fed with real frames and bnfs through the fp32 net
+#define MCALIB_ABSMAX 0
+#define MCALIB_KL     1
+#define MCALIB_BINS   2048
+
+class MunetCalib{
+  private:
+    struct Item{
+      int         layer;
+      int         blob;
+      std::string name;
+      std::vector<float> wscales;
+      float       absmax = 0.0f;
+      std::vector<double> hist;
+    };
+    std::vector<Item> m_items;
+    int   m_pass = 0;
+    int   m_frames = 0;
+    int   scanweights(const char* fnparam,const char* fnbin);
+    float klscale(const Item& item);
+  public:
+    //fnparam/fnbin are the fp32 model munet runs with
+    int   init(ncnn::Net& net,const char* fnparam,const char* fnbin);
+    //pass 0 collects absmax, pass 1 the histograms of KL, absmax only needs pass 0
+    int   nextpass();
+    int   observe(Mobunet* munet,JMat* pic,JMat* msk,JMat* feat,int rect = 160);
+    int   save(const char* fntable,int method);
+    int   layers(){return m_items.size();}
+};
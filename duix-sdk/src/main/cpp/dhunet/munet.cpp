@@ -3,8 +3,9 @@
 #include "face_utils.h"
 #include "blendgram.h"
 
-Mobunet::Mobunet(const char* fnbin,const char* fnparam,const char* fnmsk,int wenetstep,int rgb){
+Mobunet::Mobunet(const char* fnbin,const char* fnparam,const char* fnmsk,int wenetstep,int rgb,int int8){
   m_rgb = rgb;
+  m_int8 = int8;
   m_wenetstep = wenetstep;
     initModel(fnbin,fnparam,fnmsk);
 }
@@ -27,10 +28,21 @@ int Mobunet::initModel(const char* binfn,const char* paramfn,const char* mskfn){
     //unet.opt = ncnn::Option();
     unet.opt.use_vulkan_compute = false;
     unet.opt.num_threads = ncnn::get_big_cpu_count();   // 1
+    //blob and workspace memory are recycled between frames
+    unet.opt.blob_allocator = &m_blobpool;
+    unet.opt.workspace_allocator = &m_workpool;
     //unet.load_param("model/mobileunet_v5_wenet_sim.param");
     //unet.load_model("model/mobileunet_v5_wenet_sim.bin");
-    unet.load_param(paramfn);
-    unet.load_model(binfn);
+    //quantized layers carry their own scales, the flag only has to stay on
+    unet.opt.use_int8_inference = true;
+    if(m_int8){
+      unet.opt.use_int8_packed = true;
+      unet.opt.use_int8_storage = true;
+    }
+    int rst = unet.load_param(paramfn);
+    if(!rst)rst = unet.load_model(binfn);
+    m_inited = rst?0:1;
+    if(rst)printf("===munet load failed %d int8 %d %s\n",rst,m_int8,paramfn);
     char* wbuf = NULL;
     dumpfile((char*)mskfn,&wbuf);
     printf("===mskfn %s\n",mskfn);
@@ -45,8 +57,17 @@ int Mobunet::initModel(const char* binfn,const char* paramfn,const char* mskfn){
     return 0;
 }
 
+int Mobunet::setthreads(int threads){
+    int big = ncnn::get_big_cpu_count();
+    //every extractor copies the net option, the next frame picks it up
+    unet.opt.num_threads = (threads>0)&&(threads<big)?threads:big;
+    return unet.opt.num_threads;
+}
+
 Mobunet::~Mobunet(){
     unet.clear();
+    m_blobpool.clear();
+    m_workpool.clear();
     if(mat_weights){
         delete mat_weights;
         mat_weights = nullptr;
@@ -89,14 +110,14 @@ int Mobunet::domodelold(JMat* pic,JMat* msk,JMat* feat){
     return 0;
 }
 
-int Mobunet::domodel(JMat* pic,JMat* msk,JMat* feat,int rect){
+int Mobunet::makeinput(JMat* pic,JMat* msk,JMat* feat,ncnn::Mat& inpic,ncnn::Mat& inwenet,int rect){
   int width = pic->width();
   int height = pic->height();
-    ncnn::Mat inmask = ncnn::Mat::from_pixels(msk->udata(), m_rgb?ncnn::Mat::PIXEL_RGB:ncnn::Mat::PIXEL_BGR2RGB, rect, rect);
+    ncnn::Mat inmask = ncnn::Mat::from_pixels(msk->udata(), m_rgb?ncnn::Mat::PIXEL_RGB:ncnn::Mat::PIXEL_BGR2RGB, rect, rect, &m_blobpool);
     inmask.substract_mean_normalize(mean_vals, norm_vals);
-    ncnn::Mat inreal = ncnn::Mat::from_pixels(pic->udata(), m_rgb?ncnn::Mat::PIXEL_RGB:ncnn::Mat::PIXEL_BGR2RGB, rect, rect);
+    ncnn::Mat inreal = ncnn::Mat::from_pixels(pic->udata(), m_rgb?ncnn::Mat::PIXEL_RGB:ncnn::Mat::PIXEL_BGR2RGB, rect, rect, &m_blobpool);
     inreal.substract_mean_normalize(mean_vals, norm_vals);
-    ncnn::Mat inpic(width,height,6);
+    inpic.create(width,height,6,(size_t)4u,&m_blobpool);
     float* buf = (float*)inpic.data;
     float* pr = (float*)inreal.data;
     memcpy(buf,pr,inreal.cstep*sizeof(float)*inreal.c);
@@ -107,8 +128,18 @@ int Mobunet::domodel(JMat* pic,JMat* msk,JMat* feat,int rect){
     if(m_wenetstep==10){
       pf+= 256*5;
     }
-    ncnn::Mat inwenet(256,m_wenetstep,1,pf);
+    inwenet = ncnn::Mat(256,m_wenetstep,1,pf);
+    return 0;
+}
+
+int Mobunet::domodel(JMat* pic,JMat* msk,JMat* feat,int rect){
+  int width = pic->width();
+  int height = pic->height();
+    ncnn::Mat inpic;
+    ncnn::Mat inwenet;
+    makeinput(pic,msk,feat,inpic,inwenet,rect);
     ncnn::Mat outpic;
+    //extractor caches every blob, one per frame; memory comes from the pools
     ncnn::Extractor ex = unet.create_extractor();
     ex.input("face", inpic);
     ex.input("audio", inwenet);
@@ -117,7 +148,8 @@ int Mobunet::domodel(JMat* pic,JMat* msk,JMat* feat,int rect){
     float outmean_vals[3] = {-1.0f, -1.0f, -1.0f};
     float outnorm_vals[3] = { 127.5f,  127.5f,  127.5f};
     outpic.substract_mean_normalize(outmean_vals, outnorm_vals);
-    cv::Mat cvout(width,height,CV_8UC3);
+    m_cvout.create(width,height,CV_8UC3);
+    cv::Mat& cvout = m_cvout;
     outpic.to_pixels(cvout.data,m_rgb?ncnn::Mat::PIXEL_RGB:ncnn::Mat::PIXEL_RGB2BGR);
 
     if(rect==160){
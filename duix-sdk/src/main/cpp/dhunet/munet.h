@@ -12,13 +12,25 @@ class Mobunet{
     private:
       int m_wenetstep = 20;
       int m_rgb =0;
+      int m_int8 = 0;
+      int m_inited = 0;
+        ncnn::UnlockedPoolAllocator m_blobpool;
+        ncnn::PoolAllocator m_workpool;
         ncnn::Net unet;
         float mean_vals[3] = {127.5f, 127.5f, 127.5f};
         float norm_vals[3] = {1 / 127.5f, 1 / 127.5f, 1 / 127.5f};
         JMat*   mat_weights = nullptr;
         JMat*   mat_weightmin = nullptr;
+        cv::Mat m_cvout;
         int initModel(const char* binfn,const char* paramfn,const char* mskfn);
     public:
+        //face and audio inputs of one frame, domodel and the int8 calibration share them
+        int makeinput(JMat* pic,JMat* msk,JMat* feat,ncnn::Mat& inpic,ncnn::Mat& inwenet,int rect = 160);
+        ncnn::Net& net(){return unet;}
+        int inited(){return m_inited;}
+        int isint8(){return m_int8;}
+        //ncnn threads of the following frames, <=0 back to the big cores
+        int setthreads(int threads);
         int domodel(JMat* pic,JMat* msk,JMat* feat,int rect = 160);
         int domodelold(JMat* pic,JMat* msk,JMat* feat);
         int preprocess(JMat* pic,JMat* feat);
@@ -26,6 +38,7 @@ class Mobunet{
         int fgprocess(JMat* pic,const int* boxs,JMat* feat,JMat* fg);
         int process2(JMat* pic,const int* boxs,JMat* feat);
         Mobunet(const char* modeldir,const char* modelid,int rgb = 0);
-        Mobunet(const char* fnbin,const char* fnparam,const char* fnmsk,int wenetstep = 20,int rgb = 0);
+        //int8 loads a param/bin quantized by ncnn2int8 with the table of duixcalib
+        Mobunet(const char* fnbin,const char* fnparam,const char* fnmsk,int wenetstep = 20,int rgb = 0,int int8 = 0);
         ~Mobunet();
 };
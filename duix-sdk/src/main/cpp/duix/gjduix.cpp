@@ -27,23 +27,51 @@ struct dhmfcc_s{
   pthread_t *calcthread;
   pthread_mutex_t pushmutex;
   pthread_mutex_t readmutex;
+  pthread_mutex_t workmutex;
+  pthread_cond_t workcond;
+  volatile int workseq;
 };
 
 
+//idle wait of the calc worker, only a safety net, work is signalled
+#define CALC_IDLE_US 500000
+
+static void calcwake(dhmfcc_t* dg){
+  pthread_mutex_lock(&dg->workmutex);
+  dg->workseq++;
+  pthread_cond_signal(&dg->workcond);
+  pthread_mutex_unlock(&dg->workmutex);
+}
+
+//sleep until workseq moves on from seq
+static void calcwait(dhmfcc_t* dg,int seq){
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC,&ts);
+  ts.tv_sec += CALC_IDLE_US/1000000;
+  ts.tv_nsec += (CALC_IDLE_US%1000000)*1000;
+  if(ts.tv_nsec>=1000000000){
+    ts.tv_sec++;
+    ts.tv_nsec -= 1000000000;
+  }
+  pthread_mutex_lock(&dg->workmutex);
+  if(dg->running&&(dg->workseq==seq)){
+    pthread_cond_timedwait(&dg->workcond,&dg->workmutex,&ts);
+  }
+  pthread_mutex_unlock(&dg->workmutex);
+}
+
 static void *calcworker(void *arg){
   dhmfcc_t* mfcc = (dhmfcc_t*)arg;
-  uint64_t sessid = 0;
   while(mfcc->running){
+    //taken before looking for work, so a signal during runcalc is not lost
+    int seq = mfcc->workseq;
     int rst = 0;
     PcmSession* sess = mfcc->cursess;
     if(sess &&(sess->sessid()==mfcc->sessid)){
       rst = sess->runcalc(mfcc->sessid,mfcc->weai_common,mfcc->mincalc);
     }
-    if(rst!=1){
-      jtimer_mssleep(20);
-    }else{
-      jtimer_mssleep(10);
-    }
+    if(rst==1)continue;
+    calcwait(mfcc,seq);
   }
   return NULL;
 }
@@ -57,6 +85,12 @@ int dhmfcc_alloc(dhmfcc_t** pdg,int mincalc){
   mfcc->maxblock = STREAM_BASE_MAXBLOCK;
   pthread_mutex_init(&mfcc->pushmutex,NULL);
   pthread_mutex_init(&mfcc->readmutex,NULL);
+  pthread_mutex_init(&mfcc->workmutex,NULL);
+  pthread_condattr_t cattr;
+  pthread_condattr_init(&cattr);
+  pthread_condattr_setclock(&cattr,CLOCK_MONOTONIC);
+  pthread_cond_init(&mfcc->workcond,&cattr);
+  pthread_condattr_destroy(&cattr);
   mfcc->calcthread = (pthread_t *)malloc(sizeof(pthread_t) );
   mfcc->running = 1;
   pthread_create(mfcc->calcthread, NULL, calcworker, (void*)mfcc);
@@ -155,6 +189,7 @@ int dhmfcc_pushpcm(dhmfcc_t* dg,uint64_t sessid,char* buf,int size,int kind){
       uint64_t tick = jtimer_msstamp();
       printf("====runfirst  %ld %ld \n",sessid,tick);
     }
+    calcwake(dg);
     return 0;
   }else{
     return rst;
@@ -170,6 +205,7 @@ int dhmfcc_readpcm(dhmfcc_t* dg,uint64_t sessid,char* pcmbuf,int pcmlen,char* bn
   pthread_mutex_lock(&dg->readmutex);
   rst =  sess->readnext(sessid,(uint8_t*)pcmbuf,pcmlen,(uint8_t*)bnfbuf,bnflen);
   pthread_mutex_unlock(&dg->readmutex);
+  calcwake(dg);
   return rst;
 }
 
@@ -186,11 +222,14 @@ int dhmfcc_finsession(dhmfcc_t* dg,uint64_t sessid){
   if(!dg->running)return -2;
   PcmSession* sess = dg->cursess;
   if(!sess)return -3;
-  return sess->finpcm(sessid);
+  int rst = sess->finpcm(sessid);
+  calcwake(dg);
+  return rst;
 }
 
 int dhmfcc_free(dhmfcc_t* dg){
   dg->running = 0;
+  calcwake(dg);
   pthread_join(*dg->calcthread, NULL);
   if(dg->weai_first){
     delete dg->weai_first;
@@ -210,6 +249,8 @@ int dhmfcc_free(dhmfcc_t* dg){
   }
   pthread_mutex_destroy(&dg->pushmutex);
   pthread_mutex_destroy(&dg->readmutex);
+  pthread_mutex_destroy(&dg->workmutex);
+  pthread_cond_destroy(&dg->workcond);
   free(dg->calcthread);
   free(dg);
   //
@@ -1,15 +1,28 @@
 #include "gjsimp.h"
 #include <stdlib.h>
 #include <pthread.h>
+#include <time.h>
+#include <errno.h>
 #include "dhwenet.h"
 #include "wenetai.h"
 #include "dhpcm.h"
 #include "munet.h"
 #include "malpha.h"
 #include "dhwenet.h"
+#include "bnfcache.h"
+#include "jpool.h"
 #include <queue>
+#include <string>
+#include <vector>
 //#include "Log.h"
 
+//frame table of the model, uploaded once, the render calls pass the index
+struct DuixFrames{
+  std::vector<std::string> pics;
+  std::vector<std::string> msks;
+  std::vector<int>         boxs;
+};
+
 
 struct dhduix_s{
   int kind;
@@ -22,11 +35,14 @@ struct dhduix_s{
   int maxblock;  
   int inited;
   char* wenetfn;
+  int   backend;
 
   //DhWenet* wenet;
   WeAI*   weai_first;
   WeAI*   weai_common;
+  WeOrtConf*  ortconf;
   PcmSession* cursess;
+  BnfCache*   bnfcache;
   //PcmSession* presess;
   volatile uint64_t  sessid;
 
@@ -37,37 +53,102 @@ struct dhduix_s{
   pthread_mutex_t readmutex;
   pthread_mutex_t freemutex;
   std::queue<PcmSession*> *slist;  
+  pthread_mutex_t workmutex;
+  pthread_cond_t workcond;
+  pthread_cond_t readycond;
+  volatile int workseq;
 
   int rgb;
+  volatile int quality;
+  int vaddb;
+  int vadhang;
+  DuixFrames  *frames;
+  //stage costs of the last compose in us, read by dhduix_tick
+  int cost_munet;
+  int cost_blend;
   Mobunet     *munet; 
+  MWorkMat    *workmat;
   JMat        *mat_pic;
   JMat        *mat_fg;
   JMat        *mat_msk;
 };
 
+//timed runs per backend when the backend is picked at startup
+#define WENET_BENCH_ROUNDS 5
+static_assert(WEAI_BACKEND_COUNT==DUIX_WENET_BACKENDS,"wenet backend count");
+
+static uint64_t tick_usstamp(){
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC,&ts);
+  return ts.tv_sec*1000000ull + ts.tv_nsec/1000;
+}
+
+//idle wait of the calc worker, only a safety net, work is signalled
+#define CALC_IDLE_US 500000
+
+//wake the calc worker: new pcm, session end, reader progress or exit
+//waitready callers wake too, the session may have been replaced or freed
+static void calcwake(dhduix_t* dg){
+  pthread_mutex_lock(&dg->workmutex);
+  dg->workseq++;
+  pthread_cond_signal(&dg->workcond);
+  pthread_cond_broadcast(&dg->readycond);
+  pthread_mutex_unlock(&dg->workmutex);
+}
+
+//a block of the current session is calculated
+static void readywake(dhduix_t* dg){
+  pthread_mutex_lock(&dg->workmutex);
+  pthread_cond_broadcast(&dg->readycond);
+  pthread_mutex_unlock(&dg->workmutex);
+}
+
+//sleep until workseq moves on from seq
+static void calcwait(dhduix_t* dg,int seq){
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC,&ts);
+  ts.tv_sec += CALC_IDLE_US/1000000;
+  ts.tv_nsec += (CALC_IDLE_US%1000000)*1000;
+  if(ts.tv_nsec>=1000000000){
+    ts.tv_sec++;
+    ts.tv_nsec -= 1000000000;
+  }
+  pthread_mutex_lock(&dg->workmutex);
+  if(dg->running&&(dg->workseq==seq)){
+    pthread_cond_timedwait(&dg->workcond,&dg->workmutex,&ts);
+  }
+  pthread_mutex_unlock(&dg->workmutex);
+}
+
 static void *calcworker(void *arg){
   dhduix_t* mfcc = (dhduix_t*)arg;
-  uint64_t sessid = 0;
   while(mfcc->running){
+    //taken before looking for work, so a signal during runcalc is not lost
+    int seq = mfcc->workseq;
     int rst = 0;
     PcmSession* sess = mfcc->cursess;
     if(sess &&(sess->sessid()==mfcc->sessid)){
       rst = sess->runcalc(mfcc->sessid,mfcc->weai_common,mfcc->mincalc);
-    }
-    if(rst!=1){
-      if(!mfcc->slist->empty()){
+      if(rst==1)readywake(mfcc);
+      if(rst==-1){
+        //initCache swaps the cache under freemutex
         pthread_mutex_lock(&mfcc->freemutex);
-        PcmSession* sess = mfcc->slist->front();
-        mfcc->slist->pop();
-        delete sess;
+        BnfEntry* entry = mfcc->bnfcache?sess->takecache():NULL;
+        if(entry)mfcc->bnfcache->put(sess->cachekey(mfcc->bnfcache),entry);
         pthread_mutex_unlock(&mfcc->freemutex);
-        jtimer_mssleep(10);
-      }else{
-        jtimer_mssleep(20);
       }
-    }else{
-      jtimer_mssleep(10);
     }
+    if(rst==1)continue;
+    if(!mfcc->slist->empty()){
+      pthread_mutex_lock(&mfcc->freemutex);
+      PcmSession* sess = mfcc->slist->front();
+      mfcc->slist->pop();
+      delete sess;
+      pthread_mutex_unlock(&mfcc->freemutex);
+      continue;
+    }
+    //nothing to do, sleep until signalled
+    calcwait(mfcc,seq);
   }
   return NULL;
 }
@@ -83,6 +164,13 @@ int dhduix_alloc(dhduix_t** pdg,int mincalc,int width,int height){
   pthread_mutex_init(&duix->readmutex,NULL);
   pthread_mutex_init(&duix->freemutex,NULL);
   duix->slist = new std::queue<PcmSession*>();
+  pthread_mutex_init(&duix->workmutex,NULL);
+  pthread_condattr_t cattr;
+  pthread_condattr_init(&cattr);
+  pthread_condattr_setclock(&cattr,CLOCK_MONOTONIC);
+  pthread_cond_init(&duix->workcond,&cattr);
+  pthread_cond_init(&duix->readycond,&cattr);
+  pthread_condattr_destroy(&cattr);
   duix->calcthread = (pthread_t *)malloc(sizeof(pthread_t) );
   duix->running = 1;
   pthread_create(duix->calcthread, NULL, calcworker, (void*)duix);
@@ -129,25 +217,50 @@ int dhduix_initPcmex(dhduix_t* dg,int maxsize,int minoff ,int minblock ,int maxb
   return 0;
 }
 
-int dhduix_initWenet(dhduix_t* dg,char* fnwenet){
+int dhduix_benchWenet(dhduix_t* dg,char* fnwenet,int rounds,int* costs){
+  int best = -1;
+  int bestus = 0;
+  for(int k=0;k<WEAI_BACKEND_COUNT;k++){
+    int us = -1;
+    WeAI* weai = weai_create(k,fnwenet,321,79,dg->ortconf);
+    if(weai){
+      us = weai->bench(rounds);
+      delete weai;
+    }
+    if(costs)costs[k] = us;
+    printf("===wenet bench backend %d cost %d us\n",k,us);
+    if((us>0)&&((best<0)||(us<bestus))){
+      best = k;
+      bestus = us;
+    }
+  }
+  return best;
+}
+
+int dhduix_initWenetex(dhduix_t* dg,char* fnwenet,int backend){
+  if(dg->wenetfn)free(dg->wenetfn);
   dg->wenetfn = strdup(fnwenet);
 
-  std::string fnonnx(fnwenet);
-  WeAI*  awenet ;
+  if(backend<0){
+    backend = dhduix_benchWenet(dg,fnwenet,WENET_BENCH_ROUNDS,NULL);
+  }
   int melcnt = DhWenet::cntmel(dg->minblock);
   int bnfcnt = DhWenet::cntbnf(melcnt);
-#ifdef WENETOPENV
-  if(dg->inited){
-    std::string fnovbin = fnonnx+"_ov.bin";
-    std::string fnovxml = fnonnx+"_ov.xml";
-    awenet = new WeOpvn(fnovbin,fnovxml,melcnt,bnfcnt,4);
-  }else{
-    awenet = new WeOnnx(fnwenet,melcnt,bnfcnt,4);
+  WeAI* awenet = backend<0?NULL:weai_create(backend,fnwenet,melcnt,bnfcnt,dg->ortconf);
+  WeAI* bwenet = awenet?weai_create(backend,fnwenet,321,79,dg->ortconf):NULL;
+  if(!bwenet){
+    //onnx on cpu is always there
+    if(awenet)delete awenet;
+    printf("===wenet backend %d unavailable, use onnx\n",backend);
+    backend = WEAI_BACKEND_ONNX;
+    awenet = weai_create(backend,fnwenet,melcnt,bnfcnt,dg->ortconf);
+    bwenet = weai_create(backend,fnwenet,321,79,dg->ortconf);
+    if(!awenet||!bwenet){
+      if(awenet)delete awenet;
+      if(bwenet)delete bwenet;
+      return -1;
+    }
   }
-#else
-  awenet = new WeOnnx(fnwenet,melcnt,bnfcnt,4);
-#endif
-  WeAI* bwenet = new WeOnnx(fnwenet,321,79,4);
   if(dg->weai_first){
     WeAI* oldw = dg->weai_first;
     dg->weai_first = awenet;
@@ -164,12 +277,24 @@ int dhduix_initWenet(dhduix_t* dg,char* fnwenet){
   }
   awenet->test();
   bwenet->test();
-  return awenet?0:-1;
+  dg->backend = backend;
+  printf("===wenet backend %d\n",backend);
+  return backend;
+}
+
+int dhduix_initWenet(dhduix_t* dg,char* fnwenet){
+  int backend = dg->ortconf?dg->ortconf->provider:WEAI_BACKEND_ONNX;
+#ifdef WENETOPENV
+  if(dg->inited)backend = WEAI_BACKEND_OPENVINO;
+#endif
+  return dhduix_initWenetex(dg,fnwenet,backend)>=0?0:-1;
 }
 
 uint64_t dhduix_newsession(dhduix_t* dg){
   uint64_t sessid = ++dg->sessid;
   PcmSession* sess = new PcmSession(sessid,dg->minoff,dg->minblock,dg->maxblock);
+  sess->setcache(dg->bnfcache?1:0);
+  sess->setvad(dg->vaddb,dg->vadhang);
   //PcmSession* olds = dg->presess;
   //dg->presess = dg->cursess;
   //dg->cursess = sess;
@@ -183,6 +308,7 @@ uint64_t dhduix_newsession(dhduix_t* dg){
   pthread_mutex_lock(&dg->freemutex);
   dg->slist->push(olds);
   pthread_mutex_unlock(&dg->freemutex);
+  calcwake(dg);
   return sessid;
 }
 
@@ -201,12 +327,97 @@ int dhduix_pushpcm(dhduix_t* dg,uint64_t sessid,char* buf,int size,int kind){
       uint64_t tick = jtimer_msstamp();
       printf("====runfirst  %ld %ld \n",sessid,tick);
     }
+    calcwake(dg);
     return 0;
   }else{
     return rst;
   }
 }
 
+int dhduix_initPool(dhduix_t* dg,int threads){
+  return jpool_setup(threads);
+}
+
+int dhduix_setQuality(dhduix_t* dg,int flags){
+  dg->quality = flags;
+  return 0;
+}
+
+int dhduix_setThreads(dhduix_t* dg,int threads){
+  if(!dg->munet)return -3;
+  return dg->munet->setthreads(threads);
+}
+
+int dhduix_setVad(dhduix_t* dg,int db,int hang){
+  dg->vaddb = db<0?db:0;
+  dg->vadhang = hang>0?hang:0;
+  return 0;
+}
+
+int dhduix_silent(dhduix_t* dg,uint64_t sessid,int inx){
+  PcmSession* sess = dg->cursess;
+  if(!sess)return -3;
+  if(sess->sessid()!=sessid)return 0;
+  return sess->silent(inx);
+}
+
+int dhduix_initOrt(dhduix_t* dg,int intra,int inter,int optlevel,int flags){
+  WeOrtConf* conf = dg->ortconf?dg->ortconf:new WeOrtConf();
+  if(intra>0)conf->intra = intra;
+  if(inter>0)conf->inter = inter;
+  if(optlevel>=0)conf->optlevel = optlevel;
+  conf->mempattern = (flags&DUIX_ORT_NOPATTERN)?0:1;
+  conf->arena = (flags&DUIX_ORT_NOARENA)?0:1;
+  conf->spinning = (flags&DUIX_ORT_NOSPIN)?0:1;
+  conf->provider = WEORT_PROVIDER_CPU;
+  if(flags&DUIX_ORT_XNNPACK)conf->provider = WEORT_PROVIDER_XNNPACK;
+  if(flags&DUIX_ORT_NNAPI)conf->provider = WEORT_PROVIDER_NNAPI;
+  dg->ortconf = conf;
+  return 0;
+}
+
+int dhduix_initCache(dhduix_t* dg,char* dir,int memcnt,int diskcnt){
+  std::string model = dg->wenetfn?dg->wenetfn:"";
+  //other backends give slightly different features, keep their entries apart
+  if(dg->backend)model += "#"+std::to_string(dg->backend);
+  BnfCache* cache = new BnfCache(dir,dg->wenetfn?model.c_str():NULL,memcnt,diskcnt);
+  //calcworker may be putting into the old cache
+  pthread_mutex_lock(&dg->freemutex);
+  BnfCache* olds = dg->bnfcache;
+  dg->bnfcache = cache;
+  pthread_mutex_unlock(&dg->freemutex);
+  if(olds)delete olds;
+  return 0;
+}
+
+int dhduix_pushfull(dhduix_t* dg,uint64_t sessid,char* buf,int size,int kind){
+  if(sessid!=dg->sessid)return -1;
+  if(!dg->running)return -2;
+  PcmSession* sess = dg->cursess;
+  if(!sess)return -3;
+  int rst = 0;
+  BnfEntry* entry = NULL;
+  pthread_mutex_lock(&dg->freemutex);
+  if(dg->bnfcache){
+    entry = dg->bnfcache->get(sess->cachekey(dg->bnfcache,(uint8_t*)buf,size));
+  }
+  pthread_mutex_unlock(&dg->freemutex);
+  if(entry){
+    pthread_mutex_lock(&dg->pushmutex);
+    pthread_mutex_lock(&dg->readmutex);
+    rst = sess->loadcache(sessid,(uint8_t*)buf,size,entry);
+    pthread_mutex_unlock(&dg->pushmutex);
+    pthread_mutex_unlock(&dg->readmutex);
+    delete entry;
+    if(rst>0)return 1;
+  }
+  rst = dhduix_pushpcm(dg,sessid,buf,size,kind);
+  if(rst<0)return rst;
+  rst = sess->finpcm(sessid);
+  calcwake(dg);
+  return rst<0?rst:0;
+}
+
 int dhduix_readpcm(dhduix_t* dg,uint64_t sessid,char* pcmbuf,int pcmlen,char* bnfbuf,int bnflen){
   if(sessid!=dg->sessid)return -1;
   if(!dg->running)return -2;
@@ -216,6 +427,8 @@ int dhduix_readpcm(dhduix_t* dg,uint64_t sessid,char* pcmbuf,int pcmlen,char* bn
   pthread_mutex_lock(&dg->readmutex);
   rst =  sess->readnext(sessid,(uint8_t*)pcmbuf,pcmlen,(uint8_t*)bnfbuf,bnflen);
   pthread_mutex_unlock(&dg->readmutex);
+  //reading frees mincalc slots
+  calcwake(dg);
   return rst;
 }
 
@@ -232,11 +445,14 @@ int dhduix_finsession(dhduix_t* dg,uint64_t sessid){
   if(!dg->running)return -2;
   PcmSession* sess = dg->cursess;
   if(!sess)return -3;
-  return sess->finpcm(sessid);
+  int rst = sess->finpcm(sessid);
+  calcwake(dg);
+  return rst;
 }
 
 int dhduix_free(dhduix_t* dg){
   dg->running = 0;
+  calcwake(dg);
   pthread_join(*dg->calcthread, NULL);
   if(dg->slist){
     pthread_mutex_lock(&dg->freemutex);
@@ -257,6 +473,18 @@ int dhduix_free(dhduix_t* dg){
     delete dg->weai_common;
     dg->weai_common = NULL;
   }
+  if(dg->ortconf){
+    delete dg->ortconf;
+    dg->ortconf = NULL;
+  }
+  if(dg->bnfcache){
+    delete dg->bnfcache;
+    dg->bnfcache = NULL;
+  }
+  if(dg->frames){
+    delete dg->frames;
+    dg->frames = NULL;
+  }
   if(dg->cursess){
     delete dg->cursess;
     dg->cursess = NULL;
@@ -269,6 +497,10 @@ int dhduix_free(dhduix_t* dg){
     delete dg->munet;
     dg->munet = NULL;
   }
+  if(dg->workmat){
+    delete dg->workmat;
+    dg->workmat = NULL;
+  }
   if(dg->mat_fg){
     delete dg->mat_fg;
     dg->mat_fg = NULL;
@@ -283,6 +515,9 @@ int dhduix_free(dhduix_t* dg){
   }
   pthread_mutex_destroy(&dg->pushmutex);
   pthread_mutex_destroy(&dg->readmutex);
+  pthread_mutex_destroy(&dg->workmutex);
+  pthread_cond_destroy(&dg->workcond);
+  pthread_cond_destroy(&dg->readycond);
   pthread_mutex_destroy(&dg->freemutex);
   free(dg->calcthread);
   jmat_free(dg->mat_feat);
@@ -292,12 +527,35 @@ int dhduix_free(dhduix_t* dg){
 }
 
 
+//box result arena of the workmat, as large as the largest box in the frame table
+static int dhduix_reserveWork(dhduix_t* dg,DuixFrames* frames){
+  int maxw = 0;
+  int maxh = 0;
+  for(size_t k=0;k+3<frames->boxs.size();k+=4){
+    int w = frames->boxs[k+2]-frames->boxs[k];
+    int h = frames->boxs[k+3]-frames->boxs[k+1];
+    if(w>maxw)maxw = w;
+    if(h>maxh)maxh = h;
+  }
+  if((maxw<=0)||(maxh<=0))return 0;
+  return dg->workmat->reserve(maxw,maxh);
+}
+
+//work mats of the blending path, sized once from the model so frames don't allocate
+static int dhduix_initWork(dhduix_t* dg){
+  if(dg->workmat)delete dg->workmat;
+  dg->workmat = new MWorkMat(dg->kind,dg->width,dg->height);
+  if(dg->frames)dhduix_reserveWork(dg,dg->frames);
+  return 0;
+}
+
 int dhduix_initMunet(dhduix_t* dg,char* fnparam,char* fnbin,char* fnmsk){
   dg->munet = new Mobunet(fnbin,fnparam,fnmsk,20,dg->rgb);
   dg->inited = 1;
   printf("===init munet \n");
   dg->kind = 168;
   dg->rect = 160;
+  dhduix_initWork(dg);
   return 0;
 }
 
@@ -311,10 +569,33 @@ int dhduix_initMunetex(dhduix_t* dg,char* fnparam,char* fnbin,char* fnmsk,int re
     dg->kind = 168;
     dg->rect = 160;
   }
+  dhduix_initWork(dg);
   printf("===init munet \n");
   return 0;
 }
 
+int dhduix_initMunetq(dhduix_t* dg,char* fnparam,char* fnbin,char* fnmsk,int rect,int int8){
+  Mobunet* munet = new Mobunet(fnbin,fnparam,fnmsk,20,dg->rgb,int8);
+  if(!munet->inited()){
+    //caller falls back to the fp32 files
+    delete munet;
+    return -1;
+  }
+  if(dg->munet)delete dg->munet;
+  dg->munet = munet;
+  dg->inited = 1;
+  if(rect==128){
+    dg->kind = 128;
+    dg->rect = 128;
+  }else{
+    dg->kind = 168;
+    dg->rect = 160;
+  }
+  dhduix_initWork(dg);
+  printf("===init munet int8 %d\n",int8);
+  return 0;
+}
+
 int dhduix_simppcm(dhduix_t* dg,char* buf,int size,char* pre,int presize,char* bnf,int bnfsize){
   if(!dg->running)return -2;
   PcmFile* mfcc = new PcmFile(25,10,STREAM_BASE_MAXBLOCK,STREAM_BASE_MAXBLOCK*20);
@@ -339,51 +620,107 @@ int dhduix_readycnt(dhduix_t* dg,uint64_t sessid){
   return sess->calcBlock();
 }
 
+int dhduix_waitready(dhduix_t* dg,uint64_t sessid,int cnt,int timeoutms){
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC,&ts);
+  ts.tv_sec += timeoutms/1000;
+  ts.tv_nsec += (timeoutms%1000)*1000000;
+  if(ts.tv_nsec>=1000000000){
+    ts.tv_sec++;
+    ts.tv_nsec -= 1000000000;
+  }
+  int ready = 0;
+  pthread_mutex_lock(&dg->workmutex);
+  while(1){
+    if(!dg->running){
+      ready = -2;
+      break;
+    }
+    if(sessid!=dg->sessid){
+      ready = -1;
+      break;
+    }
+    ready = dhduix_readycnt(dg,sessid);
+    if(ready<0||ready>=cnt)break;
+    if(pthread_cond_timedwait(&dg->readycond,&dg->workmutex,&ts)==ETIMEDOUT){
+      ready = dhduix_readycnt(dg,sessid);
+      break;
+    }
+  }
+  pthread_mutex_unlock(&dg->workmutex);
+  return ready;
+}
+
 
 #define AIRUN_FLAG 1
-int dhduix_fileinx(dhduix_t* dg,uint64_t sessid,char* fnpic,int* box,char* fnmsk,char* fnfg,int bnfinx,char* bimg,char* mskbuf,int imgsize){
-  if(sessid!=dg->sessid)return -1;
-  if(!dg->running)return -2;
+struct fileinx_s{
+  dhduix_t* dg;
+  uint64_t  sessid;
+  char*     fnpic;
+  int*      box;
+  char*     fnmsk;
+  char*     fnfg;
+  int       bnfinx;
+  char*     bimg;
+  char*     mskbuf;
+  int       rst;
+};
 
-  uint64_t ticka = jtimer_msstamp();
-  std::string sfnpic(fnpic);
-  std::string sfnmsk(fnmsk);
-  std::string sfnfg(fnfg);
+//task 0 decodes the picture and blends the mouth, task 1 decodes the mask,
+//the blend does not read the mask so both run side by side on the pool
+static void fileinx_task(void* arg,int inx){
+  fileinx_s* task = (fileinx_s*)arg;
+  dhduix_t* dg = task->dg;
+  int size = dg->width*dg->height*3;
+  if(inx==1){
+    JMat mat_msk(dg->width,dg->height,(uint8_t*)task->mskbuf);
+    mat_msk.loadjpg(task->fnmsk,1);
+    return;
+  }
   JMat* mat_pic = dg->mat_pic;
-  mat_pic->loadjpg(sfnpic,1);
+  mat_pic->loadjpg(task->fnpic,1);
   uint8_t* bpic = (uint8_t*)mat_pic->data();
-  uint8_t* bmsk = NULL;
   uint8_t* bfg = NULL;
-  JMat* mat_msk = NULL;
-  if(sfnmsk.length()){
-    mat_msk = dg->mat_msk;
-    mat_msk->loadjpg(sfnmsk,1);
-    bmsk = (uint8_t*)mat_msk->data();
-    memcpy(mskbuf,bmsk,dg->width*dg->height*3);
-  }
-  JMat* mat_fg = NULL;
-  if(sfnfg.length()){
-    mat_fg = dg->mat_fg;
-    mat_fg->loadjpg(sfnfg,1);
+  if(task->fnfg&&task->fnfg[0]){
+    JMat* mat_fg = dg->mat_fg;
+    mat_fg->loadjpg(task->fnfg,1);
     bfg = (uint8_t*)mat_fg->data();
   }
-  uint64_t tickb = jtimer_msstamp();
-  uint64_t dist = tickb-ticka;
-  //LOGD("tooken","===loadjpg %ld\n",dist);
-  int rst = 0;
-  if(box){
-    rst = dhduix_simpinx(dg,sessid, bpic,dg->width,dg->height, box, bmsk, bfg,bnfinx);
+  if(task->box){
+    task->rst = dhduix_simpinx(dg,task->sessid, bpic,dg->width,dg->height, task->box, NULL, bfg,task->bnfinx);
   }else{
-    rst = dhduix_simpblend(dg,sessid, bpic,dg->width,dg->height,  bmsk, bfg);
+    task->rst = dhduix_simpblend(dg,task->sessid, bpic,dg->width,dg->height, NULL, bfg);
   }
-  int size = dg->width*dg->height*3;
   if(bfg){
-    memcpy(bimg,bfg,size);
+    memcpy(task->bimg,bfg,size);
   }else{
-    memcpy(bimg,bpic,size);
+    memcpy(task->bimg,bpic,size);
   }
-  if(bmsk) memcpy(mskbuf,bmsk,size);
-  return rst;
+}
+
+int dhduix_fileinx(dhduix_t* dg,uint64_t sessid,char* fnpic,int* box,char* fnmsk,char* fnfg,int bnfinx,char* bimg,char* mskbuf,int imgsize){
+  if(sessid!=dg->sessid)return -1;
+  if(!dg->running)return -2;
+
+  fileinx_s task = {dg,sessid,fnpic,box,fnmsk,fnfg,bnfinx,bimg,mskbuf,0};
+  int hasmsk = fnmsk&&fnmsk[0];
+  jpool_run(hasmsk?2:1,fileinx_task,&task);
+  return task.rst;
+}
+
+int dhduix_filebatch(dhduix_t* dg,uint64_t sessid,int cnt,char** fnpics,int* boxs,char** fnmsks,int* bnfinxs,char** bimgs,char** mskbufs,int imgsize){
+  if(sessid!=dg->sessid)return -1;
+  if(!dg->running)return -2;
+  if(!dg->munet)return -3;
+  int done = 0;
+  int rst = 0;
+  //frames still run one by one through fileinx, ncnn has no batch axis for munet
+  for(int k=0;k<cnt;k++){
+    rst = dhduix_fileinx(dg,sessid,fnpics[k],boxs+k*4,fnmsks[k],(char*)"",bnfinxs[k],bimgs[k],mskbufs[k],imgsize);
+    if(rst<0)break;
+    done++;
+  }
+  return done?done:rst;
 }
 
 int dhduix_simpinx(dhduix_t* dg,uint64_t sessid,uint8_t* bpic,int width,int height,int* box,uint8_t* bmsk,uint8_t* bfg,int inx){
@@ -397,6 +734,7 @@ int dhduix_simpinx(dhduix_t* dg,uint64_t sessid,uint8_t* bpic,int width,int heig
   pthread_mutex_lock(&dg->readmutex);
   rst =  sess->readblock(sessid,dg->mat_feat,inx);
   pthread_mutex_unlock(&dg->readmutex);
+  calcwake(dg);
   //printf("===readblock %d\n",rst);
   if(rst>0){
     rst = dhduix_simprst(dg,sessid, bpic,w,h, box, bmsk, bfg,(uint8_t*)dg->mat_feat->data,STREAM_ALL_BNF);
@@ -415,19 +753,31 @@ int dhduix_simprst(dhduix_t* dg,uint64_t sessid,uint8_t* bpic,int width,int heig
   if(!dg->inited)return -1;
   if(!dg->munet)return -3;
   int rst = 0;
-  JMat* mat_pic = new JMat(width,height,bpic);
-  JMat* mat_msk = bmsk?new JMat(width,height,bmsk):NULL;
-  JMat* mat_fg = bfg?new JMat(width,height,bfg):NULL;
+  //wrappers over caller buffers, nothing is allocated per frame
+  JMat mat_pic(width,height,bpic);
+  JMat mat_fgbuf(width,height,bfg);
+  JMat* mat_fg = bfg?&mat_fgbuf:NULL;
   //read pcm
-  JMat* feat = new JMat(STREAM_CNT_BNF,STREAM_BASE_BNF,(float*)bnfbuf,1);
+  JMat matfeat(STREAM_CNT_BNF,STREAM_BASE_BNF,(float*)bnfbuf,1);
+  JMat* feat = &matfeat;
 
 //    MWorkMat wmat(mat_pic,mat_msk,box);
-  MWorkMat wmat(mat_pic, NULL,box,dg->kind);
+  MWorkMat* pwmat = dg->workmat;
+  MWorkMat* tmpwmat = NULL;
+  if(!pwmat||pwmat->reset(&mat_pic,NULL,box)){
+    //box out of the pooled range, fall back to a one-off workmat
+    tmpwmat = new MWorkMat(&mat_pic, NULL,box,dg->kind);
+    pwmat = tmpwmat;
+  }
+  MWorkMat& wmat = *pwmat;
+  uint64_t usa = tick_usstamp();
+  wmat.setfast(dg->quality&DUIX_QUALITY_FASTRESIZE);
   wmat.premunet();
   JMat* mpic;
   JMat* mmsk;
   wmat.munet(&mpic,&mmsk);
   //tooken
+  uint64_t usb = tick_usstamp();
 #ifdef AIRUN_FLAG
   uint64_t ticka = jtimer_msstamp();
   rst = dg->munet->domodel(mpic, mmsk, feat,dg->rect);
@@ -438,16 +788,137 @@ int dhduix_simprst(dhduix_t* dg,uint64_t sessid,uint8_t* bpic,int width,int heig
     printf("===domodel %d dist %ld\n",rst,dist);
   }
 #endif
+  uint64_t usc = tick_usstamp();
   if(mat_fg){
     wmat.finmunet(mat_fg);
   }else{
-    wmat.finmunet(mat_pic);
+    wmat.finmunet(&mat_pic);
   }
-  if(feat)delete feat;
-  delete mat_pic;
-  if(mat_fg)delete mat_fg;
-  if(mat_msk)delete mat_msk;
+  if(tmpwmat)delete tmpwmat;
+  uint64_t usd = tick_usstamp();
+  dg->cost_munet = (int)(usc-usb);
+  dg->cost_blend = (int)((usb-usa)+(usd-usc));
+  return 0;
+}
+
+int dhduix_setframes(dhduix_t* dg,int cnt,char** fnpics,char** fnmsks,int* boxs){
+  if(cnt<0)return -11;
+  DuixFrames* frames = new DuixFrames();
+  frames->pics.resize(cnt);
+  frames->msks.resize(cnt);
+  frames->boxs.assign(boxs,boxs+cnt*4);
+  for(int k=0;k<cnt;k++){
+    frames->pics[k] = fnpics[k]?fnpics[k]:"";
+    frames->msks[k] = fnmsks[k]?fnmsks[k]:"";
+  }
+  DuixFrames* olds = dg->frames;
+  dg->frames = frames;
+  if(olds)delete olds;
+  if(dg->workmat)dhduix_reserveWork(dg,frames);
+  printf("===setframes %d\n",cnt);
+  return cnt;
+}
+
+static DuixFrames* frameget(dhduix_t* dg,int frameid){
+  DuixFrames* frames = dg->frames;
+  if(!frames||(frameid<0)||(frameid>=(int)frames->pics.size()))return NULL;
+  return frames;
+}
+
+struct frameload_s{
+  const char* fn[2];
+  uint8_t*    buf[2];
+  int         width;
+  int         height;
+};
+
+static void frameload_task(void* arg,int inx){
+  frameload_s* task = (frameload_s*)arg;
+  JMat mat(task->width,task->height,task->buf[inx]);
+  mat.loadjpg(task->fn[inx],1);
+}
+
+int dhduix_frameload(dhduix_t* dg,int frameid,char* bimg,char* mskbuf,int imgsize){
+  DuixFrames* frames = frameget(dg,frameid);
+  if(!frames)return -12;
+  if(dg->width*dg->height*3>imgsize)return -13;
+  const std::string& msk = frames->msks[frameid];
+  int cnt = (msk.length()&&mskbuf)?2:1;
+  //picture and mask decode side by side on the worker pool
+  frameload_s task = {{frames->pics[frameid].c_str(),msk.c_str()},{(uint8_t*)bimg,(uint8_t*)mskbuf},dg->width,dg->height};
+  jpool_run(cnt,frameload_task,&task);
   return 0;
 }
 
+int dhduix_frameroi(dhduix_t* dg,int frameid,int* box,int scale,char* bimg,int imgsize){
+  DuixFrames* frames = frameget(dg,frameid);
+  if(!frames)return -12;
+  if(scale<1)return -17;
+  int w = (dg->width+scale-1)/scale;
+  int h = (dg->height+scale-1)/scale;
+  if(w*h*3>imgsize)return -13;
+  JMat mat_pic(w,h,(uint8_t*)bimg);
+  return mat_pic.loadjpgroi(frames->pics[frameid].c_str(),box,scale,1);
+}
+
+int dhduix_framerst(dhduix_t* dg,uint64_t sessid,int frameid,int bnfinx,char* bimg,char* mskbuf,int imgsize){
+  DuixFrames* frames = frameget(dg,frameid);
+  if(!frames)return -12;
+  int* box = frames->boxs.data()+frameid*4;
+  if(!mskbuf){
+    //bimg already holds the picture, only the mouth is redone
+    if(sessid!=dg->sessid)return -1;
+    if(!dg->running)return -2;
+    return dhduix_simpinx(dg,sessid,(uint8_t*)bimg,0,0,box,NULL,NULL,bnfinx);
+  }
+  return dhduix_fileinx(dg,sessid,(char*)frames->pics[frameid].c_str(),box,
+      (char*)frames->msks[frameid].c_str(),(char*)"",bnfinx,bimg,mskbuf,imgsize);
+}
 
+int dhduix_framebatch(dhduix_t* dg,uint64_t sessid,int cnt,int* frameids,int* bnfinxs,char** bimgs,char** mskbufs,int imgsize){
+  if(sessid!=dg->sessid)return -1;
+  if(!dg->running)return -2;
+  if(!dg->munet)return -3;
+  int done = 0;
+  int rst = 0;
+  for(int k=0;k<cnt;k++){
+    rst = dhduix_framerst(dg,sessid,frameids[k],bnfinxs[k],bimgs[k],mskbufs[k],imgsize);
+    if(rst<0)break;
+    done++;
+  }
+  return done?done:rst;
+}
+
+int dhduix_tick(dhduix_t* dg,uint64_t sessid,int frameid,int playinx,int flags,int* dirty,
+    char* bimg,char* mskbuf,int imgsize,int* status){
+  uint64_t usa = tick_usstamp();
+  memset(status,0,DUIX_TICK_COUNT*sizeof(int));
+  dg->cost_munet = 0;
+  dg->cost_blend = 0;
+  int ready = dhduix_readycnt(dg,sessid);
+  if(ready<0)ready = 0;
+  status[DUIX_TICK_READY] = ready;
+  int lip = (ready>0)&&(playinx>=0)?DUIX_TICK_LIPSYNC:DUIX_TICK_IDLE;
+  if(lip&&(dhduix_silent(dg,sessid,playinx)==1))lip = DUIX_TICK_SILENT;
+  int rst = 0;
+  int base = flags&DUIX_TICK_BASE;
+  if(base&&(flags&DUIX_TICK_DIRTY)){
+    //put back the area the last compose changed, a full decode when that fails
+    if(dhduix_frameroi(dg,frameid,dirty,1,bimg,imgsize))base = 0;
+  }
+  if(lip==DUIX_TICK_LIPSYNC){
+    rst = dhduix_framerst(dg,sessid,frameid,playinx,bimg,base?NULL:mskbuf,imgsize);
+  }else if(!base){
+    rst = dhduix_frameload(dg,frameid,bimg,mskbuf,imgsize);
+  }
+  uint64_t usb = tick_usstamp();
+  status[DUIX_TICK_LIP] = lip;
+  status[DUIX_TICK_RESULT] = rst;
+  status[DUIX_TICK_MUNET] = dg->cost_munet;
+  status[DUIX_TICK_BLEND] = dg->cost_blend;
+  status[DUIX_TICK_TOTAL] = (int)(usb-usa);
+  int decode = status[DUIX_TICK_TOTAL]-dg->cost_munet-dg->cost_blend;
+  status[DUIX_TICK_DECODE] = decode>0?decode:0;
+  status[DUIX_TICK_FULL] = base?0:1;
+  return rst;
+}
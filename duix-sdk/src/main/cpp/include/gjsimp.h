@@ -12,23 +12,92 @@ typedef struct dhduix_s dhduix_t;
 int dhduix_alloc(dhduix_t** pdg,int mincalc,int width,int height);
 int dhduix_initPcmex(dhduix_t* dg,int maxsize,int minoff ,int minblock ,int maxblock,int rgb);
 int dhduix_initWenet(dhduix_t* dg,char* fnwenet); 
+//backend 0 onnx cpu,1 onnx xnnpack,2 onnx nnapi,3 openvino,4 mnn,-1 the fastest of dhduix_benchWenet
+//returns the backend in use, onnx cpu when the asked one is unavailable
+int dhduix_initWenetex(dhduix_t* dg,char* fnwenet,int backend);
+#define DUIX_WENET_BACKENDS 5
+//times every backend on a canned mel block, costs[DUIX_WENET_BACKENDS] gets us per run or -1, returns the fastest
+int dhduix_benchWenet(dhduix_t* dg,char* fnwenet,int rounds,int* costs);
 int dhduix_initMunet(dhduix_t* dg,char* fnparam,char* fnbin,char* fnmsk);
 int dhduix_initMunetex(dhduix_t* dg,char* fnparam,char* fnbin,char* fnmsk,int rect);
+//int8 1 for a model quantized with the duixcalib table, -1 when the files don't load and the old munet stays
+int dhduix_initMunetq(dhduix_t* dg,char* fnparam,char* fnbin,char* fnmsk,int rect,int int8);
+//wenet onnxruntime settings, call before initWenet
+//intra/inter<=0 and optlevel<0 keep the defaults, optlevel 0/1/2/99 as GraphOptimizationLevel
+#define DUIX_ORT_NOPATTERN  1
+#define DUIX_ORT_NOARENA    2
+#define DUIX_ORT_NOSPIN     4
+#define DUIX_ORT_XNNPACK    8
+#define DUIX_ORT_NNAPI      16
+int dhduix_initOrt(dhduix_t* dg,int intra,int inter,int optlevel,int flags);
+int dhduix_initCache(dhduix_t* dg,char* dir,int memcnt,int diskcnt);
+//decode/resize worker pool shared by all instances, 0 keeps everything on the calling thread
+int dhduix_initPool(dhduix_t* dg,int threads);
+//cost/quality knobs of the render path, read every frame, any thread may set them
+#define DUIX_QUALITY_FASTRESIZE 1
+int dhduix_setQuality(dhduix_t* dg,int flags);
+//munet ncnn threads, <=0 all big cores, returns the count in use; call between frames
+int dhduix_setThreads(dhduix_t* dg,int threads);
+//energy vad of the pushed pcm, db<0 rms threshold in dBFS, 0 off; hang quiet blocks on each side
+//of a skipped block; applies from the next session
+int dhduix_setVad(dhduix_t* dg,int db,int hang);
+//1 when the 40ms block inx is silent and the frame can skip munet
+int dhduix_silent(dhduix_t* dg,uint64_t sessid,int inx);
 
 uint64_t dhduix_newsession(dhduix_t* dg);
 
 int dhduix_pushpcm(dhduix_t* dg,uint64_t sessid,char* buf,int size,int kind);
+int dhduix_pushfull(dhduix_t* dg,uint64_t sessid,char* buf,int size,int kind);
 int dhduix_readpcm(dhduix_t* dg,uint64_t sessid,char* pcmbuf,int pcmlen,char* bnfbuf,int bnflen);
 int dhduix_simprst(dhduix_t* dg,uint64_t sessid,uint8_t* bpic,int width,int height,int* box,uint8_t* bmsk,uint8_t* bfg,uint8_t* bnfbuf,int bnflen);
 
 int dhduix_allcnt(dhduix_t* dg,uint64_t sessid);
 int dhduix_readycnt(dhduix_t* dg,uint64_t sessid);
+//block until cnt blocks are calculated or timeoutms passes, returns the ready count,
+//-1 when a new session replaced sessid, -2 after free
+int dhduix_waitready(dhduix_t* dg,uint64_t sessid,int cnt,int timeoutms);
 int dhduix_simpinx(dhduix_t* dg,uint64_t sessid,uint8_t* bpic,int width,int height,int* box,uint8_t* bmsk,uint8_t* bfg,int bnfinx);
 int dhduix_fileinx(dhduix_t* dg,uint64_t sessid,char* fnpic,int* box,char* fnmsk,char* fnfg,int bnfinx,char* bimg,char* mskbuf,int imgsize);
+//cnt frames in one call, boxs holds 4 ints per frame, returns frames done or the first error
+//saves the per frame JNI crossings only, each frame still runs fileinx and its own munet pass
+int dhduix_filebatch(dhduix_t* dg,uint64_t sessid,int cnt,char** fnpics,int* boxs,char** fnmsks,int* bnfinxs,char** bimgs,char** mskbufs,int imgsize);
 int dhduix_simpblend(dhduix_t* dg,uint64_t sessid,uint8_t* bpic,int width,int height,uint8_t* bmsk,uint8_t* bfg);
 
 int dhduix_simppcm(dhduix_t* dg,char* buf,int size,char* pre,int presize,char* bnf,int bnfsize);
 
+//frame table of the model: picture, mask ("" none) and 4 box ints per frame, the index is the frame id
+//replaces the previous table, call before rendering, returns the count
+int dhduix_setframes(dhduix_t* dg,int cnt,char** fnpics,char** fnmsks,int* boxs);
+//the file calls above by frame id, buffers are width*height*3 of alloc
+int dhduix_frameload(dhduix_t* dg,int frameid,char* bimg,char* mskbuf,int imgsize);
+//box is the area to decode, bimg the full frame scaled down by scale
+int dhduix_frameroi(dhduix_t* dg,int frameid,int* box,int scale,char* bimg,int imgsize);
+//mskbuf NULL: bimg already holds the picture of frameid (bufrst), else as fileinx
+int dhduix_framerst(dhduix_t* dg,uint64_t sessid,int frameid,int bnfinx,char* bimg,char* mskbuf,int imgsize);
+//framerst over cnt frames, same as filebatch
+int dhduix_framebatch(dhduix_t* dg,uint64_t sessid,int cnt,int* frameids,int* bnfinxs,char** bimgs,char** mskbufs,int imgsize);
+
+//one render tick: ready count, silence check, base restore/decode and compose in one call
+//flags BASE: bimg already holds frameid, DIRTY: dirty box was changed since and is decoded again
+//playinx<0 when no audio plays; status gets DUIX_TICK_COUNT ints, returns the compose/decode result
+#define DUIX_TICK_BASE      1
+#define DUIX_TICK_DIRTY     2
+#define DUIX_TICK_READY     0
+#define DUIX_TICK_RESULT    1
+#define DUIX_TICK_LIP       2
+#define DUIX_TICK_DECODE    3
+#define DUIX_TICK_MUNET     4
+#define DUIX_TICK_BLEND     5
+#define DUIX_TICK_TOTAL     6
+#define DUIX_TICK_FULL      7
+#define DUIX_TICK_COUNT     8
+//values of status[DUIX_TICK_LIP]
+#define DUIX_TICK_IDLE      0
+#define DUIX_TICK_LIPSYNC   1
+#define DUIX_TICK_SILENT    2
+int dhduix_tick(dhduix_t* dg,uint64_t sessid,int frameid,int playinx,int flags,int* dirty,
+    char* bimg,char* mskbuf,int imgsize,int* status);
+
 
 int dhduix_finsession(dhduix_t* dg,uint64_t sessid);
 int dhduix_consession(dhduix_t* dg,uint64_t sessid);
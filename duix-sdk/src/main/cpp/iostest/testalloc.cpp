@@ -0,0 +1,139 @@
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+#include <errno.h>
+#include "jmat.h"
+#include "malpha.h"
+#include "blendgram.h"
+
+//counts heap allocations of the steady state blending path
+//premunet -> blend -> finmunet on the pooled workmat must not allocate work buffers,
+//anything of a crop or larger counts. opencv still builds small per call tables
+//(resize interpolation tabs, AutoBuffer spill), they are reported but not failed on.
+//serial run, the JPoolBackend parallel_for_ path is not covered here.
+static volatile int g_counting = 0;
+static volatile long g_allocs = 0;
+static volatile long g_bigallocs = 0;
+static size_t g_bigsize = 0;
+
+static inline void countalloc(size_t size){
+  if(!g_counting)return;
+  g_allocs++;
+  if(size>=g_bigsize)g_bigallocs++;
+}
+
+#ifdef __GLIBC__
+extern "C" {
+  void* __libc_malloc(size_t size);
+  void* __libc_calloc(size_t cnt,size_t size);
+  void* __libc_realloc(void* ptr,size_t size);
+  void* __libc_memalign(size_t align,size_t size);
+
+  void* malloc(size_t size){
+    countalloc(size);
+    return __libc_malloc(size);
+  }
+
+  void* calloc(size_t cnt,size_t size){
+    countalloc(cnt*size);
+    return __libc_calloc(cnt,size);
+  }
+
+  void* realloc(void* ptr,size_t size){
+    countalloc(size);
+    return __libc_realloc(ptr,size);
+  }
+
+  int posix_memalign(void** ptr,size_t align,size_t size){
+    countalloc(size);
+    *ptr = __libc_memalign(align,size);
+    return *ptr?0:ENOMEM;
+  }
+}
+#else
+void* operator new(size_t size){
+  countalloc(size);
+  void* ptr = malloc(size);
+  if(!ptr)throw std::bad_alloc();
+  return ptr;
+}
+
+void operator delete(void* ptr) noexcept{
+  free(ptr);
+}
+#endif
+
+static int runframe(MWorkMat* wmat,JMat* pic,JMat* msk,JMat* weight,JMat* out,JMat* fg,const int* box){
+  int rst = wmat->reset(pic,msk,box);
+  if(rst)return rst;
+  wmat->premunet();
+  JMat* mpic = NULL;
+  JMat* mmsk = NULL;
+  wmat->munet(&mpic,&mmsk);
+  //stands in for the munet output
+  BlendGramAlpha(out->udata(),weight->udata(),mpic->udata(),mpic->width(),mpic->height());
+  wmat->finmunet(fg?fg:pic);
+  return 0;
+}
+
+int main(int argc,char** argv){
+  int width = 540;
+  int height = 960;
+  int kind = argc>1?atoi(argv[1]):168;
+  int loops = argc>2?atoi(argv[2]):200;
+  int adjw = kind==128?128:160;
+  int srcw = kind==128?134:168;
+  g_bigsize = srcw*srcw;
+  //single thread so worker pools don't show up in the count
+  cv::setNumThreads(0);
+
+  JMat* pic = new JMat(width,height,3,0,1);
+  uint8_t* pb = pic->udata();
+  for(int k=0;k<width*height*3;k++)pb[k] = (k*7)&0xff;
+  JMat* weight = new JMat(adjw,adjw,1,0,1);
+  weight->zeros(128);
+  JMat* out = new JMat(adjw,adjw,3,0,1);
+  out->zeros(64);
+  JMat* msk = new JMat(width,height,3,0,1);
+  msk->zeros(200);
+  //rgba crop output of the fg path
+  JMat* fg = new JMat(srcw,srcw,4,0,1);
+  //boxes drift a little between frames like the real bbox list
+  int boxs[3][4] = {{170,382,382,592},{168,380,386,598},{174,386,380,590}};
+
+  MWorkMat* wmat = new MWorkMat(kind,width,height);
+  //largest box of the table, as dhduix_setframes does
+  wmat->reserve(218,218);
+  for(int k=0;k<3;k++){
+    if(runframe(wmat,pic,NULL,weight,out,NULL,boxs[k])||runframe(wmat,pic,msk,weight,out,fg,boxs[k])){
+      printf("===reset failed\n");
+      return -1;
+    }
+  }
+
+  long allocs[2];
+  long bigallocs[2];
+  for(int m=0;m<2;m++){
+    g_allocs = 0;
+    g_bigallocs = 0;
+    g_counting = 1;
+    for(int k=0;k<loops;k++){
+      if(m)runframe(wmat,pic,msk,weight,out,fg,boxs[k%3]);
+      else runframe(wmat,pic,NULL,weight,out,NULL,boxs[k%3]);
+    }
+    g_counting = 0;
+    allocs[m] = g_allocs;
+    bigallocs[m] = g_bigallocs;
+  }
+
+  delete wmat;
+  delete fg;
+  delete msk;
+  delete out;
+  delete weight;
+  delete pic;
+  int fail = bigallocs[0]||bigallocs[1];
+  printf("===kind %d frames %d pic allocs %ld buffers %ld fg allocs %ld buffers %ld %s\n",kind,loops,
+      allocs[0],bigallocs[0],allocs[1],bigallocs[1],fail?"FAIL":"OK");
+  return fail?1:0;
+}
@@ -0,0 +1,109 @@
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+#include <stdint.h>
+#include <time.h>
+#include "blendgram.h"
+
+//vector blends against the scalar references, bit for bit, then Mpix/s per level
+//a 256x256 image of one mask value each row walks every (mask,dst,src) triple
+static uint64_t usstamp(){
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC,&ts);
+  return ts.tv_sec*1000000ull + ts.tv_nsec/1000;
+}
+
+typedef void (*blendfn)(uchar*,uchar*,uchar*,int,int);
+
+static const char* g_names[] = {"scalar","neon","ssse3","avx2"};
+
+static int checkone(const char* name,blendfn fn,blendfn ref,int maskch,int width,int height,int full){
+  int pixels = width*height;
+  uchar* src = (uchar*)malloc(pixels*3);
+  uchar* dst = (uchar*)malloc(pixels*3);
+  uchar* out = (uchar*)malloc(pixels*3);
+  uchar* mask = (uchar*)malloc(pixels*maskch);
+  int bad = 0;
+  int rounds = full?256:1;
+  for(int r=0;r<rounds;r++){
+    for(int k=0;k<pixels;k++){
+      int m = full?r:rand()&255;
+      for(int c=0;c<maskch;c++)mask[k*maskch+c] = full&&c?rand()&255:m;
+      for(int c=0;c<3;c++){
+        //full pass: pixel k carries dst=k>>8 src=k&255 on one channel, rotated over the three
+        dst[k*3+c] = full?((c==r%3)?(k>>8):rand()):rand();
+        src[k*3+c] = full?((c==r%3)?(k&255):rand()):rand();
+      }
+    }
+    memcpy(out,dst,pixels*3);
+    ref(src,mask,dst,width,height);
+    fn(src,mask,out,width,height);
+    for(int k=0;k<pixels*3;k++){
+      if(dst[k]!=out[k]){
+        if(bad<4)printf("===%s %dx%d mismatch at %d ref %u got %u\n",name,width,height,k,dst[k],out[k]);
+        bad++;
+      }
+    }
+  }
+  free(src);
+  free(dst);
+  free(out);
+  free(mask);
+  return bad;
+}
+
+static int checkall(const char* name,blendfn fn,blendfn ref,int maskch){
+  int bad = checkone(name,fn,ref,maskch,256,256,1);
+  //odd sizes run the scalar tails
+  int sizes[][2] = {{1,1},{15,1},{17,3},{31,7},{33,5},{160,160},{163,97}};
+  for(size_t k=0;k<sizeof(sizes)/sizeof(sizes[0]);k++){
+    bad += checkone(name,fn,ref,maskch,sizes[k][0],sizes[k][1],0);
+  }
+  return bad;
+}
+
+static double bench(blendfn fn,int maskch,int width,int height,int loops){
+  int pixels = width*height;
+  uchar* src = (uchar*)malloc(pixels*3);
+  uchar* dst = (uchar*)malloc(pixels*3);
+  uchar* mask = (uchar*)malloc(pixels*maskch);
+  for(int k=0;k<pixels*3;k++){
+    src[k] = rand();
+    dst[k] = rand();
+  }
+  for(int k=0;k<pixels*maskch;k++)mask[k] = rand();
+  fn(src,mask,dst,width,height);
+  uint64_t tick = usstamp();
+  for(int k=0;k<loops;k++)fn(src,mask,dst,width,height);
+  uint64_t cost = usstamp()-tick;
+  free(src);
+  free(dst);
+  free(mask);
+  return cost?(double)pixels*loops/cost:0;
+}
+
+int main(int argc,char** argv){
+  int width = argc>1?atoi(argv[1]):160;
+  int loops = argc>2?atoi(argv[2]):2000;
+  int best = BlendGramLevel(BLEND_LEVEL_AUTO);
+  printf("===best level %s frame %dx%d loops %d\n",g_names[best],width,width,loops);
+  int bad = 0;
+  double base[3] = {0,0,0};
+  for(int level=BLEND_LEVEL_SCALAR;level<=best;level++){
+    //levels of the other architecture are capped down, skip them
+    if(BlendGramLevel(level)!=level)continue;
+    int errs = checkall("alpha",BlendGramAlpha,BlendGramAlphaRef,1);
+    errs += checkall("alpharev",BlendGramAlphaRev,BlendGramAlphaRevRef,1);
+    errs += checkall("alpha3",BlendGramAlpha3,BlendGramAlpha3Ref,3);
+    double mpix[3];
+    mpix[0] = bench(BlendGramAlpha,1,width,width,loops);
+    mpix[1] = bench(BlendGramAlphaRev,1,width,width,loops);
+    mpix[2] = bench(BlendGramAlpha3,3,width,width,loops);
+    if(level==BLEND_LEVEL_SCALAR)memcpy(base,mpix,sizeof(base));
+    printf("===%-6s alpha %7.1f Mpix/s %.2fx alpharev %7.1f Mpix/s %.2fx alpha3 %7.1f Mpix/s %.2fx %s\n",
+        g_names[level],mpix[0],mpix[0]/base[0],mpix[1],mpix[1]/base[1],mpix[2],mpix[2]/base[2],errs?"FAIL":"OK");
+    bad += errs;
+  }
+  BlendGramLevel(BLEND_LEVEL_AUTO);
+  return bad?1:0;
+}
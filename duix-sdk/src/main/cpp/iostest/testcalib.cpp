@@ -0,0 +1,200 @@
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+#include <math.h>
+#include <string>
+#include <vector>
+#include "jmat.h"
+#include "malpha.h"
+#include "munet.h"
+#include "mcalib.h"
+#include "face_utils.h"
+#include "aicommon.h"
+#include "dh_data.h"
+
+//int8 munet offline tools
+//  duixcalib table  model.param model.bin weight_168u.bin frames.txt bnfs.txt out.table [kl|absmax] [maxframes]
+//  duixcalib report model.param model.bin weight_168u.bin frames.txt bnfs.txt int8.param int8.bin [maxframes]
+//frames.txt: one frame per line, "pic.jpg x0 y0 x1 y1" from the raw frames and bbox of a model
+//bnfs.txt: one raw float32 wenet output per line, rows of 256; frame k takes the k-th 20 row window
+//table goes to: ncnn2int8 model.param model.bin int8.param int8.bin out.table
+struct CalibFrame{
+  std::string fnpic;
+  int box[4];
+};
+
+static int loadframes(const char* fnlist,std::vector<CalibFrame>& frames,int maxcnt){
+  FILE* file = fopen(fnlist,"rb");
+  if(!file)return -1;
+  char line[1024];
+  char fn[1024];
+  while(fgets(line,sizeof(line),file)){
+    CalibFrame frame;
+    if(sscanf(line,"%1023s %d %d %d %d",fn,frame.box,frame.box+1,frame.box+2,frame.box+3)!=5)continue;
+    frame.fnpic = fn;
+    frames.push_back(frame);
+    if(maxcnt&&((int)frames.size()>=maxcnt))break;
+  }
+  fclose(file);
+  return frames.size();
+}
+
+//all bnf rows back to back, windows never cross a file
+static int loadbnfs(const char* fnlist,std::vector<float>& rows,std::vector<int>& windows){
+  FILE* file = fopen(fnlist,"rb");
+  if(!file)return -1;
+  char line[1024];
+  char fn[1024];
+  while(fgets(line,sizeof(line),file)){
+    if(sscanf(line,"%1023s",fn)!=1)continue;
+    char* buf = NULL;
+    int size = dumpfile(fn,&buf);
+    int cnt = size>0?size/(STREAM_BASE_BNF*sizeof(float)):0;
+    if(cnt>=STREAM_CNT_BNF){
+      int base = rows.size()/STREAM_BASE_BNF;
+      rows.insert(rows.end(),(float*)buf,(float*)buf+cnt*STREAM_BASE_BNF);
+      for(int k=0;k+STREAM_CNT_BNF<=cnt;k++)windows.push_back(base+k);
+    }
+    if(buf)free(buf);
+  }
+  fclose(file);
+  return windows.size();
+}
+
+//face crop and masked crop munet sees for one frame
+static int cropframe(const CalibFrame& frame,int kind,JMat** ppic,JMat** pmsk){
+  JMat full;
+  if(full.loadjpg(frame.fnpic,1))return -1;
+  MWorkMat wmat(&full,NULL,frame.box,kind);
+  wmat.premunet();
+  JMat* mpic = NULL;
+  JMat* mmsk = NULL;
+  wmat.munet(&mpic,&mmsk);
+  *ppic = mpic->refclone(0);
+  *pmsk = mmsk->refclone(0);
+  return 0;
+}
+
+static double psnr(JMat* a,JMat* b){
+  uint8_t* pa = a->udata();
+  uint8_t* pb = b->udata();
+  int size = a->width()*a->height()*3;
+  double mse = 0;
+  for(int k=0;k<size;k++){
+    double d = (double)pa[k]-pb[k];
+    mse += d*d;
+  }
+  mse /= size;
+  return mse>0?10.0*log10(255.0*255.0/mse):99.0;
+}
+
+int main(int argc,char** argv){
+  if(argc<8){
+    printf("usage: %s table|report model.param model.bin weight_168u.bin frames.txt bnfs.txt ...\n",argv[0]);
+    return 1;
+  }
+  int report = !strcmp(argv[1],"report");
+  if(report&&(argc<9)){
+    printf("report needs int8.param int8.bin\n");
+    return 1;
+  }
+  char* fnparam = argv[2];
+  char* fnbin = argv[3];
+  char* fnmsk = argv[4];
+  int method = MCALIB_KL;
+  int maxframes = 0;
+  if(report){
+    maxframes = argc>9?atoi(argv[9]):0;
+  }else{
+    if((argc>8)&&!strcmp(argv[8],"absmax"))method = MCALIB_ABSMAX;
+    maxframes = argc>9?atoi(argv[9]):0;
+  }
+  int kind = 168;
+  int rect = 160;
+
+  std::vector<CalibFrame> frames;
+  std::vector<float> rows;
+  std::vector<int> windows;
+  if(loadframes(argv[5],frames,maxframes)<1){
+    printf("===no frames in %s\n",argv[5]);
+    return 1;
+  }
+  if(loadbnfs(argv[6],rows,windows)<1){
+    printf("===no bnf windows in %s\n",argv[6]);
+    return 1;
+  }
+  printf("===frames %d bnf windows %d\n",(int)frames.size(),(int)windows.size());
+  Mobunet* fp32 = new Mobunet(fnbin,fnparam,fnmsk,20,0,0);
+  if(!fp32->inited())return 1;
+
+  if(!report){
+    MunetCalib calib;
+    if(calib.init(fp32->net(),fnparam,fnbin))return 1;
+    int passes = method==MCALIB_KL?2:1;
+    for(int pass=0;pass<passes;pass++){
+      if(pass)calib.nextpass();
+      for(size_t k=0;k<frames.size();k++){
+        JMat* pic = NULL;
+        JMat* msk = NULL;
+        if(cropframe(frames[k],kind,&pic,&msk))continue;
+        JMat feat(STREAM_CNT_BNF,STREAM_BASE_BNF,rows.data()+windows[k%windows.size()]*STREAM_BASE_BNF,1);
+        int rst = calib.observe(fp32,pic,msk,&feat,rect);
+        delete pic;
+        delete msk;
+        if(rst){
+          printf("===observe %s failed %d\n",frames[k].fnpic.c_str(),rst);
+          return 1;
+        }
+      }
+      printf("===pass %d done\n",pass);
+    }
+    int rst = calib.save(argv[7],method);
+    delete fp32;
+    return rst?1:0;
+  }
+
+  Mobunet* int8 = new Mobunet(argv[8],argv[7],fnmsk,20,0,1);
+  if(!int8->inited())return 1;
+  double sum = 0;
+  double worst = 99;
+  uint64_t cost32 = 0;
+  uint64_t cost8 = 0;
+  int cnt = 0;
+  for(size_t k=0;k<frames.size();k++){
+    JMat* pic = NULL;
+    JMat* msk = NULL;
+    if(cropframe(frames[k],kind,&pic,&msk))continue;
+    JMat* pic8 = pic->refclone(0);
+    JMat feat(STREAM_CNT_BNF,STREAM_BASE_BNF,rows.data()+windows[k%windows.size()]*STREAM_BASE_BNF,1);
+    uint64_t ticka = jtimer_msstamp();
+    fp32->domodel(pic,msk,&feat,rect);
+    uint64_t tickb = jtimer_msstamp();
+    int8->domodel(pic8,msk,&feat,rect);
+    uint64_t tickc = jtimer_msstamp();
+    //first frame warms the pools
+    if(cnt){
+      cost32 += tickb-ticka;
+      cost8 += tickc-tickb;
+    }
+    double db = psnr(pic,pic8);
+    sum += db;
+    if(db<worst)worst = db;
+    cnt++;
+    delete pic;
+    delete pic8;
+    delete msk;
+  }
+  if(cnt<2){
+    printf("===not enough frames\n");
+    return 1;
+  }
+  double ms32 = (double)cost32/(cnt-1);
+  double ms8 = (double)cost8/(cnt-1);
+  printf("===frames %d\n",cnt);
+  printf("===fp32 %.2f ms per frame\n",ms32);
+  printf("===int8 %.2f ms per frame speedup %.2fx\n",ms8,ms8>0?ms32/ms8:0);
+  printf("===psnr int8 vs fp32 avg %.2f db worst %.2f db\n",sum/cnt,worst);
+  delete int8;
+  delete fp32;
+  return 0;
+}
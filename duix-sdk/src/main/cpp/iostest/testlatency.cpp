@@ -0,0 +1,76 @@
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <unistd.h>
+#include "gjsimp.h"
+#include "dh_data.h"
+
+//push-to-readycnt latency of the calc worker
+//each round pushes one maxblock chunk after an idle gap and waits until readycnt grows
+static uint64_t usstamp(){
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC,&ts);
+  return ts.tv_sec*1000000ull + ts.tv_nsec/1000;
+}
+
+int main(int argc,char** argv){
+  char* fnwenet = argc>1?argv[1]:(char*)"model/wenet.onnx";
+  int rounds = argc>2?atoi(argv[2]):20;
+  int idlems = argc>3?atoi(argv[3]):300;
+  int maxblock = 50;
+  dhduix_t* dg = NULL;
+  //large mincalc, nobody reads in this test
+  dhduix_alloc(&dg,1000,540,960);
+  dhduix_initPcmex(dg,0,10,20,maxblock,0);
+  if(dhduix_initWenet(dg,fnwenet)){
+    printf("===init wenet failed %s\n",fnwenet);
+    return -1;
+  }
+
+  int chunk = 1280*maxblock;
+  short* pcm = (short*)malloc(chunk);
+  int samples = chunk/2;
+  for(int k=0;k<samples;k++){
+    pcm[k] = (short)(8000*sin(k*0.05)+(rand()%2000)-1000);
+  }
+
+  uint64_t sessid = dhduix_newsession(dg);
+  //first chunk runs inline in pushpcm
+  dhduix_pushpcm(dg,sessid,(char*)pcm,chunk,0);
+  uint64_t sum = 0;
+  uint64_t maxus = 0;
+  uint64_t minus = (uint64_t)-1;
+  int done = 0;
+  for(int k=0;k<rounds;k++){
+    jtimer_mssleep(idlems);
+    int before = dhduix_readycnt(dg,sessid);
+    uint64_t ticka = usstamp();
+    dhduix_pushpcm(dg,sessid,(char*)pcm,chunk,0);
+    int ready = before;
+    while(ready<=before){
+      if(usstamp()-ticka>5000000)break;
+      usleep(200);
+      ready = dhduix_readycnt(dg,sessid);
+    }
+    uint64_t dist = usstamp()-ticka;
+    if(ready<=before){
+      printf("===round %d timeout\n",k);
+      continue;
+    }
+    sum += dist;
+    if(dist>maxus)maxus = dist;
+    if(dist<minus)minus = dist;
+    done++;
+    printf("===round %d ready %d latency %.2f ms\n",k,ready,dist/1000.0);
+  }
+  dhduix_finsession(dg,sessid);
+  if(done){
+    printf("===latency rounds %d min %.2f avg %.2f max %.2f ms\n",done,
+        minus/1000.0,sum/1000.0/done,maxus/1000.0);
+  }
+  dhduix_free(dg);
+  free(pcm);
+  return done==rounds?0:1;
+}
@@ -0,0 +1,61 @@
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+#include <math.h>
+#include <stdint.h>
+#include <time.h>
+#include "mfcc/mfcc.hpp"
+#include "mfcc/melfast.hpp"
+
+//log-mel cost per second of audio, old cv::Mat path against the float engine
+//the input matches one calc worker chunk, maxblock plus the fill blocks on both sides
+static uint64_t usstamp(){
+  struct timespec ts;
+  clock_gettime(CLOCK_MONOTONIC,&ts);
+  return ts.tv_sec*1000000ull + ts.tv_nsec/1000;
+}
+
+typedef int (*melfn)(float*,int,int,float*);
+
+static double runbench(melfn fn,float* wav,int samples,float* mel,int loops){
+  //first call builds the tables
+  fn(wav,samples,16000,mel);
+  uint64_t tick = usstamp();
+  for(int k=0;k<loops;k++){
+    fn(wav,samples,16000,mel);
+  }
+  double seconds = (double)samples*loops/16000;
+  return (usstamp()-tick)/1000.0/seconds;
+}
+
+int main(int argc,char** argv){
+  int blocks = argc>1?atoi(argv[1]):50;
+  int loops = argc>2?atoi(argv[2]):50;
+  //pcm block is 40ms, 10 fill blocks on each side
+  int samples = (blocks+20)*640;
+  int frames = samples/160+1;
+  float* wav = (float*)malloc(samples*sizeof(float));
+  for(int k=0;k<samples;k++){
+    wav[k] = 0.3f*sinf(k*0.05f)+0.1f*sinf(k*0.731f)+((rand()%2000)-1000)/20000.0f;
+  }
+  float* melold = (float*)malloc(frames*80*sizeof(float));
+  float* melnew = (float*)malloc(frames*80*sizeof(float));
+
+  double oldms = runbench(log_mel,wav,samples,melold,loops);
+  double newms = runbench(log_mel_fast,wav,samples,melnew,loops);
+
+  float maxdiff = 0;
+  for(int k=0;k<frames*80;k++){
+    float diff = fabsf(melold[k]-melnew[k]);
+    if(diff>maxdiff)maxdiff = diff;
+  }
+  printf("===samples %d frames %d loops %d\n",samples,frames,loops);
+  printf("===log_mel      %.3f ms per audio second\n",oldms);
+  printf("===log_mel_fast %.3f ms per audio second speedup %.2fx\n",newms,oldms/newms);
+  //float sums against the double filterbank, a few hundredths of a dB at most
+  printf("===max diff %.5f db %s\n",maxdiff,maxdiff<0.05f?"OK":"FAIL");
+  free(wav);
+  free(melold);
+  free(melnew);
+  return maxdiff<0.05f?0:1;
+}
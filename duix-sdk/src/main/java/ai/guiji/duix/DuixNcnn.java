@@ -6,24 +6,88 @@ public class DuixNcnn
     public native int free(int taskid);
     public native int initPcmex(int maxsize,int minoff,int minblock,int maxblock,int rgb);
     public native int initWenet(String fnwenet);
+    // 指定wenet后端(见WenetOptions.BACKEND_*)，-1为测速后取最快的，返回实际使用的后端
+    public native int initWenetex(String fnwenet,int backend);
+    // 在固定的mel块上测各后端的耗时，costs[k]为每次推理的微秒数(不可用为-1)，返回最快的后端
+    public native int benchWenet(String fnwenet,int rounds,int[] costs);
+    // wenet的onnxruntime参数，需在initWenet之前调用，flags见WenetOptions
+    public native int initOrt(int intra,int inter,int optlevel,int flags);
     public native int initMunet(String fnparam,String fnbin,String fnmask);
     public native int initMunetex(String fnparam,String fnbin,String fnmask, int kind);
+    // int8为1时加载ncnn2int8量化后的模型，文件加载失败返回-1(原模型保持不变)
+    public native int initMunetq(String fnparam,String fnbin,String fnmask, int kind, int int8);
+    public native int initCache(String cachedir,int memcnt,int diskcnt);
+    // 解码/缩放线程池(进程内共享)，0为不开启，全部在调用线程完成
+    public native int initPool(int threads);
+    // 渲染的耗时/质量开关，每帧读取，可随时调用
+    public static final int QUALITY_FASTRESIZE = 1;
+    public native int setQuality(int flags);
+    // 口型推理的ncnn线程数，<=0为全部大核，返回实际线程数，在渲染线程两帧之间调用
+    public native int setThreads(int threads);
+    // 音频能量检测，db<0为静音阈值(dBFS)，0为关闭，hang为静音帧两侧需要的静音帧数，下一段音频生效
+    public native int setVad(int db,int hang);
+    // 第index个40ms是否静音，静音时可跳过口型推理
+    public native int silent(long sessid,int index);
 
     public native long newsession();
     public native int finsession(long sessid);
     public native int consession(long sessid);
     public native int allcnt(long sessid);
     public native int readycnt(long sessid);
+    // 阻塞到前cnt个40ms的特征算完或超时(毫秒)，返回已就绪数，会话被新会话替换时返回-1，不要在渲染线程调用
+    public native int waitready(long sessid,int cnt,int timeout);
     public native int pushpcm(long sessid,byte[] arrbuf,int size, int kind);
+    public native int pushfull(long sessid,byte[] arrbuf,int size, int kind);
 
     public native int filerst(long sessid,String picfn,String mskfn,
         int[] arrbox,String fgpic,int index, byte[] arrimg,byte[] arrmsk,int imgsize);
 
     public native int bufrst(long sessid, int[] arrbox,int index, byte[] arrimg,int imgsize);
 
+    // 一次JNI调用处理多帧，arrbox每帧4个值，返回完成的帧数
+    // 只省去逐帧的JNI往返，native里每帧仍单独走filerst和一次munet推理
+    public native int filebatch(long sessid,String[] picfns,String[] mskfns,
+        int[] arrbox,int[] indexes, byte[][] arrimgs,byte[][] arrmsks,int imgsize);
+
     public native int fileload(String picfn,String mskfn,int width,int height,
          byte[] arrpic,byte[] arrmsk,int imgsize);
 
+    // 只解码rect区域(按MCU对齐)到已有的整帧arrpic中，scale为1/2/4/8缩小倍数，arrpic是缩小后的整帧
+    public native int fileroi(String picfn,int[] rect,int scale,int width,int height,
+         byte[] arrpic,int imgsize);
+
+    // 上传模型的帧表(底图、mask、每帧4个box值)，数组下标即帧id，之后逐帧调用只传帧id
+    public native int setframes(String[] picfns,String[] mskfns,int[] arrbox);
+    // 同fileload，arrmsk为null时不解码mask
+    public native int frameload(int frameid,byte[] arrpic,byte[] arrmsk,int imgsize);
+    // 同fileroi，宽高按alloc的尺寸和scale计算
+    public native int frameroi(int frameid,int[] rect,int scale,byte[] arrpic,int imgsize);
+    // arrmsk为null时同bufrst(arrimg已是该帧底图)，否则同filerst
+    public native int framerst(long sessid,int frameid,int index,byte[] arrimg,byte[] arrmsk,int imgsize);
+    // 同filebatch，按帧id逐帧走framerst
+    public native int framebatch(long sessid,int[] frameids,int[] indexes,byte[][] arrimgs,byte[][] arrmsks,int imgsize);
+
+    // 一次渲染节拍：就绪数、静音判断、底图恢复/解码和口型合成，playinx<0表示没有播放音频
+    // flags: TICK_BASE arrimg已是该帧底图，TICK_DIRTY同时重新解码arrdirty区域
+    // arrstatus至少TICK_COUNT个，返回合成/解码结果
+    public static final int TICK_BASE = 1;
+    public static final int TICK_DIRTY = 2;
+    public static final int TICK_READY = 0;
+    public static final int TICK_RESULT = 1;
+    public static final int TICK_LIP = 2;
+    public static final int TICK_DECODE = 3;
+    public static final int TICK_MUNET = 4;
+    public static final int TICK_BLEND = 5;
+    public static final int TICK_TOTAL = 6;
+    public static final int TICK_FULL = 7;
+    public static final int TICK_COUNT = 8;
+    // arrstatus[TICK_LIP]的取值
+    public static final int TICK_IDLE = 0;
+    public static final int TICK_LIPSYNC = 1;
+    public static final int TICK_SILENT = 2;
+    public native int tick(long sessid,int frameid,int playinx,int flags,int[] arrdirty,
+        byte[] arrimg,byte[] arrmsk,int imgsize,int[] arrstatus);
+
     public native int startgpg(String picfn,String gpgfn);
     public native int stopgpg();
     public native int processmd5(int kind,String infn,String outfn);
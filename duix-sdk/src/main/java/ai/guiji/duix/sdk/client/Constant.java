@@ -14,6 +14,10 @@ public class Constant {
     public static final String CALLBACK_EVENT_AUDIO_PLAY_ERROR = "play.error";
     public static final String CALLBACK_EVENT_MOTION_START = "motion.start";
     public static final String CALLBACK_EVENT_MOTION_END = "motion.end";
+    public static final String CALLBACK_EVENT_CLIP_READY = "clip.ready";
+    public static final String CALLBACK_EVENT_CLIP_ERROR = "clip.error";
+    public static final String CALLBACK_EVENT_EXPORT_DONE = "export.done";
+    public static final String CALLBACK_EVENT_EXPORT_ERROR = "export.error";
 
 
     public static final String BASE_DOWNLOAD_URL = "https://github.com/GuijiAI/duix.ai/releases/download/v1.0.0/gj_dh_res.zip"; // 基础配置文件包
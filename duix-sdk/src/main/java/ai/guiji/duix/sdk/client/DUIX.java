@@ -6,11 +6,13 @@ import java.io.File;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import ai.guiji.duix.sdk.client.bean.WenetOptions;
 import ai.guiji.duix.sdk.client.controller.DUIXAudioController;
 import ai.guiji.duix.sdk.client.controller.DUIXInitializer;
 import ai.guiji.duix.sdk.client.controller.DUIXMotionController;
 import ai.guiji.duix.sdk.client.loader.ModelInfo;
 import ai.guiji.duix.sdk.client.render.RenderSink;
+import ai.guiji.duix.sdk.client.thread.PowerStateProvider;
 import ai.guiji.duix.sdk.client.thread.RenderThread;
 
 /**
@@ -43,6 +45,14 @@ public class DUIX {
 
     private boolean isReady;            // 准备完成的标记
     private RenderThread.Reporter reporter;
+    private WenetOptions wenetOptions;
+    private boolean munetInt8 = true;
+    private boolean adaptiveQuality = true;
+    private RenderThread.QualityListener qualityListener;
+    private boolean powerGovernor = true;
+    private boolean voiceGate = true;
+    private boolean releaseModelFrames = false;
+    private PowerStateProvider powerProvider;
 
     public DUIX(Context context, String modelName, RenderSink sink, Callback callback) {
         this.mContext = context;
@@ -154,7 +164,35 @@ public class DUIX {
                     mCallback.onEvent(Constant.CALLBACK_EVENT_MOTION_END, "", null);
                 }
             }
+
+            @Override
+            public void onClipRendered(int code, String clipPath) {
+                if (mCallback != null){
+                    if (code == 0){
+                        mCallback.onEvent(Constant.CALLBACK_EVENT_CLIP_READY, clipPath, null);
+                    } else {
+                        mCallback.onEvent(Constant.CALLBACK_EVENT_CLIP_ERROR, "clip render error code: " + code + " path: " + clipPath, null);
+                    }
+                }
+            }
+
+            @Override
+            public void onVideoExported(int code, String outputPath) {
+                if (mCallback != null){
+                    if (code == 0){
+                        mCallback.onEvent(Constant.CALLBACK_EVENT_EXPORT_DONE, outputPath, null);
+                    } else {
+                        mCallback.onEvent(Constant.CALLBACK_EVENT_EXPORT_ERROR, "export error code: " + code + " path: " + outputPath, null);
+                    }
+                }
+            }
         }, reporter);
+        mRenderThread.setWenetOptions(wenetOptions);
+        mRenderThread.setMunetInt8(munetInt8);
+        mRenderThread.setAdaptiveQuality(adaptiveQuality, qualityListener);
+        mRenderThread.setPowerGovernor(powerGovernor, powerProvider);
+        mRenderThread.setVoiceGate(voiceGate);
+        mRenderThread.setReleaseModelFrames(releaseModelFrames);
 
         // 6. 设置线程名称并启动
         mRenderThread.setName("DUIXRender-Thread");
@@ -200,6 +238,29 @@ public class DUIX {
     }
 
 
+    /**
+     * 播放一段完整的PCM音频
+     * （欢迎语等固定音频重复播放时可直接命中特征缓存）
+     * @param buffer PCM数据（16kHz, 16bit, Mono）
+     */
+    public void playPcm(byte[] buffer){
+        if (isReady) {
+            audioController.playPcm(buffer);
+        }
+    }
+
+    /**
+     * 在当前播放(和已排队)的音频之后播放一段完整的PCM音频，当前没有播放时立即播放
+     * 下一句的特征在上一句播放时提前计算，句与句之间无缝衔接，onPlayStart/onPlayEnd只在整串开始和结束时回调
+     * playPcm和stopAudio会清空排队的音频
+     * @param buffer PCM数据（16kHz, 16bit, Mono）
+     */
+    public void queuePcm(byte[] buffer){
+        if (isReady) {
+            audioController.queuePcm(buffer);
+        }
+    }
+
     /**
      * 播放WAV音频文件
      * （兼容旧的WAV文件驱动方式）
@@ -212,7 +273,42 @@ public class DUIX {
     }
 
     /**
-     * 停止音频播放
+     * 离线预渲染一段固定音频的口型片段
+     * （在单独线程渲染，实时画面不暂停；期间开始播放音频会中止渲染。完成后回调CALLBACK_EVENT_CLIP_READY/CALLBACK_EVENT_CLIP_ERROR）
+     * @param buffer PCM数据（16kHz, 16bit, Mono）
+     * @param clipPath 片段输出路径
+     */
+    public void renderClip(byte[] buffer, String clipPath){
+        if (isReady) {
+            audioController.renderClip(buffer, clipPath);
+        }
+    }
+
+    /**
+     * 播放预渲染的口型片段（不做推理）
+     * @param clipPath renderClip生成的片段路径
+     */
+    public void playClip(String clipPath){
+        if (isReady) {
+            audioController.playClip(clipPath);
+        }
+    }
+
+    /**
+     * 离线导出一段音频驱动的数字人视频（H.264 + AAC 的MP4）
+     * （全速渲染，快于实时；线程和中止规则同renderClip，完成后回调CALLBACK_EVENT_EXPORT_DONE/CALLBACK_EVENT_EXPORT_ERROR）
+     * @param buffer PCM数据（16kHz, 16bit, Mono）
+     * @param mp4Path 视频输出路径
+     */
+    public void exportVideo(byte[] buffer, String mp4Path){
+        if (isReady) {
+            audioController.exportVideo(buffer, mp4Path);
+        }
+    }
+
+    /**
+     * 停止音频播放，用于用户插话时打断播报
+     * 停止命令不排在已推送的音频后面，一帧内生效，尚未处理的推流数据和排队的音频直接丢弃
      */
     public boolean stopAudio() {
         return isReady && audioController.stopAudio();
@@ -250,6 +346,60 @@ public class DUIX {
         }
     }
 
+    /**
+     * 设置wenet(音频特征)的onnxruntime参数，在init之前调用生效
+     * @param options null表示按设备核数使用默认值
+     */
+    public void setWenetOptions(WenetOptions options){
+        this.wenetOptions = options;
+    }
+
+    /**
+     * 是否使用int8量化的口型模型，在init之前调用生效
+     * 模型目录中有量化文件(原param/bin文件名加_int8后缀)时默认使用，低端机上推理更快
+     * @param enable false时始终使用原模型
+     */
+    public void setMunetInt8(boolean enable){
+        this.munetInt8 = enable;
+    }
+
+    /**
+     * 按渲染耗时自动升降质量档位(缩放算法、帧率)，默认开启，在init之前调用生效
+     * 渲染跟不上25fps时逐档降低，耗时有余量后再逐档恢复
+     * @param listener 档位变化通知，可为null
+     */
+    public void setAdaptiveQuality(boolean enable, RenderThread.QualityListener listener){
+        this.adaptiveQuality = enable;
+        this.qualityListener = listener;
+    }
+
+    /**
+     * 音频中的静音段(句间停顿)跳过口型推理直接显示静默底图，默认开启，在init之前调用生效
+     * @param enable false时整段音频都做口型推理
+     */
+    public void setVoiceGate(boolean enable){
+        this.voiceGate = enable;
+    }
+
+    /**
+     * 模型加载后SDK只用内部的紧凑帧表，开启后清空ModelInfo各区间的frames列表以减少常驻内存，
+     * 并把模型配置的解析结果缓存下来，之后启动直接读取。默认关闭，在init之前调用生效
+     * @param release true时onInitResult返回的ModelInfo中各区间只有名字和类型
+     */
+    public void setReleaseModelFrames(boolean release){
+        this.releaseModelFrames = release;
+    }
+
+    /**
+     * 按设备温度和电量降低帧率和推理线程数，默认开启，在init之前调用生效
+     * 温度接近降频阈值、低电量或省电模式时降低口型和静默帧率，口型按降低后的帧率对齐音频
+     * @param provider 温度和电量来源，null表示读取系统状态，测试时可传入模拟实现
+     */
+    public void setPowerGovernor(boolean enable, PowerStateProvider provider){
+        this.powerGovernor = enable;
+        this.powerProvider = provider;
+    }
+
     /**
      * 设置渲染统计报告器
      * @param reporter 报告器
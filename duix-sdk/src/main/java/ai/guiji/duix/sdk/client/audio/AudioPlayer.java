@@ -28,6 +28,12 @@ public class AudioPlayer {
 
     private ByteBuffer waitNextBuffer;
 
+    // 接续播放：结束标记读到时还有接续的音频就跳过，不停止AudioTrack
+    private final Object mEndLock = new Object();
+    private int mSkipEnds;
+    private boolean mEnded = true;                          // 最后的结束标记已经播放
+    private int mTailPad;                                   // 上一段最后一帧不足40ms的字节数
+
     public AudioPlayer(AudioPlayerCallback callback, float volume){
         this.callback = callback;
         audioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, // 音频流类型
@@ -50,6 +56,9 @@ public class AudioPlayer {
 
     public void startPlay(){
         stop();
+        synchronized (mEndLock) {
+            mEnded = false;
+        }
         try {
             audioTrack.play();
             callback.onPlayStart();
@@ -65,6 +74,30 @@ public class AudioPlayer {
         mPlayQueue.clear();
         waitNextBuffer.clear();
         waitNextBuffer.position(0);
+        synchronized (mEndLock) {
+            mSkipEnds = 0;
+            mEnded = false;
+        }
+        mTailPad = 0;
+    }
+
+    /**
+     * 在已pushDone的音频后面接着推送下一段，播放不中断
+     * 上一段末尾不足40ms的部分补静音，和native会话里补齐的块对齐，口型帧序号不会错位
+     * @return 已经播放结束或已停止时返回false，需要重新pushStart和startPlay
+     */
+    public boolean pushContinue(){
+        synchronized (mEndLock) {
+            if (mEnded) {
+                return false;
+            }
+            mSkipEnds++;
+        }
+        if (mTailPad > 0) {
+            mPlayQueue.add(new AudioFrame(new byte[mTailPad], mTailPad));
+            mTailPad = 0;
+        }
+        return true;
     }
 
     public void pushData(ByteBuffer data){
@@ -92,10 +125,33 @@ public class AudioPlayer {
             waitNextBuffer.position(0);
             mPlayQueue.add(new AudioFrame(pushBytes, size));
         }
+        mTailPad = size > 0 ? bufferSize - size : 0;
         mPlayQueue.add(new AudioFrame(true));
     }
 
     public void stop() {
+        stopPlayback();
+        if (audioTrack != null) {
+            audioTrack.stop();
+        }
+    }
+
+    /**
+     * 打断播放，丢掉AudioTrack里还没播放的数据，stop会把缓冲播完
+     */
+    public void stopNow() {
+        stopPlayback();
+        if (audioTrack != null) {
+            audioTrack.pause();
+            audioTrack.flush();
+            audioTrack.stop();
+        }
+    }
+
+    private void stopPlayback() {
+        synchronized (mEndLock) {
+            mEnded = true;
+        }
         if (playbackThread != null) {
             try {
                 playbackThread.stopPlay();
@@ -105,9 +161,6 @@ public class AudioPlayer {
             }
             playbackThread = null;
         }
-        if (audioTrack != null) {
-            audioTrack.stop();
-        }
     }
 
     public void release(){
@@ -119,9 +172,17 @@ public class AudioPlayer {
     }
 
     public int getPlayIndex(){
+        return getPlayIndex(0);
+    }
+
+    /**
+     * 降帧率时一帧会显示多个40ms，取显示期间中点对应的特征帧，口型才不会整体滞后
+     * @param leadMs 相对播放位置提前的毫秒数
+     */
+    public int getPlayIndex(long leadMs){
         long framesPlayed = audioTrack.getPlaybackHeadPosition();
         int durationInMillis = (int)((framesPlayed * 1000L) / audioTrack.getSampleRate());
-        return durationInMillis / 40;
+        return (int)((durationInMillis + leadMs) / 40);
     }
 
     private class PlaybackThread extends Thread {
@@ -148,6 +209,14 @@ public class AudioPlayer {
                 AudioFrame top = mPlayQueue.poll();
                 if (top != null){
                     if (top.completeEmptyFrame){
+                        synchronized (mEndLock) {
+                            if (mSkipEnds > 0) {
+                                // 后面还有接续的音频
+                                mSkipEnds--;
+                                continue;
+                            }
+                            mEnded = true;
+                        }
                         callback.onPlayEnd();
                         stopPlay();
                         break;
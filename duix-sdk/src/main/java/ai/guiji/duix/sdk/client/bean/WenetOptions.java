@@ -0,0 +1,75 @@
+package ai.guiji.duix.sdk.client.bean;
+
+/**
+ * wenet(音频特征)的推理参数
+ *
+ * 特征提取和munet推理抢同一批CPU核，线程数和自旋按设备调整。
+ * 不同芯片上最快的推理后端不同，backend设为BACKEND_AUTO时启动测速自动选择。
+ * 需在DUIX.init之前通过DUIX.setWenetOptions设置，未设置时使用defaults()。
+ */
+public class WenetOptions {
+
+    public static final int BACKEND_AUTO = -1;          // 启动时测速选最快的，结果按机型缓存
+    public static final int BACKEND_ONNX = 0;
+    public static final int BACKEND_XNNPACK = 1;        // onnxruntime + XNNPACK，不可用时回退到BACKEND_ONNX
+    public static final int BACKEND_NNAPI = 2;          // onnxruntime + NNAPI，不可用时回退到BACKEND_ONNX
+    public static final int BACKEND_OPENVINO = 3;       // 需要编译时打开
+    public static final int BACKEND_MNN = 4;            // 需要编译时打开
+    public static final int BACKEND_COUNT = 5;
+
+    public static final int OPT_DISABLE = 0;
+    public static final int OPT_BASIC = 1;
+    public static final int OPT_EXTENDED = 2;
+    public static final int OPT_ALL = 99;
+
+    // 与native的DUIX_ORT_*一致
+    private static final int FLAG_NOPATTERN = 1;
+    private static final int FLAG_NOARENA = 2;
+    private static final int FLAG_NOSPIN = 4;
+
+    public int intraThreads = 2;
+    public int interThreads = 1;
+    public int optLevel = OPT_ALL;
+    public boolean memPattern = true;
+    public boolean memArena = true;
+    public boolean spinning = true;                     // 关闭后空闲时线程休眠，把核让给munet
+    public int backend = BACKEND_ONNX;
+
+    /**
+     * 按核数给出默认值：大核数设备wenet用2个线程，其余1个，都关闭自旋
+     */
+    public static WenetOptions defaults() {
+        WenetOptions options = new WenetOptions();
+        int cores = Runtime.getRuntime().availableProcessors();
+        options.intraThreads = cores >= 6 ? 2 : 1;
+        options.spinning = false;
+        return options;
+    }
+
+    public int flags() {
+        int flags = 0;
+        if (!memPattern) {
+            flags |= FLAG_NOPATTERN;
+        }
+        if (!memArena) {
+            flags |= FLAG_NOARENA;
+        }
+        if (!spinning) {
+            flags |= FLAG_NOSPIN;
+        }
+        return flags;
+    }
+
+    @Override
+    public String toString() {
+        return "WenetOptions{" +
+                "intraThreads=" + intraThreads +
+                ", interThreads=" + interThreads +
+                ", optLevel=" + optLevel +
+                ", memPattern=" + memPattern +
+                ", memArena=" + memArena +
+                ", spinning=" + spinning +
+                ", backend=" + backend +
+                '}';
+    }
+}
@@ -0,0 +1,138 @@
+package ai.guiji.duix.sdk.client.clip;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * 口型片段读取，格式见 {@link ClipWriter}
+ * 按帧随机读取，只在内存中保留路径表和帧偏移
+ */
+public class ClipReader implements Closeable {
+
+    public static class Frame {
+        public String picPath;
+        public String maskPath;
+        public final int[] rect = new int[4];
+        public byte[] patch = new byte[0];
+        public int patchSize;
+    }
+
+    private final RandomAccessFile file;
+    private final Inflater inflater = new Inflater();
+
+    private int width;
+    private int height;
+    private int pcmSize;
+    private String[] picPaths;
+    private String[] maskPaths;
+    private int[] offsets;
+
+    private byte[] packed = new byte[0];
+
+    public ClipReader(File clipFile) throws IOException {
+        file = new RandomAccessFile(clipFile, "r");
+        try {
+            if (file.readInt() != ClipWriter.MAGIC || file.readInt() != ClipWriter.VERSION) {
+                throw new IOException("not a clip file: " + clipFile);
+            }
+            width = file.readInt();
+            height = file.readInt();
+            pcmSize = file.readInt();
+            file.seek(file.length() - 4);
+            file.seek(file.readInt());
+            int frameCount = file.readInt();
+            int pathCount = file.readInt();
+            picPaths = new String[pathCount];
+            maskPaths = new String[pathCount];
+            for (int i = 0; i < pathCount; i++) {
+                picPaths[i] = file.readUTF();
+                maskPaths[i] = file.readUTF();
+            }
+            offsets = new int[frameCount];
+            for (int i = 0; i < frameCount; i++) {
+                offsets[i] = file.readInt();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFrameCount() {
+        return offsets.length;
+    }
+
+    public byte[] readPcm() throws IOException {
+        byte[] pcm = new byte[pcmSize];
+        file.seek(20);
+        file.readFully(pcm);
+        return pcm;
+    }
+
+    /**
+     * 读取一帧，frame中的缓冲区会被复用
+     */
+    public Frame readFrame(int index, Frame frame) throws IOException {
+        if (frame == null) {
+            frame = new Frame();
+        }
+        file.seek(offsets[index]);
+        int pathIndex = file.readInt();
+        frame.picPath = picPaths[pathIndex];
+        frame.maskPath = maskPaths[pathIndex];
+        for (int i = 0; i < 4; i++) {
+            frame.rect[i] = file.readInt();
+        }
+        int size = file.readInt();
+        int packedSize = file.readInt();
+        if (packed.length < packedSize) {
+            packed = new byte[packedSize];
+        }
+        file.readFully(packed, 0, packedSize);
+        if (frame.patch.length < size) {
+            frame.patch = new byte[size];
+        }
+        inflater.reset();
+        inflater.setInput(packed, 0, packedSize);
+        try {
+            frame.patchSize = inflater.inflate(frame.patch, 0, size);
+        } catch (DataFormatException e) {
+            throw new IOException("bad clip frame " + index, e);
+        }
+        if (frame.patchSize != size) {
+            throw new IOException("short clip frame " + index);
+        }
+        return frame;
+    }
+
+    /**
+     * 把嘴部区域贴回整帧(width * height * 3)
+     */
+    public void applyPatch(Frame frame, byte[] image) {
+        int x1 = frame.rect[0];
+        int y1 = frame.rect[1];
+        int rowSize = (frame.rect[2] - x1) * 3;
+        int rows = frame.rect[3] - y1;
+        for (int y = 0; y < rows; y++) {
+            System.arraycopy(frame.patch, y * rowSize, image, ((y1 + y) * width + x1) * 3, rowSize);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+}
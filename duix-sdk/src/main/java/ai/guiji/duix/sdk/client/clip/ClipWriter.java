@@ -0,0 +1,131 @@
+package ai.guiji.duix.sdk.client.clip;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * 口型片段写入
+ *
+ * 文件只保存整段音频和每帧嘴部区域(rect)的合成结果，底图和mask仍从模型目录读取，
+ * 回放时只需解码底图再贴回嘴部区域，不需要推理。
+ *
+ * 格式: [头][PCM][帧...][尾]，尾部记录底图路径表和每帧偏移，最后4字节是尾部的偏移
+ */
+public class ClipWriter implements Closeable {
+
+    static final int MAGIC = 0x44434C50;        // DCLP
+    static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    private final int width;
+    private final int height;
+
+    private final List<String> picPaths = new ArrayList<>();
+    private final List<String> maskPaths = new ArrayList<>();
+    private final Map<String, Integer> pathIndex = new HashMap<>();
+    private final List<Integer> offsets = new ArrayList<>();
+
+    private byte[] patch = new byte[0];
+    private byte[] packed = new byte[0];
+
+    public ClipWriter(File file, int width, int height, byte[] pcm) throws IOException {
+        this.width = width;
+        this.height = height;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(pcm.length);
+        out.write(pcm);
+    }
+
+    /**
+     * 写入一帧
+     * @param picPath 底图路径
+     * @param maskPath mask路径，没有时为空串
+     * @param rect 嘴部区域 [x1, y1, x2, y2]
+     * @param image 合成后的整帧(width * height * 3)
+     */
+    public void writeFrame(String picPath, String maskPath, int[] rect, byte[] image) throws IOException {
+        String key = picPath + "\n" + maskPath;
+        Integer index = pathIndex.get(key);
+        if (index == null) {
+            index = picPaths.size();
+            picPaths.add(picPath);
+            maskPaths.add(maskPath);
+            pathIndex.put(key, index);
+        }
+        int x1 = Math.max(0, rect[0]);
+        int y1 = Math.max(0, rect[1]);
+        int x2 = Math.min(width, rect[2]);
+        int y2 = Math.min(height, rect[3]);
+        int rowSize = Math.max(0, x2 - x1) * 3;
+        int rows = Math.max(0, y2 - y1);
+        int size = rowSize * rows;
+        if (patch.length < size) {
+            patch = new byte[size];
+            packed = new byte[size + size / 100 + 64];
+        }
+        for (int y = 0; y < rows; y++) {
+            System.arraycopy(image, ((y1 + y) * width + x1) * 3, patch, y * rowSize, rowSize);
+        }
+        deflater.reset();
+        deflater.setInput(patch, 0, size);
+        deflater.finish();
+        int packedSize = 0;
+        while (!deflater.finished()) {
+            if (packedSize == packed.length) {
+                byte[] grow = new byte[packed.length * 2 + 64];
+                System.arraycopy(packed, 0, grow, 0, packedSize);
+                packed = grow;
+            }
+            packedSize += deflater.deflate(packed, packedSize, packed.length - packedSize);
+        }
+
+        offsets.add(out.size());
+        out.writeInt(index);
+        out.writeInt(x1);
+        out.writeInt(y1);
+        out.writeInt(x2);
+        out.writeInt(y2);
+        out.writeInt(size);
+        out.writeInt(packedSize);
+        out.write(packed, 0, packedSize);
+    }
+
+    public int getFrameCount() {
+        return offsets.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            int footer = out.size();
+            out.writeInt(offsets.size());
+            out.writeInt(picPaths.size());
+            for (int i = 0; i < picPaths.size(); i++) {
+                out.writeUTF(picPaths.get(i));
+                out.writeUTF(maskPaths.get(i));
+            }
+            for (Integer offset : offsets) {
+                out.writeInt(offset);
+            }
+            out.writeInt(footer);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
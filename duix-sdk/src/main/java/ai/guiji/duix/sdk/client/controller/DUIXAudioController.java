@@ -4,6 +4,9 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.util.Arrays;
 
+import ai.guiji.duix.sdk.client.encoder.EncoderSink;
+import ai.guiji.duix.sdk.client.encoder.MediaCodecEncoder;
+import ai.guiji.duix.sdk.client.encoder.VideoEncoder;
 import ai.guiji.duix.sdk.client.thread.RenderThread;
 
 /**
@@ -12,6 +15,8 @@ import ai.guiji.duix.sdk.client.thread.RenderThread;
  * 职责：
  * - 管理PCM音频流的推送（startPush, pushPcm, stopPush）
  * - 管理WAV文件的播放（playAudio）
+ * - 预渲染口型片段及回放（renderClip, playClip）
+ * - 离线导出视频（exportVideo）
  * - 控制音频播放的停止（stopAudio）
  * - 控制音量（setVolume）
  *
@@ -67,6 +72,71 @@ public class DUIXAudioController {
         }
     }
 
+    /**
+     * 播放一段完整的PCM音频
+     * 相同内容的音频再次播放时直接使用缓存的特征驱动口型
+     * @param buffer PCM音频数据（16kHz, 16bit, Mono）
+     */
+    public void playPcm(byte[] buffer) {
+        if (renderThread != null) {
+            renderThread.playPcm(buffer.clone());
+        }
+    }
+
+    /**
+     * 在当前播放的音频之后接着播放一段完整的PCM音频
+     * 对话中逐句合成的语音依次调用，句与句之间没有停顿和口型重启
+     * @param buffer PCM音频数据（16kHz, 16bit, Mono）
+     */
+    public void queuePcm(byte[] buffer) {
+        if (renderThread != null) {
+            renderThread.queuePcm(buffer.clone());
+        }
+    }
+
+    /**
+     * 离线预渲染口型片段
+     * 适合欢迎语等固定音频，渲染一次后用playClip回放
+     * @param buffer PCM音频数据（16kHz, 16bit, Mono）
+     * @param clipPath 片段输出路径
+     */
+    public void renderClip(byte[] buffer, String clipPath) {
+        if (renderThread != null) {
+            renderThread.renderClip(buffer.clone(), clipPath);
+        }
+    }
+
+    /**
+     * 播放预渲染的口型片段
+     * @param clipPath 片段路径
+     */
+    public void playClip(String clipPath) {
+        if (renderThread != null) {
+            renderThread.playClip(clipPath);
+        }
+    }
+
+    /**
+     * 离线导出视频，使用硬件编码器
+     * @param buffer PCM音频数据（16kHz, 16bit, Mono）
+     * @param mp4Path 视频输出路径
+     */
+    public void exportVideo(byte[] buffer, String mp4Path) {
+        exportVideo(buffer, new MediaCodecEncoder(mp4Path), mp4Path);
+    }
+
+    /**
+     * 离线导出视频，使用指定的编码器
+     * @param buffer PCM音频数据（16kHz, 16bit, Mono）
+     * @param encoder 编码器，在渲染线程上调用
+     * @param outputPath 输出路径，仅用于回调
+     */
+    public void exportVideo(byte[] buffer, VideoEncoder encoder, String outputPath) {
+        if (renderThread != null) {
+            renderThread.exportVideo(buffer.clone(), new EncoderSink(encoder, 25, true), outputPath);
+        }
+    }
+
     /**
      * 停止推送PCM音频流
      */
@@ -103,10 +173,8 @@ public class DUIXAudioController {
             // 跳过44字节的WAV头，提取PCM数据
             byte[] pcmData = Arrays.copyOfRange(data, 44, data.length);
 
-            // 推送PCM数据
-            startPush();
-            pushPcm(pcmData);
-            stopPush();
+            // 整段推送PCM数据，重复的音频可命中特征缓存
+            renderThread.playPcm(pcmData);
 
             return true;
         } catch (Exception e) {
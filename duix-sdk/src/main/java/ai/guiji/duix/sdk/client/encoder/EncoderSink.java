@@ -0,0 +1,107 @@
+package ai.guiji.duix.sdk.client.encoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import ai.guiji.duix.sdk.client.bean.ImageFrame;
+import ai.guiji.duix.sdk.client.render.RenderSink;
+import ai.guiji.duix.sdk.client.util.Logger;
+
+/**
+ * 把渲染帧送进编码器的渲染管道
+ *
+ * 时间戳按帧序号计算而不是按系统时间，离线渲染时可以快于实时。
+ * 编码器在第一帧到达时按帧尺寸启动，之前送入的音频先缓存。
+ */
+public class EncoderSink implements RenderSink {
+
+    private final VideoEncoder encoder;
+    private final int fps;
+    private final boolean withAudio;
+
+    private boolean started = false;
+    private long frameCount = 0;
+    private IOException error;
+    private ByteArrayOutputStream pendingAudio;
+
+    public EncoderSink(VideoEncoder encoder, int fps, boolean withAudio) {
+        this.encoder = encoder;
+        this.fps = fps;
+        this.withAudio = withAudio;
+    }
+
+    @Override
+    public void onVideoFrame(ImageFrame imageFrame) {
+        if (error != null) {
+            return;
+        }
+        try {
+            if (!started) {
+                encoder.start(imageFrame.width, imageFrame.height, fps, withAudio);
+                started = true;
+                if (pendingAudio != null) {
+                    byte[] pcm = pendingAudio.toByteArray();
+                    pendingAudio = null;
+                    encoder.encodeAudio(pcm, 0, pcm.length);
+                }
+            }
+            encoder.encodeFrame(imageFrame, frameCount * 1000000L / fps);
+            frameCount++;
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public void onAudio(byte[] pcm, int offset, int size) {
+        if (error != null || !withAudio || size <= 0) {
+            return;
+        }
+        if (!started) {
+            if (pendingAudio == null) {
+                pendingAudio = new ByteArrayOutputStream();
+            }
+            pendingAudio.write(pcm, offset, size);
+            return;
+        }
+        try {
+            encoder.encodeAudio(pcm, offset, size);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * 结束编码，返回前释放编码器
+     * @throws IOException 编码过程中出现的第一个错误
+     */
+    public void finish() throws IOException {
+        try {
+            if (error == null && started) {
+                encoder.finish();
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            encoder.release();
+        }
+        if (error != null) {
+            throw error;
+        }
+        if (!started) {
+            throw new IOException("no frame encoded");
+        }
+    }
+
+    public IOException getError() {
+        return error;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    private void fail(IOException e) {
+        Logger.e("encoder error: " + e);
+        error = e;
+    }
+}
@@ -0,0 +1,343 @@
+package ai.guiji.duix.sdk.client.encoder;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
+import android.opengl.EGLSurface;
+import android.opengl.GLES20;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import ai.guiji.duix.sdk.client.bean.ImageFrame;
+import ai.guiji.duix.sdk.client.render.ImageDrawer;
+import ai.guiji.duix.sdk.client.util.OpenGLUtil;
+
+/**
+ * 硬件编码器，H.264/HEVC + AAC 封装为MP4
+ *
+ * 视频帧通过编码器的输入Surface用GL绘制(和DUIXRenderer同一个ImageDrawer)，不做CPU端颜色转换。
+ * EGL上下文绑定在调用start的线程上，之后的调用必须在同一线程。
+ */
+public class MediaCodecEncoder implements VideoEncoder {
+
+    public static final String MIME_AVC = MediaFormat.MIMETYPE_VIDEO_AVC;
+    public static final String MIME_HEVC = MediaFormat.MIMETYPE_VIDEO_HEVC;
+
+    private static final int SAMPLE_RATE = 16000;
+    private static final int AUDIO_BIT_RATE = 64000;
+    private static final long TIMEOUT_US = 10000;
+    private static final int MAX_DRAIN_RETRY = 500;
+    private static final int EGL_RECORDABLE_ANDROID = 0x3142;
+
+    private final String outputPath;
+    private final String mime;
+    private final int bitRate;
+
+    private int width;
+    private int height;
+    private boolean withAudio;
+
+    private MediaCodec videoCodec;
+    private MediaCodec audioCodec;
+    private MediaMuxer muxer;
+    private Surface inputSurface;
+    private int videoTrack = -1;
+    private int audioTrack = -1;
+    private boolean muxerStarted = false;
+    private final List<Sample> pendingSamples = new ArrayList<>();     // 混流器启动前的输出
+    private final MediaCodec.BufferInfo bufferInfo = new MediaCodec.BufferInfo();
+    private long audioSamples = 0;
+
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+    private ImageDrawer mImageDrawer;
+
+    public MediaCodecEncoder(String outputPath) {
+        this(outputPath, MIME_AVC, 0);
+    }
+
+    /**
+     * @param mime MIME_AVC 或 MIME_HEVC
+     * @param bitRate 码率，0为按分辨率估算
+     */
+    public MediaCodecEncoder(String outputPath, String mime, int bitRate) {
+        this.outputPath = outputPath;
+        this.mime = mime;
+        this.bitRate = bitRate;
+    }
+
+    @Override
+    public void start(int width, int height, int fps, boolean withAudio) throws IOException {
+        // 编码器要求偶数尺寸
+        this.width = width & ~1;
+        this.height = height & ~1;
+        this.withAudio = withAudio;
+        try {
+            MediaFormat format = MediaFormat.createVideoFormat(mime, this.width, this.height);
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            format.setInteger(MediaFormat.KEY_BIT_RATE, bitRate > 0 ? bitRate : this.width * this.height * fps / 8);
+            format.setInteger(MediaFormat.KEY_FRAME_RATE, fps);
+            format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+            videoCodec = MediaCodec.createEncoderByType(mime);
+            videoCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = videoCodec.createInputSurface();
+            videoCodec.start();
+
+            if (withAudio) {
+                MediaFormat audioFormat = MediaFormat.createAudioFormat(MediaFormat.MIMETYPE_AUDIO_AAC, SAMPLE_RATE, 1);
+                audioFormat.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
+                audioFormat.setInteger(MediaFormat.KEY_BIT_RATE, AUDIO_BIT_RATE);
+                audioCodec = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_AUDIO_AAC);
+                audioCodec.configure(audioFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+                audioCodec.start();
+            }
+
+            muxer = new MediaMuxer(outputPath, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            setupEgl();
+            mImageDrawer = new ImageDrawer();
+        } catch (RuntimeException e) {
+            throw new IOException("encoder start failed: " + e.getMessage(), e);
+        }
+    }
+
+    private void setupEgl() throws IOException {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY || !EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            throw new IOException("eglInitialize failed");
+        }
+        int[] configAttribs = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL_RECORDABLE_ANDROID, 1,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, configAttribs, 0, configs, 0, 1, numConfigs, 0) || numConfigs[0] <= 0) {
+            throw new IOException("eglChooseConfig failed");
+        }
+        int[] contextAttribs = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        eglContext = EGL14.eglCreateContext(eglDisplay, configs[0], EGL14.EGL_NO_CONTEXT, contextAttribs, 0);
+        if (eglContext == EGL14.EGL_NO_CONTEXT) {
+            throw new IOException("eglCreateContext failed");
+        }
+        eglSurface = EGL14.eglCreateWindowSurface(eglDisplay, configs[0], inputSurface, new int[]{EGL14.EGL_NONE}, 0);
+        if (eglSurface == EGL14.EGL_NO_SURFACE || !EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+            throw new IOException("eglMakeCurrent failed");
+        }
+    }
+
+    @Override
+    public void encodeFrame(ImageFrame frame, long ptsUs) throws IOException {
+        drain(videoCodec, true, false);
+        GLES20.glViewport(0, 0, width, height);
+        GLES20.glClearColor(0, 0, 0, 1);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        // 和DUIXRenderer一致，mask作为透明度叠加在背景上
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFuncSeparate(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA, GLES20.GL_ONE, GLES20.GL_ZERO);
+        mImageDrawer.draw(frame, OpenGLUtil.IDENTITY_MATRIX);
+        EGLExt.eglPresentationTimeANDROID(eglDisplay, eglSurface, ptsUs * 1000);
+        if (!EGL14.eglSwapBuffers(eglDisplay, eglSurface)) {
+            throw new IOException("eglSwapBuffers failed: " + EGL14.eglGetError());
+        }
+    }
+
+    @Override
+    public void encodeAudio(byte[] pcm, int offset, int size) throws IOException {
+        if (audioCodec == null) {
+            return;
+        }
+        int retry = 0;
+        while (size > 0) {
+            int index = audioCodec.dequeueInputBuffer(TIMEOUT_US);
+            if (index < 0) {
+                drain(audioCodec, false, false);
+                if (++retry > MAX_DRAIN_RETRY) {
+                    throw new IOException("audio encoder input timeout");
+                }
+                continue;
+            }
+            retry = 0;
+            ByteBuffer input = audioCodec.getInputBuffer(index);
+            input.clear();
+            int len = Math.min(size, input.remaining()) & ~1;
+            input.put(pcm, offset, len);
+            audioCodec.queueInputBuffer(index, 0, len, audioSamples * 1000000L / SAMPLE_RATE, 0);
+            audioSamples += len / 2;
+            offset += len;
+            size -= len;
+            drain(audioCodec, false, false);
+        }
+    }
+
+    @Override
+    public void finish() throws IOException {
+        videoCodec.signalEndOfInputStream();
+        drain(videoCodec, true, true);
+        if (audioCodec != null) {
+            int index = -1;
+            for (int retry = 0; index < 0 && retry < MAX_DRAIN_RETRY; retry++) {
+                index = audioCodec.dequeueInputBuffer(TIMEOUT_US);
+                if (index < 0) {
+                    drain(audioCodec, false, false);
+                }
+            }
+            if (index < 0) {
+                throw new IOException("audio encoder input timeout");
+            }
+            audioCodec.queueInputBuffer(index, 0, 0, audioSamples * 1000000L / SAMPLE_RATE, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            drain(audioCodec, false, true);
+        }
+        if (!muxerStarted) {
+            throw new IOException("muxer not started");
+        }
+        muxer.stop();
+        muxerStarted = false;
+    }
+
+    private void drain(MediaCodec codec, boolean video, boolean endOfStream) throws IOException {
+        int retry = 0;
+        while (true) {
+            int index = codec.dequeueOutputBuffer(bufferInfo, endOfStream ? TIMEOUT_US : 0);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (!endOfStream) {
+                    break;
+                }
+                if (++retry > MAX_DRAIN_RETRY) {
+                    throw new IOException((video ? "video" : "audio") + " encoder drain timeout");
+                }
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                int track = muxer.addTrack(codec.getOutputFormat());
+                if (video) {
+                    videoTrack = track;
+                } else {
+                    audioTrack = track;
+                }
+                tryStartMuxer();
+            } else if (index >= 0) {
+                ByteBuffer output = codec.getOutputBuffer(index);
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                    // 编码参数已经在输出格式里
+                    bufferInfo.size = 0;
+                }
+                if (bufferInfo.size > 0 && output != null) {
+                    output.position(bufferInfo.offset);
+                    output.limit(bufferInfo.offset + bufferInfo.size);
+                    writeSample(video, output, bufferInfo);
+                }
+                codec.releaseOutputBuffer(index, false);
+                if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private void writeSample(boolean video, ByteBuffer data, MediaCodec.BufferInfo info) {
+        if (muxerStarted) {
+            muxer.writeSampleData(video ? videoTrack : audioTrack, data, info);
+        } else {
+            byte[] copy = new byte[info.size];
+            data.get(copy);
+            pendingSamples.add(new Sample(video, copy, info.presentationTimeUs, info.flags));
+        }
+    }
+
+    private void tryStartMuxer() {
+        if (muxerStarted || videoTrack < 0 || (withAudio && audioTrack < 0)) {
+            return;
+        }
+        muxer.start();
+        muxerStarted = true;
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        for (Sample sample : pendingSamples) {
+            info.set(0, sample.data.length, sample.ptsUs, sample.flags);
+            muxer.writeSampleData(sample.video ? videoTrack : audioTrack, ByteBuffer.wrap(sample.data), info);
+        }
+        pendingSamples.clear();
+    }
+
+    @Override
+    public void release() {
+        if (mImageDrawer != null) {
+            mImageDrawer.release();
+            mImageDrawer = null;
+        }
+        if (eglDisplay != EGL14.EGL_NO_DISPLAY) {
+            EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+            if (eglSurface != EGL14.EGL_NO_SURFACE) {
+                EGL14.eglDestroySurface(eglDisplay, eglSurface);
+            }
+            if (eglContext != EGL14.EGL_NO_CONTEXT) {
+                EGL14.eglDestroyContext(eglDisplay, eglContext);
+            }
+            EGL14.eglReleaseThread();
+            EGL14.eglTerminate(eglDisplay);
+        }
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+        eglContext = EGL14.EGL_NO_CONTEXT;
+        eglSurface = EGL14.EGL_NO_SURFACE;
+        if (inputSurface != null) {
+            inputSurface.release();
+            inputSurface = null;
+        }
+        if (videoCodec != null) {
+            try {
+                videoCodec.stop();
+            } catch (IllegalStateException ignore) {
+            }
+            videoCodec.release();
+            videoCodec = null;
+        }
+        if (audioCodec != null) {
+            try {
+                audioCodec.stop();
+            } catch (IllegalStateException ignore) {
+            }
+            audioCodec.release();
+            audioCodec = null;
+        }
+        if (muxer != null) {
+            try {
+                if (muxerStarted) {
+                    muxer.stop();
+                }
+            } catch (IllegalStateException ignore) {
+            }
+            muxer.release();
+            muxer = null;
+            muxerStarted = false;
+        }
+        pendingSamples.clear();
+    }
+
+    private static class Sample {
+        final boolean video;
+        final byte[] data;
+        final long ptsUs;
+        final int flags;
+
+        Sample(boolean video, byte[] data, long ptsUs, int flags) {
+            this.video = video;
+            this.data = data;
+            this.ptsUs = ptsUs;
+            this.flags = flags;
+        }
+    }
+}
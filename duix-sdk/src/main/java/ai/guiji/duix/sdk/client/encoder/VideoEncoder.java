@@ -0,0 +1,41 @@
+package ai.guiji.duix.sdk.client.encoder;
+
+import java.io.IOException;
+
+import ai.guiji.duix.sdk.client.bean.ImageFrame;
+
+/**
+ * 视频编码器，由 {@link EncoderSink} 驱动
+ * 所有方法都在同一个线程调用，主机测试时可以替换成纯软件实现
+ */
+public interface VideoEncoder {
+
+    /**
+     * @param width 帧宽
+     * @param height 帧高
+     * @param fps 帧率
+     * @param withAudio 是否有音轨(16kHz, 16bit, Mono)
+     */
+    void start(int width, int height, int fps, boolean withAudio) throws IOException;
+
+    /**
+     * 编码一帧，rawBuffer为BGR，maskBuffer的亮度作为透明度
+     * @param ptsUs 显示时间(微秒)
+     */
+    void encodeFrame(ImageFrame frame, long ptsUs) throws IOException;
+
+    /**
+     * 编码一段PCM，时间戳按已写入的采样数连续计算
+     */
+    void encodeAudio(byte[] pcm, int offset, int size) throws IOException;
+
+    /**
+     * 写完所有数据并关闭输出
+     */
+    void finish() throws IOException;
+
+    /**
+     * 释放资源，finish失败时也要调用
+     */
+    void release();
+}
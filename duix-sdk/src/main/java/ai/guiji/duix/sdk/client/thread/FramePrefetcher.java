@@ -0,0 +1,257 @@
+package ai.guiji.duix.sdk.client.thread;
+
+import java.util.ArrayDeque;
+
+import ai.guiji.duix.DuixNcnn;
+import ai.guiji.duix.sdk.client.util.Logger;
+
+/**
+ * 帧预读
+ *
+ * 渲染线程每个节拍把播放队列最前面的几帧交给预读线程，预读线程把底图和mask解码到缓冲池，
+ * renderStep取到帧时只需拷贝，解码耗时被40ms的节拍掩盖。
+ * 播放队列被清空(立即播放动作)时调用cancel，未开始的任务直接丢弃，正在解码的结果作废。
+ * 显示用的rawBuffer会被GL线程异步读取，所以这里拷贝而不是交换缓冲区。
+ */
+class FramePrefetcher {
+
+    private static final int STATE_FREE = 0;
+    private static final int STATE_PENDING = 1;
+    private static final int STATE_DONE = 2;
+
+    private static final long TAKE_TIMEOUT = 100;           // 帧正在解码时最多等待的时间
+
+    private static class Slot {
+        int frameId = -1;
+        boolean hasMask;                                    // 该帧有mask且缓冲区要mask
+        int generation;
+        int state = STATE_FREE;
+        int rst;
+        final byte[] raw;
+        final byte[] mask;
+
+        Slot(int size, boolean hasMask) {
+            raw = new byte[size];
+            mask = hasMask ? new byte[size] : null;
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final DuixNcnn mNcnn;
+    private final FrameTable mTable;
+    private final int mSize;
+    private final Slot[] mSlots;
+    private final int[] mWindow;
+    private final ArrayDeque<Slot> mTasks = new ArrayDeque<>();
+    private int mGeneration = 0;
+    private boolean mRunning = true;
+    private final Thread mWorker;
+    private Slot mWorking;                                  // 正在解码的缓冲区
+
+    private int mHitCount = 0;
+    private int mMissCount = 0;
+
+    FramePrefetcher(DuixNcnn ncnn, FrameTable table, int width, int height, boolean hasMask, int count) {
+        mNcnn = ncnn;
+        mTable = table;
+        mSize = width * height * 3;
+        mSlots = new Slot[count];
+        mWindow = new int[count];
+        for (int i = 0; i < count; i++) {
+            mSlots[i] = new Slot(mSize, hasMask);
+        }
+        mWorker = new Thread(this::workLoop, "duix-prefetch");
+        mWorker.start();
+    }
+
+    /**
+     * 预读接下来的帧，在渲染线程取走当前帧后调用
+     * @param frameIds FrameScheduler.peek取到的帧id
+     */
+    void prefetch(int[] frameIds, int size) {
+        synchronized (mLock) {
+            int count = Math.min(size, mWindow.length);
+            System.arraycopy(frameIds, 0, mWindow, 0, count);
+            // 不在预读窗口里的帧(队列被改过)让出缓冲区
+            for (Slot slot : mSlots) {
+                if (slot.state != STATE_FREE && slot.generation == mGeneration && !inWindow(slot.frameId, count)) {
+                    dropLocked(slot);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                int frameId = mWindow[i];
+                if (findSlot(frameId) != null) {
+                    continue;
+                }
+                Slot slot = freeSlot();
+                if (slot == null) {
+                    break;
+                }
+                slot.frameId = frameId;
+                slot.hasMask = slot.mask != null && mTable.hasMask(frameId);
+                slot.generation = mGeneration;
+                slot.state = STATE_PENDING;
+                mTasks.add(slot);
+            }
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 取预读好的帧，拷贝到raw/mask
+     * @return 没有预读或者预读失败时返回false，调用方自己解码
+     */
+    boolean take(int frameId, byte[] raw, byte[] mask) {
+        synchronized (mLock) {
+            Slot slot = findSlot(frameId);
+            if (slot == null) {
+                mMissCount++;
+                return false;
+            }
+            long deadline = System.currentTimeMillis() + TAKE_TIMEOUT;
+            while (slot.state == STATE_PENDING && slot.generation == mGeneration) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                try {
+                    mLock.wait(wait);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            if (slot.state != STATE_DONE || slot.generation != mGeneration) {
+                // 超时的结果作废，解码完成后回到空闲
+                if (slot.generation == mGeneration) {
+                    dropLocked(slot);
+                }
+                mMissCount++;
+                return false;
+            }
+            boolean ok = slot.rst >= 0;
+            if (ok) {
+                System.arraycopy(slot.raw, 0, raw, 0, mSize);
+                if (slot.hasMask) {
+                    System.arraycopy(slot.mask, 0, mask, 0, mSize);
+                }
+                mHitCount++;
+            } else {
+                mMissCount++;
+            }
+            freeLocked(slot);
+            return ok;
+        }
+    }
+
+    /**
+     * 播放队列被清空时调用，丢弃全部预读
+     */
+    void cancel() {
+        synchronized (mLock) {
+            mGeneration++;
+            mTasks.clear();
+            for (Slot slot : mSlots) {
+                if (slot.state != STATE_FREE && slot != mWorking) {
+                    freeLocked(slot);
+                }
+            }
+        }
+    }
+
+    void release() {
+        synchronized (mLock) {
+            mRunning = false;
+            mTasks.clear();
+            mLock.notifyAll();
+        }
+        try {
+            mWorker.join();
+        } catch (InterruptedException ignore) {
+        }
+        Logger.d("prefetch hit: " + mHitCount + " miss: " + mMissCount);
+    }
+
+    private void workLoop() {
+        while (true) {
+            Slot slot;
+            int frameId;
+            boolean hasMask;
+            synchronized (mLock) {
+                while (mRunning && mTasks.isEmpty()) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!mRunning) {
+                    return;
+                }
+                slot = mTasks.poll();
+                if (slot.generation != mGeneration) {
+                    freeLocked(slot);
+                    continue;
+                }
+                mWorking = slot;
+                frameId = slot.frameId;
+                hasMask = slot.hasMask;
+            }
+            // 帧没有mask时native不会写mask缓冲区
+            int rst = mNcnn.frameload(frameId, slot.raw, hasMask ? slot.mask : null, mSize);
+            synchronized (mLock) {
+                mWorking = null;
+                if (slot.generation == mGeneration) {
+                    slot.rst = rst;
+                    slot.state = STATE_DONE;
+                } else {
+                    freeLocked(slot);
+                }
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    private Slot findSlot(int frameId) {
+        for (Slot slot : mSlots) {
+            if (slot.state != STATE_FREE && slot.frameId == frameId && slot.generation == mGeneration) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private Slot freeSlot() {
+        for (Slot slot : mSlots) {
+            if (slot.state == STATE_FREE) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    private boolean inWindow(int frameId, int count) {
+        for (int i = 0; i < count; i++) {
+            if (mWindow[i] == frameId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 作废一个缓冲区，正在解码的等解码结束再回到空闲
+     */
+    private void dropLocked(Slot slot) {
+        if (slot == mWorking) {
+            slot.generation = -1;
+        } else {
+            mTasks.remove(slot);
+            freeLocked(slot);
+        }
+    }
+
+    private void freeLocked(Slot slot) {
+        slot.state = STATE_FREE;
+        slot.frameId = -1;
+    }
+}
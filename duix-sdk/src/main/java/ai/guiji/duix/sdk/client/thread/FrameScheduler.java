@@ -0,0 +1,220 @@
+package ai.guiji.duix.sdk.client.thread;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 播放帧调度
+ *
+ * 用区间游标代替逐帧入队：当前区间播放完后依次播放排队的动作，没有排队时静默区间正向再反向循环。
+ * 区间只保存FrameTable中的帧id和位置标记，播放、排队和预读都不分配内存；动作按名字查表。
+ * 动作开始/结束按播放到的区间位置报告，不按帧id，共用底图的帧不会串标记。
+ * 只在渲染线程使用。
+ */
+class FrameScheduler {
+
+    private static final int PENDING_CAPACITY = 8;
+
+    private static final class Segment {
+        final String name;
+        final int[] ids;                                    // FrameTable中的帧id
+        final int[] marks;                                  // 与ids平行，见FrameTable.MARK_START
+
+        Segment(String name, int[] ids, int[] marks) {
+            this.name = name;
+            this.ids = ids;
+            this.marks = marks;
+        }
+    }
+
+    private final Segment mSilence;
+    private final Segment[] mMotions;
+    private final Map<String, Segment> mMotionNames = new HashMap<>();
+
+    // 排队的动作，环形数组
+    private Segment[] mPending = new Segment[PENDING_CAPACITY];
+    private int mPendingHead;
+    private int mPendingCount;
+
+    private Segment mCurrent;                               // 为null时在播放静默
+    private int mPos;                                       // 静默时为正反循环里的位置
+    private int mMark;                                      // 上一次next返回的帧所在位置的标记
+
+    FrameScheduler(FrameTable table) {
+        mSilence = new Segment(null, table.silence(), table.silenceMarks());
+        int count = table.motionCount();
+        mMotions = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            mMotions[i] = new Segment(table.motionName(i), table.motion(i), table.motionMarks(i));
+            if (mMotions[i].name != null) {
+                // 同名时和原来逐个比较一样取最后一个
+                mMotionNames.put(mMotions[i].name, mMotions[i]);
+            }
+        }
+    }
+
+    int motionCount() {
+        return mMotions.length;
+    }
+
+    String motionName(int index) {
+        return mMotions[index].name;
+    }
+
+    /**
+     * 打断当前区间和排队的动作，立即播放
+     * @return 没有该动作时返回false
+     */
+    boolean playNow(String name) {
+        return playNow(find(name));
+    }
+
+    boolean playNow(int index) {
+        return playNow(mMotions[index]);
+    }
+
+    /**
+     * 在当前区间(静默为一个正反循环)和已排队的动作之后播放
+     * @return 没有该动作时返回false
+     */
+    boolean enqueue(String name) {
+        return enqueue(find(name));
+    }
+
+    boolean enqueue(int index) {
+        return enqueue(mMotions[index]);
+    }
+
+    private Segment find(String name) {
+        return name != null ? mMotionNames.get(name) : null;
+    }
+
+    private boolean playNow(Segment segment) {
+        if (segment == null) {
+            return false;
+        }
+        clearPending();
+        mCurrent = segment;
+        mPos = 0;
+        return true;
+    }
+
+    private boolean enqueue(Segment segment) {
+        if (segment == null) {
+            return false;
+        }
+        if (mPendingCount == mPending.length) {
+            Segment[] grown = new Segment[mPending.length * 2];
+            for (int i = 0; i < mPendingCount; i++) {
+                grown[i] = mPending[(mPendingHead + i) % mPending.length];
+            }
+            mPending = grown;
+            mPendingHead = 0;
+        }
+        mPending[(mPendingHead + mPendingCount) % mPending.length] = segment;
+        mPendingCount++;
+        return true;
+    }
+
+    /**
+     * 清空排队，从静默的第一帧重新开始
+     */
+    void clear() {
+        clearPending();
+        mCurrent = null;
+        mPos = 0;
+        mMark = 0;
+    }
+
+    /**
+     * @return 下一帧在FrameTable中的id，模型没有任何帧时返回-1
+     */
+    int next() {
+        while (mPos >= length(mCurrent)) {
+            if (mCurrent == null && mPendingCount == 0) {
+                if (length(null) == 0) {
+                    mMark = 0;
+                    return -1;
+                }
+                // 新一轮静默循环
+                mPos = 0;
+            } else {
+                mCurrent = popPending();
+                mPos = 0;
+            }
+        }
+        int index = indexAt(mCurrent, mPos++);
+        Segment segment = mCurrent != null ? mCurrent : mSilence;
+        mMark = segment.marks[index];
+        return segment.ids[index];
+    }
+
+    /**
+     * @return 上一次next返回的帧在区间位置上的标记，见FrameTable.MARK_START
+     */
+    int mark() {
+        return mMark;
+    }
+
+    /**
+     * 不改变播放位置，取接下来的帧id
+     * @param out 接收的数组
+     * @param max 最多取的帧数
+     * @return 实际取到的帧数
+     */
+    int peek(int[] out, int max) {
+        Segment segment = mCurrent;
+        int pos = mPos;
+        int pending = 0;
+        int count = 0;
+        while (count < max) {
+            if (pos < length(segment)) {
+                out[count++] = (segment != null ? segment : mSilence).ids[indexAt(segment, pos++)];
+                continue;
+            }
+            if (segment == null && pending == mPendingCount) {
+                if (length(null) == 0) {
+                    break;
+                }
+            } else {
+                segment = pending < mPendingCount ? mPending[(mPendingHead + pending++) % mPending.length] : null;
+            }
+            pos = 0;
+        }
+        return count;
+    }
+
+    private int length(Segment segment) {
+        return segment != null ? segment.ids.length : mSilence.ids.length * 2;
+    }
+
+    /**
+     * @return 播放位置对应的区间下标，静默反向时倒着取
+     */
+    private int indexAt(Segment segment, int pos) {
+        if (segment != null) {
+            return pos;
+        }
+        int n = mSilence.ids.length;
+        return pos < n ? pos : 2 * n - 1 - pos;
+    }
+
+    private Segment popPending() {
+        if (mPendingCount == 0) {
+            return null;
+        }
+        Segment segment = mPending[mPendingHead];
+        mPending[mPendingHead] = null;
+        mPendingHead = (mPendingHead + 1) % mPending.length;
+        mPendingCount--;
+        return segment;
+    }
+
+    private void clearPending() {
+        for (int i = 0; i < mPendingCount; i++) {
+            mPending[(mPendingHead + i) % mPending.length] = null;
+        }
+        mPendingHead = 0;
+        mPendingCount = 0;
+    }
+}
@@ -0,0 +1,391 @@
+package ai.guiji.duix.sdk.client.thread;
+
+import android.text.TextUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ai.guiji.duix.DuixNcnn;
+import ai.guiji.duix.sdk.client.loader.ModelInfo;
+
+/**
+ * 模型的帧表
+ *
+ * 静默和动作区间里用到的底图按(底图, mask)去重编号，帧表在模型加载后上传给native一次，
+ * 之后逐帧调用只传帧id，不再每帧转换路径字符串；帧id也作为预读和底图复用的key。
+ *
+ * 按列存储：路径拆成模板(目录+文件名前缀、后缀)和数字编号，人脸框打包在一个int[]里，
+ * 区间保存帧id和与之平行的标记。遍历一次ModelInfo建表，
+ * 之后渲染只用帧id，不再引用ModelInfo.Frame，每帧的路径字符串只在需要时拼出。
+ *
+ * 静默和动作区间常共用底图，去重后一个帧id会出现在多个区间位置上，
+ * 所以动作开始/结束标记和动作名跟着区间位置保存，不跟帧id。
+ */
+class FrameTable {
+
+    private static final int MAX_NUMBER_DIGITS = 9;
+
+    // 区间位置的标记，低两位为开始/结束，其余为动作名下标+1
+    static final int MARK_START = 1;
+    static final int MARK_END = 2;
+    private static final int MARK_ACTION_SHIFT = 2;
+
+    // 路径模板，路径为 prefix + 编号 + suffix，编号为-1时路径就是prefix
+    private final List<String> mPrefixes = new ArrayList<>();
+    private final List<String> mSuffixes = new ArrayList<>();
+    private final Map<String, Integer> mTemplateIds = new HashMap<>();
+
+    private final int[] mPicTemplates;
+    private final int[] mPicNumbers;
+    private final int[] mMaskTemplates;                     // 没有mask时为-1
+    private final int[] mMaskNumbers;
+    private final int[] mBoxes;                             // 每帧4个值
+    private final String[] mActionNames;
+
+    // 按底图路径的编码排序，用于按路径查找
+    private long[] mSortedKeys;
+    private int[] mSortedIds;
+
+    // 区间，0为静默，之后依次为动作区间
+    private final String[] mRegionNames;
+    private final int[][] mRegionIds;
+    private final int[][] mRegionMarks;                     // 与mRegionIds平行，见MARK_START
+
+    FrameTable(ModelInfo info) {
+        List<ModelInfo.Region> regions = new ArrayList<>();
+        regions.add(info.getSilenceRegion());
+        if (info.getMotionRegions() != null) {
+            regions.addAll(info.getMotionRegions());
+        }
+        int total = 0;
+        for (ModelInfo.Region region : regions) {
+            if (region != null && region.frames != null) {
+                total += region.frames.size();
+            }
+        }
+        // 建表时的临时索引，建完即释放
+        Map<ModelInfo.Frame, Integer> frameIds = new IdentityHashMap<>(total);
+        Map<String, Integer> pathIds = new HashMap<>(total);
+        Map<String, Integer> actionIds = new HashMap<>();
+        List<String> actionNames = new ArrayList<>();
+        int[] picTemplates = new int[total];
+        int[] picNumbers = new int[total];
+        int[] maskTemplates = new int[total];
+        int[] maskNumbers = new int[total];
+        int[] boxes = new int[total * 4];
+        int[] number = new int[1];
+        int count = 0;
+        mRegionNames = new String[regions.size()];
+        mRegionIds = new int[regions.size()][];
+        mRegionMarks = new int[regions.size()][];
+        for (int r = 0; r < regions.size(); r++) {
+            ModelInfo.Region region = regions.get(r);
+            List<ModelInfo.Frame> frames = region != null && region.frames != null ? region.frames : new ArrayList<>();
+            mRegionNames[r] = region != null ? region.name : null;
+            int[] ids = new int[frames.size()];
+            int[] marks = new int[frames.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ModelInfo.Frame frame = frames.get(i);
+                Integer id = frameIds.get(frame);
+                if (id == null) {
+                    String pic = framePicPath(frame);
+                    String mask = frameMaskPath(frame);
+                    String key = pic + '\n' + mask;
+                    id = pathIds.get(key);
+                    if (id == null) {
+                        id = count++;
+                        picTemplates[id] = template(pic, number, true);
+                        picNumbers[id] = number[0];
+                        maskTemplates[id] = mask.isEmpty() ? -1 : template(mask, number, true);
+                        maskNumbers[id] = number[0];
+                        System.arraycopy(frame.rect, 0, boxes, id * 4, 4);
+                        pathIds.put(key, id);
+                    }
+                    frameIds.put(frame, id);
+                }
+                ids[i] = id;
+                int mark = (frame.startFlag ? MARK_START : 0) | (frame.endFlag ? MARK_END : 0);
+                if (frame.actionName != null) {
+                    Integer action = actionIds.get(frame.actionName);
+                    if (action == null) {
+                        action = actionNames.size();
+                        actionNames.add(frame.actionName);
+                        actionIds.put(frame.actionName, action);
+                    }
+                    mark |= (action + 1) << MARK_ACTION_SHIFT;
+                }
+                marks[i] = mark;
+            }
+            mRegionIds[r] = ids;
+            mRegionMarks[r] = marks;
+        }
+        mPicTemplates = Arrays.copyOf(picTemplates, count);
+        mPicNumbers = Arrays.copyOf(picNumbers, count);
+        mMaskTemplates = Arrays.copyOf(maskTemplates, count);
+        mMaskNumbers = Arrays.copyOf(maskNumbers, count);
+        mBoxes = Arrays.copyOf(boxes, count * 4);
+        mActionNames = actionNames.toArray(new String[0]);
+        buildLookup();
+    }
+
+    /**
+     * 从ModelIndexCache写入的索引读出
+     */
+    FrameTable(ByteBuffer in) {
+        int templates = in.getInt();
+        for (int i = 0; i < templates; i++) {
+            mPrefixes.add(ModelIndexCache.readString(in));
+            mSuffixes.add(ModelIndexCache.readString(in));
+            mTemplateIds.put(mPrefixes.get(i) + '\n' + mSuffixes.get(i), i);
+        }
+        mPicTemplates = ModelIndexCache.readInts(in);
+        mPicNumbers = ModelIndexCache.readInts(in);
+        mMaskTemplates = ModelIndexCache.readInts(in);
+        mMaskNumbers = ModelIndexCache.readInts(in);
+        mBoxes = ModelIndexCache.readInts(in);
+        int count = mPicTemplates.length;
+        if (mPicNumbers.length != count || mMaskTemplates.length != count || mMaskNumbers.length != count
+                || mBoxes.length != count * 4) {
+            throw new IllegalArgumentException("frame table columns mismatch");
+        }
+        mActionNames = new String[in.getInt()];
+        for (int i = 0; i < mActionNames.length; i++) {
+            mActionNames[i] = ModelIndexCache.readString(in);
+        }
+        int regions = in.getInt();
+        mRegionNames = new String[regions];
+        mRegionIds = new int[regions][];
+        mRegionMarks = new int[regions][];
+        for (int r = 0; r < regions; r++) {
+            mRegionNames[r] = ModelIndexCache.readString(in);
+            mRegionIds[r] = ModelIndexCache.readInts(in);
+            mRegionMarks[r] = ModelIndexCache.readInts(in);
+            if (mRegionMarks[r].length != mRegionIds[r].length) {
+                throw new IllegalArgumentException("region marks mismatch");
+            }
+            for (int id : mRegionIds[r]) {
+                if (id < 0 || id >= count) {
+                    throw new IllegalArgumentException("frame id " + id + " out of range");
+                }
+            }
+            for (int mark : mRegionMarks[r]) {
+                if ((mark >>> MARK_ACTION_SHIFT) > mActionNames.length) {
+                    throw new IllegalArgumentException("action index out of range");
+                }
+            }
+        }
+        buildLookup();
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(mPrefixes.size());
+        for (int i = 0; i < mPrefixes.size(); i++) {
+            ModelIndexCache.writeString(out, mPrefixes.get(i));
+            ModelIndexCache.writeString(out, mSuffixes.get(i));
+        }
+        ModelIndexCache.writeInts(out, mPicTemplates);
+        ModelIndexCache.writeInts(out, mPicNumbers);
+        ModelIndexCache.writeInts(out, mMaskTemplates);
+        ModelIndexCache.writeInts(out, mMaskNumbers);
+        ModelIndexCache.writeInts(out, mBoxes);
+        out.writeInt(mActionNames.length);
+        for (String name : mActionNames) {
+            ModelIndexCache.writeString(out, name);
+        }
+        out.writeInt(mRegionIds.length);
+        for (int r = 0; r < mRegionIds.length; r++) {
+            ModelIndexCache.writeString(out, mRegionNames[r]);
+            ModelIndexCache.writeInts(out, mRegionIds[r]);
+            ModelIndexCache.writeInts(out, mRegionMarks[r]);
+        }
+    }
+
+    private void buildLookup() {
+        int count = mPicTemplates.length;
+        long[] sorted = new long[count];
+        for (int id = 0; id < count; id++) {
+            sorted[id] = (long) mPicTemplates[id] << 32 | (mPicNumbers[id] + 1L);
+        }
+        Integer[] order = new Integer[count];
+        for (int id = 0; id < count; id++) {
+            order[id] = id;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(sorted[a], sorted[b]));
+        mSortedKeys = new long[count];
+        mSortedIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            mSortedIds[i] = order[i];
+            mSortedKeys[i] = sorted[order[i]];
+        }
+    }
+
+    private static String framePicPath(ModelInfo.Frame frame) {
+        return !TextUtils.isEmpty(frame.sgPath) ? frame.sgPath : frame.rawPath;
+    }
+
+    private static String frameMaskPath(ModelInfo.Frame frame) {
+        return !TextUtils.isEmpty(frame.maskPath) ? frame.maskPath : "";
+    }
+
+    /**
+     * 把路径拆成模板和文件名中最后一段数字，编号前导的0留在模板里，保证能原样拼回
+     * @param number 接收编号，不含数字时为-1
+     * @param create 模板不存在时是否新建
+     * @return 模板下标，不新建且模板不存在时返回-1
+     */
+    private int template(String path, int[] number, boolean create) {
+        int nameStart = path.lastIndexOf('/') + 1;
+        int end = path.length();
+        while (end > nameStart && !Character.isDigit(path.charAt(end - 1))) {
+            end--;
+        }
+        int start = end;
+        while (start > nameStart && Character.isDigit(path.charAt(start - 1))) {
+            start--;
+        }
+        while (start < end - 1 && path.charAt(start) == '0') {
+            start++;
+        }
+        String prefix;
+        String suffix;
+        if (start == end || end - start > MAX_NUMBER_DIGITS) {
+            prefix = path;
+            suffix = "";
+            number[0] = -1;
+        } else {
+            prefix = path.substring(0, start);
+            suffix = path.substring(end);
+            number[0] = Integer.parseInt(path.substring(start, end));
+        }
+        String key = prefix + '\n' + suffix;
+        Integer id = mTemplateIds.get(key);
+        if (id == null) {
+            if (!create) {
+                return -1;
+            }
+            id = mPrefixes.size();
+            mPrefixes.add(prefix);
+            mSuffixes.add(suffix);
+            mTemplateIds.put(key, id);
+        }
+        return id;
+    }
+
+    private String path(int template, int number) {
+        if (number < 0) {
+            return mPrefixes.get(template);
+        }
+        return mPrefixes.get(template) + number + mSuffixes.get(template);
+    }
+
+    /**
+     * @return 上传的帧数，失败时返回负数
+     */
+    int upload(DuixNcnn ncnn) {
+        int count = size();
+        String[] pics = new String[count];
+        String[] masks = new String[count];
+        for (int id = 0; id < count; id++) {
+            pics[id] = picPath(id);
+            masks[id] = maskPath(id);
+        }
+        return ncnn.setframes(pics, masks, mBoxes);
+    }
+
+    int size() {
+        return mPicTemplates.length;
+    }
+
+    /**
+     * 按路径查找，用于回放片段里记录的底图，不在帧表里时返回-1
+     */
+    int find(String picPath, String maskPath) {
+        int[] number = new int[1];
+        int template = template(picPath, number, false);
+        if (template < 0) {
+            return -1;
+        }
+        long key = (long) template << 32 | (number[0] + 1L);
+        int i = Arrays.binarySearch(mSortedKeys, key);
+        if (i < 0) {
+            return -1;
+        }
+        while (i > 0 && mSortedKeys[i - 1] == key) {
+            i--;
+        }
+        for (; i < mSortedKeys.length && mSortedKeys[i] == key; i++) {
+            if (maskPath(mSortedIds[i]).equals(maskPath)) {
+                return mSortedIds[i];
+            }
+        }
+        return -1;
+    }
+
+    String picPath(int id) {
+        return path(mPicTemplates[id], mPicNumbers[id]);
+    }
+
+    String maskPath(int id) {
+        return hasMask(id) ? path(mMaskTemplates[id], mMaskNumbers[id]) : "";
+    }
+
+    boolean hasMask(int id) {
+        return mMaskTemplates[id] >= 0;
+    }
+
+    /**
+     * @return 所有帧的人脸框，帧id为i的框在[i*4, i*4+4)
+     */
+    int[] boxes() {
+        return mBoxes;
+    }
+
+    /**
+     * @param mark 区间位置的标记，见silenceMarks和motionMarks
+     */
+    String actionName(int mark) {
+        int action = mark >>> MARK_ACTION_SHIFT;
+        return action > 0 ? mActionNames[action - 1] : null;
+    }
+
+    String silenceName() {
+        return mRegionNames[0];
+    }
+
+    int[] silence() {
+        return mRegionIds[0];
+    }
+
+    int[] silenceMarks() {
+        return mRegionMarks[0];
+    }
+
+    int motionCount() {
+        return mRegionIds.length - 1;
+    }
+
+    String motionName(int index) {
+        return mRegionNames[index + 1];
+    }
+
+    /**
+     * @return 动作区间的帧id，调用方不能修改
+     */
+    int[] motion(int index) {
+        return mRegionIds[index + 1];
+    }
+
+    /**
+     * @return 动作区间各位置的标记，与motion平行，调用方不能修改
+     */
+    int[] motionMarks(int index) {
+        return mRegionMarks[index + 1];
+    }
+}
@@ -0,0 +1,249 @@
+package ai.guiji.duix.sdk.client.thread;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import ai.guiji.duix.sdk.client.loader.ModelInfo;
+import ai.guiji.duix.sdk.client.util.Logger;
+
+/**
+ * 解析后的模型索引缓存
+ *
+ * ModelInfoLoader每次初始化都要解密配置、逐帧检查文件再建帧表。首次加载后把ModelInfo的字段和
+ * FrameTable的列写成一个二进制文件，之后按模型配置的内容校验和各文件的修改时间命中，直接映射读出，
+ * 不再逐帧创建ModelInfo.Frame。配置有变化、文件损坏或解密后的模型文件不在时按未命中处理。
+ * 读出的ModelInfo区间只有名字和类型，只在开启setReleaseModelFrames时使用。
+ *
+ * 命中时不经过ModelInfoLoader的解密和md5处理，所以模型目录下每个文件的大小和修改时间都参与校验，
+ * 解密出的模型文件在写索引时记下大小和修改时间，读出时逐个比对，有变化就重新解析。
+ */
+class ModelIndexCache {
+
+    private static final int MAGIC = 0x44584958;            // "DXIX"
+    private static final int VERSION = 3;
+
+    // 参与校验的模型文件，见ModelInfoLoader
+    private static final String CONFIG_FILE = "config.j";
+    private static final String[] WATCH_FILES = {"config.j", "bbox.j", "SpecialAction.json", "raw_jpgs", "raw_sg", "pha"};
+
+    private final File mFile;
+    private final File mModelDir;
+    private final String mBaseDir;
+    private final long mKey;
+
+    private ModelInfo mInfo;
+    private FrameTable mTable;
+
+    ModelIndexCache(File cacheDir, File modelDir, String baseDir) {
+        mFile = new File(cacheDir, modelDir.getName() + ".idx");
+        mModelDir = modelDir;
+        mBaseDir = baseDir;
+        mKey = key(modelDir, baseDir);
+    }
+
+    private static long key(File modelDir, String baseDir) {
+        CRC32 crc = new CRC32();
+        ByteBuffer meta = ByteBuffer.allocate(16);
+        meta.putInt(VERSION);
+        crc.update(meta.array(), 0, 4);
+        crc.update(modelDir.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+        crc.update(baseDir.getBytes(StandardCharsets.UTF_8));
+        for (String name : WATCH_FILES) {
+            File file = new File(modelDir, name);
+            meta.clear();
+            meta.putLong(file.length()).putLong(file.lastModified());
+            crc.update(meta.array(), 0, 16);
+        }
+        // 加密的模型文件也在模型目录下，任何一个被替换都要重新解密
+        File[] files = modelDir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                crc.update(file.getName().getBytes(StandardCharsets.UTF_8));
+                meta.clear();
+                meta.putLong(file.length()).putLong(file.lastModified());
+                crc.update(meta.array(), 0, 16);
+            }
+        }
+        // 修改时间可能被拷贝工具保留，配置再按内容校验
+        File config = new File(modelDir, CONFIG_FILE);
+        if (config.isFile()) {
+            byte[] buffer = new byte[8192];
+            try (InputStream in = new FileInputStream(config)) {
+                int len;
+                while ((len = in.read(buffer)) > 0) {
+                    crc.update(buffer, 0, len);
+                }
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return 命中时返回true，之后用getInfo和getTable取结果
+     */
+    boolean load() {
+        if (mKey < 0 || !mFile.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getLong() != mKey) {
+                return false;
+            }
+            ModelInfo info = new ModelInfo();
+            info.setWidth(in.getInt());
+            info.setHeight(in.getInt());
+            info.setHasMask(in.getInt() != 0);
+            info.setModelkind(in.getInt());
+            info.setUnetbin(readString(in));
+            info.setUnetparam(readString(in));
+            info.setUnetmsk(readString(in));
+            info.setWenetfn(readString(in));
+            // 解密出的模型文件被清理或重新生成过时要重新走ModelInfoLoader
+            for (String path : modelFiles(info)) {
+                if (!matches(path, in.getLong(), in.getLong())) {
+                    return false;
+                }
+            }
+            FrameTable table = new FrameTable(in);
+            if (in.getInt() != MAGIC) {
+                throw new IllegalArgumentException("truncated");
+            }
+            // 区间只带名字，帧信息在帧表中
+            info.setSilenceRegion(new ModelInfo.Region(ModelInfo.Region.TYPE_SILENCE, table.silenceName()));
+            info.getMotionRegions().clear();
+            for (int i = 0; i < table.motionCount(); i++) {
+                info.getMotionRegions().add(new ModelInfo.Region(ModelInfo.Region.TYPE_MOTION, table.motionName(i)));
+            }
+            mInfo = info;
+            mTable = table;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            Logger.e("model index " + mFile + " invalid: " + e);
+            mFile.delete();
+            return false;
+        }
+    }
+
+    ModelInfo getInfo() {
+        return mInfo;
+    }
+
+    FrameTable getTable() {
+        return mTable;
+    }
+
+    void save(ModelInfo info, FrameTable table) {
+        // ModelInfoLoader可能在模型目录下解密出新文件，按解析完的目录重新计算
+        long key = key(mModelDir, mBaseDir);
+        if (key < 0) {
+            return;
+        }
+        File dir = mFile.getParentFile();
+        if (dir == null || !(dir.exists() || dir.mkdirs())) {
+            return;
+        }
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(key);
+            out.writeInt(info.getWidth());
+            out.writeInt(info.getHeight());
+            out.writeInt(info.isHasMask() ? 1 : 0);
+            out.writeInt(info.getModelkind());
+            writeString(out, info.getUnetbin());
+            writeString(out, info.getUnetparam());
+            writeString(out, info.getUnetmsk());
+            writeString(out, info.getWenetfn());
+            for (String path : modelFiles(info)) {
+                File file = new File(path != null ? path : "");
+                out.writeLong(file.length());
+                out.writeLong(file.lastModified());
+            }
+            table.write(out);
+            out.writeInt(MAGIC);
+        } catch (IOException e) {
+            Logger.e("model index write error: " + e);
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(mFile)) {
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * @return 渲染用到的解密后的模型文件
+     */
+    private static String[] modelFiles(ModelInfo info) {
+        return new String[]{info.getUnetbin(), info.getUnetparam(), info.getUnetmsk(), info.getWenetfn()};
+    }
+
+    // 路径为空也按未命中处理，损坏的索引不能绕过检查
+    private static boolean matches(String path, long length, long modified) {
+        if (path == null || path.isEmpty()) {
+            return false;
+        }
+        File file = new File(path);
+        return file.isFile() && file.length() == length && file.lastModified() == modified;
+    }
+
+    // 损坏的长度在分配数组前拦下
+    private static int checkLength(ByteBuffer in, int count, int size) {
+        if (count < 0 || (long) count * size > in.remaining()) {
+            throw new IllegalArgumentException("bad length " + count);
+        }
+        return count;
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) {
+            return null;
+        }
+        checkLength(in, len, 1);
+        byte[] bytes = new byte[len];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static int[] readInts(ByteBuffer in) {
+        int[] values = new int[checkLength(in, in.getInt(), 4)];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * 4);
+        return values;
+    }
+}
@@ -0,0 +1,105 @@
+package ai.guiji.duix.sdk.client.thread;
+
+/**
+ * 按设备温度和电量降低渲染负载
+ *
+ * 在系统开始降频之前主动降帧率和munet线程数：优先看温度余量预测，不支持时看温度状态，
+ * 低电量或省电模式下至少降一档。升温立即降档，降温需目标档位持续一段时间才逐档恢复。
+ * 口型帧间隔和静默帧间隔分开，静默时降得更多。
+ */
+class PowerGovernor {
+
+    // 档位0为不限制，帧间隔和QualityController的取较大值
+    private static final long[] LIP_INTERVALS = {40, 50, 66, 80};
+    private static final long[] IDLE_INTERVALS = {40, 66, 100, 125};
+    private static final int[] THREADS = {0, 2, 1, 1};      // 0为大核数
+    static final int LEVEL_COUNT = LIP_INTERVALS.length;
+
+    private static final long POLL_MS = 2000;
+    private static final int FORECAST_SECONDS = 10;
+    private static final float[] HEADROOM = {0.7f, 0.85f, 0.95f};  // 余量超过第n项时至少为n+1档
+    private static final int LOW_BATTERY = 15;
+    private static final long COOL_HOLD_MS = 30000;         // 低目标档位持续这么久才降一档
+
+    // PowerManager.THERMAL_STATUS_*
+    private static final int THERMAL_NONE = 0;
+    private static final int THERMAL_LIGHT = 1;
+    private static final int THERMAL_MODERATE = 2;
+
+    private final PowerStateProvider mProvider;
+    private int level;
+    private long pollTime;
+    private long coolSince;
+
+    PowerGovernor(PowerStateProvider provider) {
+        this.mProvider = provider;
+    }
+
+    long interval(boolean lip) {
+        return lip ? LIP_INTERVALS[level] : IDLE_INTERVALS[level];
+    }
+
+    int threads() {
+        return THREADS[level];
+    }
+
+    /**
+     * 每帧调用，内部按POLL_MS限频读取状态
+     * @param now 单调时钟(ms)
+     * @return 档位变化时返回新档位，否则返回-1
+     */
+    int update(long now) {
+        if (pollTime != 0 && now - pollTime < POLL_MS) {
+            return -1;
+        }
+        pollTime = now;
+        int target = targetLevel();
+        if (target > level) {
+            coolSince = 0;
+            level = target;
+            return level;
+        }
+        if (target == level) {
+            coolSince = 0;
+            return -1;
+        }
+        if (coolSince == 0) {
+            coolSince = now;
+            return -1;
+        }
+        if (now - coolSince < COOL_HOLD_MS) {
+            return -1;
+        }
+        // 每次只恢复一档，下一档仍需重新计时
+        coolSince = now;
+        level--;
+        return level;
+    }
+
+    private int targetLevel() {
+        int target = 0;
+        float headroom = mProvider.getThermalHeadroom(FORECAST_SECONDS);
+        if (!Float.isNaN(headroom)) {
+            while (target < HEADROOM.length && headroom >= HEADROOM[target]) {
+                target++;
+            }
+        } else {
+            int status = mProvider.getThermalStatus();
+            if (status <= THERMAL_NONE) {
+                target = 0;
+            } else if (status == THERMAL_LIGHT) {
+                target = 1;
+            } else if (status == THERMAL_MODERATE) {
+                target = 2;
+            } else {
+                target = 3;
+            }
+        }
+        int battery = mProvider.getBatteryLevel();
+        boolean lowBattery = battery >= 0 && battery <= LOW_BATTERY && !mProvider.isCharging();
+        if ((lowBattery || mProvider.isPowerSaveMode()) && target < 1) {
+            target = 1;
+        }
+        return target;
+    }
+}
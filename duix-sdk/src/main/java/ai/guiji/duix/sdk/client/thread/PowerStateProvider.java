@@ -0,0 +1,32 @@
+package ai.guiji.duix.sdk.client.thread;
+
+/**
+ * 设备温度和电量状态的来源
+ *
+ * 默认读取系统PowerManager和电池广播，可通过DUIX.setPowerGovernor替换(如测试时模拟升温)。
+ * 在渲染线程每隔几秒调用一次，实现不要阻塞。
+ */
+public interface PowerStateProvider {
+
+    int UNKNOWN = -1;
+
+    /**
+     * @return PowerManager.THERMAL_STATUS_*，系统不支持时返回UNKNOWN
+     */
+    int getThermalStatus();
+
+    /**
+     * @param forecastSeconds 预测多少秒后的状态
+     * @return 距离开始降频的余量，1.0表示开始降频，系统不支持时返回NaN
+     */
+    float getThermalHeadroom(int forecastSeconds);
+
+    /**
+     * @return 电量百分比，未知时返回UNKNOWN
+     */
+    int getBatteryLevel();
+
+    boolean isCharging();
+
+    boolean isPowerSaveMode();
+}
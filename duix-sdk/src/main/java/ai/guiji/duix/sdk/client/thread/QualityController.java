@@ -0,0 +1,80 @@
+package ai.guiji.duix.sdk.client.thread;
+
+import java.util.Arrays;
+
+/**
+ * 渲染质量自适应
+ *
+ * 按最近一段帧的渲染耗时分位数在质量档位间升降：分位数超出当前帧间隔时降一档，
+ * 长时间明显低于上一档的帧间隔时升一档。降档快、升档慢，切换后清空采样，避免在两档之间来回跳。
+ */
+class QualityController {
+
+    static final long BASE_INTERVAL = 40;                   // 25fps
+
+    // 档位从高到低，见RenderThread.QualityListener
+    private static final long[] INTERVALS = {40, 40, 50, 66};
+    private static final boolean[] FAST_RESIZE = {false, true, true, true};
+    static final int LEVEL_COUNT = INTERVALS.length;
+
+    private static final int WINDOW = 50;                   // 采样帧数，约2秒
+    private static final int PERCENTILE = 90;
+    private static final float DOWN_RATIO = 0.9f;           // 分位数超过帧间隔的90%时降档
+    private static final float UP_RATIO = 0.6f;             // 分位数低于上一档帧间隔的60%时升档
+    private static final long UP_HOLD_MS = 10000;           // 切换后至少保持这么久才升档
+
+    private final long[] samples = new long[WINDOW];
+    private final long[] sorted = new long[WINDOW];
+    private int count;
+    private int pos;
+    private int level;
+    private long changeTime;
+    private long lastPercentile;
+
+    static long interval(int level) {
+        return INTERVALS[level];
+    }
+
+    static boolean fastResize(int level) {
+        return FAST_RESIZE[level];
+    }
+
+    long getPercentile() {
+        return lastPercentile;
+    }
+
+    /**
+     * 每渲染一帧调用一次
+     * @param useTime 本帧渲染耗时(ms)
+     * @param now 单调时钟(ms)
+     * @return 档位变化时返回新档位，否则返回-1
+     */
+    int onFrame(long useTime, long now) {
+        samples[pos] = useTime;
+        pos = (pos + 1) % WINDOW;
+        if (count < WINDOW) {
+            count++;
+            return -1;
+        }
+        System.arraycopy(samples, 0, sorted, 0, WINDOW);
+        Arrays.sort(sorted);
+        long percentile = sorted[WINDOW * PERCENTILE / 100];
+        lastPercentile = percentile;
+        if (percentile > INTERVALS[level] * DOWN_RATIO && level < LEVEL_COUNT - 1) {
+            return change(level + 1, now);
+        }
+        if (level > 0 && percentile < INTERVALS[level - 1] * UP_RATIO && now - changeTime >= UP_HOLD_MS) {
+            return change(level - 1, now);
+        }
+        return -1;
+    }
+
+    private int change(int newLevel, long now) {
+        level = newLevel;
+        changeTime = now;
+        // 旧档位的耗时不代表新档位，重新采满一个窗口再判断
+        count = 0;
+        pos = 0;
+        return level;
+    }
+}
@@ -4,22 +4,27 @@ import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
-import android.text.TextUtils;
+import android.os.SystemClock;
 
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
 import java.util.Random;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
 
 import ai.guiji.duix.DuixNcnn;
 import ai.guiji.duix.sdk.client.audio.AudioPlayer;
 import ai.guiji.duix.sdk.client.bean.ImageFrame;
+import ai.guiji.duix.sdk.client.bean.WenetOptions;
+import ai.guiji.duix.sdk.client.clip.ClipReader;
+import ai.guiji.duix.sdk.client.clip.ClipWriter;
+import ai.guiji.duix.sdk.client.encoder.EncoderSink;
 import ai.guiji.duix.sdk.client.loader.ModelInfo;
 import ai.guiji.duix.sdk.client.loader.ModelInfoLoader;
 import ai.guiji.duix.sdk.client.render.RenderSink;
@@ -38,6 +43,24 @@ public class RenderThread extends Thread {
     private static final int MSG_REQUIRE_MOTION_RANDOM = 8;         // 请求随机播放一个动作区间
     private static final int MSG_START_PUSH_AUDIO = 11;             // 启动音频推送
     private static final int MSG_PUSH_AUDIO = 12;                   // 推送播放音频
+    private static final int MSG_PLAY_PCM = 13;                     // 推送一段完整音频(可命中特征缓存)
+    private static final int MSG_RENDER_CLIP = 14;                  // 离线预渲染口型片段
+    private static final int MSG_PLAY_CLIP = 15;                    // 播放预渲染的口型片段
+
+    private static final int MSG_EXPORT_VIDEO = 16;                 // 离线渲染并编码为视频
+    private static final int MSG_QUEUE_PCM = 17;                    // 当前音频之后接着播放一段音频
+    private static final int MSG_URGENT = 18;                       // 按顺序处理优先队列里的命令
+
+    private static final long CLIP_WAIT_TIMEOUT = 5000;             // 离线渲染等待wenet特征的超时
+    private static final int CLIP_WAIT_SLICE = 200;                 // 离线渲染每次在native里等待的时长，期间可被退出打断
+    private static final int PCM_FRAME_SIZE = 1280;                 // 每帧(40ms)对应的PCM字节数
+    // 接续的音频共用一个native会话，会话里每段的帧范围和每帧的静音标记随总长增长，到会话结束才释放。
+    // native没有硬性上限，这里人为把总长限制在6分钟(9000帧)内，超出后等播放结束再开新会话
+    private static final int MAX_CHAIN_FRAMES = 9000;
+    private static final int OFFLINE_BATCH = 4;                     // 离线渲染每次送进native的帧数
+    private static final int PREFETCH_COUNT = 2;                    // 预读的帧数
+    private static final int VAD_SILENCE_DB = -50;                  // 低于该能量的40ms视为静音
+    private static final int VAD_HANG = 3;                          // 静音帧前后各需要几帧静音，短停顿照常推理
 
 
     private volatile boolean isRendering = false;                     // 为false时终止线程
@@ -54,10 +77,11 @@ public class RenderThread extends Thread {
 
     private RenderSink mRenderSink;
 
-    private ConcurrentLinkedQueue<ModelInfo.Frame> mPreviewQueue;       // 播放帧
-
-    private boolean requireMotion = false;                  // 请求播放动作
-    private ModelInfo.Region prepareActionRegion;           // 准备在静默节点或动作节点播放完播放的动作区间
+    private FrameScheduler mScheduler;                      // 播放帧，模型加载后创建
+    private FrameTable mFrameTable;                         // 帧id和native帧表
+    private final int[] mLookahead = new int[PREFETCH_COUNT];
+    private final int[] mTickStatus = new int[DuixNcnn.TICK_COUNT];
+    private final Random mRandom = new Random();
 
     private ModelInfo mModelInfo;                           // 模型的全部信息都放在这里面
     private ByteBuffer rawBuffer;
@@ -67,14 +91,51 @@ public class RenderThread extends Thread {
     private AudioPlayer audioPlayer;
     private long mCurrentBnfSession = -1;
     private long mLastBnfSession = -1;
+    private boolean mPushOpen;                              // startPush之后、stopPush之前
+    private long mBargeInTime;                              // 打断请求的时间(uptime)，等待第一帧静默画面时大于0
+    private long mBargeInStopLatency;                       // 打断请求到音频停止的耗时
+    private final ArrayDeque<byte[]> mQueuedPcm = new ArrayDeque<>();   // 等待接续播放的音频
+    private final ArrayDeque<Message> mUrgent = new ArrayDeque<>();      // 优先命令，按提交顺序处理，用自身加锁
 
     private float mVolume;
 
     private int scrfRst;
     private boolean isLip = false;      // 用于统计是否正在渲染口型
+    private boolean isSpeaking = false; // 正在播放音频，包括跳过推理的静音帧
 
     private Reporter mReporter;
 
+    private ClipReader mClipReader;                         // 正在回放的预渲染片段
+    private ClipReader.Frame mClipFrame;
+    private volatile boolean mClipEnded = false;
+    private byte[][] clipRawBuffers;                        // 离线渲染用，避免覆盖正在显示的帧
+    private byte[][] clipMaskBuffers;
+    private volatile Thread mOfflineThread;                 // 正在进行的离线渲染，同一时间只有一个
+    private volatile boolean mOfflineCancel = false;        // 线程退出时中止离线渲染
+    private final Object mComposeLock = new Object();       // 口型合成共用native的推理缓冲，实时和离线互斥
+
+    private int mBaseFrameId = -1;                          // rawBuffer中的底图，除mBaseDirty区域外和原图一致
+    private final int[] mBaseDirtyRect = new int[4];
+    private boolean mBaseDirty = false;
+
+    private FramePrefetcher mPrefetcher;                    // 按播放队列提前解码后面的帧
+
+    private WenetOptions mWenetOptions;                     // 为null时使用WenetOptions.defaults()
+    private boolean mMunetInt8 = true;                      // 模型目录带有int8文件时使用量化模型
+
+    private QualityController mQuality;                     // 为null时固定25fps全质量
+    private QualityListener mQualityListener;
+    private long mQualityInterval = QualityController.BASE_INTERVAL;
+    private long mFrameInterval = QualityController.BASE_INTERVAL;  // 质量档位和功耗档位中较长的帧间隔
+    private float mFrameDebt;                               // 降帧率时累计应跳过的帧数
+
+    private boolean mPowerGovernorEnabled = true;
+    private PowerStateProvider mPowerProvider;              // 为null时读取系统状态
+    private PowerGovernor mPowerGovernor;
+
+    private boolean mVoiceGate = true;                      // 音频静音段跳过口型推理
+    private boolean mReleaseModelFrames = false;            // 建帧表后是否清空ModelInfo中的帧对象
+
     public RenderThread(Context context, File modelDir, RenderSink renderSink, float volume, RenderCallback callback, Reporter reporter) {
         this.mContext = context;
         this.modelDir = modelDir;
@@ -88,12 +149,56 @@ public class RenderThread extends Thread {
         this.mReporter = reporter;
     }
 
+    /**
+     * wenet的onnxruntime参数，需在线程启动前设置
+     */
+    public void setWenetOptions(WenetOptions options){
+        this.mWenetOptions = options;
+    }
+
+    /**
+     * 是否允许使用int8量化的munet，需在线程启动前设置
+     */
+    public void setMunetInt8(boolean enable){
+        this.mMunetInt8 = enable;
+    }
+
+    /**
+     * 是否按渲染耗时自动调整质量档位，需在线程启动前设置
+     */
+    public void setAdaptiveQuality(boolean enable, QualityListener listener){
+        this.mQuality = enable ? new QualityController() : null;
+        this.mQualityListener = listener;
+    }
+
+    /**
+     * 音频静音段是否跳过口型推理直接显示底图，需在线程启动前设置
+     */
+    public void setVoiceGate(boolean enable){
+        this.mVoiceGate = enable;
+    }
+
+    /**
+     * 建帧表后是否清空ModelInfo区间里的帧列表，清空时可以走模型索引缓存，需在线程启动前设置
+     */
+    public void setReleaseModelFrames(boolean release){
+        this.mReleaseModelFrames = release;
+    }
+
+    /**
+     * 是否按温度和电量降低帧率和推理线程数，需在线程启动前设置
+     * @param provider 状态来源，为null时读取系统状态
+     */
+    public void setPowerGovernor(boolean enable, PowerStateProvider provider){
+        this.mPowerGovernorEnabled = enable;
+        this.mPowerProvider = provider;
+    }
+
     @Override
     public void run() {
         super.run();
         Looper.prepare();
         mHandler = new RenderHandler(this);
-        mPreviewQueue = new ConcurrentLinkedQueue<>();
         audioPlayer = new AudioPlayer(new AudioPlayer.AudioPlayerCallback() {
             @Override
             public void onPlayStart() {
@@ -103,7 +208,13 @@ public class RenderThread extends Thread {
             @Override
             public void onPlayEnd() {
                 mCurrentBnfSession = -1;
+                mClipEnded = true;
                 callback.onPlayEnd();
+                Handler handler = mHandler;
+                if (handler != null) {
+                    // 排队的音频没能接上时开新会话播放
+                    handler.sendEmptyMessage(MSG_QUEUE_PCM);
+                }
             }
 
             @Override
@@ -114,18 +225,59 @@ public class RenderThread extends Thread {
 
         scrfdncnn = new DuixNcnn();
         String duixDir = mContext.getExternalFilesDir("duix").getAbsolutePath();
-        ModelInfo info = ModelInfoLoader.load(mContext, scrfdncnn, duixDir + "/model/gj_dh_res", modelDir.getAbsolutePath());
+        String baseDir = duixDir + "/model/gj_dh_res";
+        // 索引缓存只有区间名字，保留逐帧信息时由ModelInfoLoader完整解析
+        ModelIndexCache indexCache = !mReleaseModelFrames ? null : new ModelIndexCache(new File(duixDir, "cache/model"), modelDir, baseDir);
+        FrameTable frameTable = null;
+        ModelInfo info;
+        long loadStart = System.currentTimeMillis();
+        if (indexCache != null && indexCache.load()) {
+            // 命中时不经过ModelInfoLoader，它在加载时发出的启动上报这次没有
+            info = indexCache.getInfo();
+            frameTable = indexCache.getTable();
+        } else {
+            info = ModelInfoLoader.load(mContext, scrfdncnn, baseDir, modelDir.getAbsolutePath());
+        }
+        Logger.d("模型配置: " + (frameTable != null ? "索引缓存" : "解析") + " use " + (System.currentTimeMillis() - loadStart) + "ms");
         if (info != null) {
             try {
                 scrfdncnn.alloc(0, 20, info.getWidth(), info.getHeight());
                 scrfdncnn.initPcmex(0,10,20,50,0);
-                if (info.getModelkind() > 0){
+                String[] int8Files = mMunetInt8 ? int8Files(info) : null;
+                if (int8Files != null && scrfdncnn.initMunetq(int8Files[0], int8Files[1], info.getUnetmsk(), info.getModelkind(), 1) == 0) {
+                    Logger.d("munet int8: " + int8Files[0]);
+                } else if (info.getModelkind() > 0){
                     scrfdncnn.initMunetex(info.getUnetparam(), info.getUnetbin(), info .getUnetmsk(), info.getModelkind());
                 } else {
                     scrfdncnn.initMunet(info.getUnetparam(), info.getUnetbin(), info.getUnetmsk());
                 }
-                scrfdncnn.initWenet(info.getWenetfn());
+                WenetOptions wenetOptions = mWenetOptions != null ? mWenetOptions : WenetOptions.defaults();
+                Logger.d("wenet " + wenetOptions);
+                scrfdncnn.initOrt(wenetOptions.intraThreads, wenetOptions.interThreads, wenetOptions.optLevel, wenetOptions.flags());
+                int backend = WenetSelector.select(mContext, scrfdncnn, info.getWenetfn(), wenetOptions);
+                backend = scrfdncnn.initWenetex(info.getWenetfn(), backend);
+                Logger.d("wenet backend: " + backend);
+                File bnfCacheDir = new File(duixDir, "cache/bnf");
+                if (bnfCacheDir.exists() || bnfCacheDir.mkdirs()) {
+                    // 重复播放的提示语直接复用缓存的wenet特征
+                    scrfdncnn.initCache(bnfCacheDir.getAbsolutePath(), 16, 128);
+                }
+                // 多核设备上底图和mask并行解码
+                scrfdncnn.initPool(decodeThreads());
+                scrfdncnn.setVad(mVoiceGate ? VAD_SILENCE_DB : 0, VAD_HANG);
                 mModelInfo = info;
+                if (frameTable == null) {
+                    frameTable = new FrameTable(info);
+                    if (indexCache != null) {
+                        indexCache.save(info, frameTable);
+                    }
+                }
+                mFrameTable = frameTable;
+                Logger.d("帧表: " + mFrameTable.upload(scrfdncnn));
+                if (mReleaseModelFrames) {
+                    releaseFrames(info);
+                }
+                mScheduler = new FrameScheduler(mFrameTable);
                 Logger.d("分辨率: " + mModelInfo.getWidth() + "x" + mModelInfo.getHeight());
                 rawBuffer = ByteBuffer.allocate(mModelInfo.getWidth() * mModelInfo.getHeight() * 3);
                 maskBuffer = ByteBuffer.allocate(mModelInfo.getWidth() * mModelInfo.getHeight() * 3);
@@ -133,6 +285,11 @@ public class RenderThread extends Thread {
                     // 用纯白填充mask
                     Arrays.fill(maskBuffer.array(), (byte) 255);
                 }
+                mBaseFrameId = -1;
+                mPrefetcher = new FramePrefetcher(scrfdncnn, mFrameTable, mModelInfo.getWidth(), mModelInfo.getHeight(), mModelInfo.isHasMask(), PREFETCH_COUNT);
+                if (mPowerGovernorEnabled) {
+                    mPowerGovernor = new PowerGovernor(mPowerProvider != null ? mPowerProvider : new SystemPowerProvider(mContext));
+                }
                 Logger.d("模型初始化完成");
                 if (callback != null) {
                     callback.onInitResult(0, 0, mModelInfo.toString(), mModelInfo);
@@ -154,6 +311,11 @@ public class RenderThread extends Thread {
         isRendering = true;
         handleAudioStep();
         Looper.loop();
+        joinOffline();
+        if (mPrefetcher != null) {
+            mPrefetcher.release();
+            mPrefetcher = null;
+        }
         synchronized (mBnfFence) {
             // 线程最后释放NCNN
             scrfdncnn.free(0);
@@ -195,25 +357,102 @@ public class RenderThread extends Thread {
         }
     }
 
+    public void playPcm(byte[] data){
+        if (mHandler != null) {
+            Message message = new Message();
+            message.what = MSG_PLAY_PCM;
+            message.obj = data;
+            mHandler.sendMessage(message);
+        }
+    }
+
+    /**
+     * 在当前播放(和已排队)的音频之后播放一段完整音频
+     * 下一段的特征在当前段播放时就开始计算，音频和口型在40ms帧边界上无缝衔接；没有在播放时立即播放
+     */
+    public void queuePcm(byte[] data){
+        if (mHandler != null) {
+            Message message = new Message();
+            message.what = MSG_QUEUE_PCM;
+            message.obj = data;
+            mHandler.sendMessage(message);
+        }
+    }
+
+    /**
+     * 离线预渲染一段音频的口型片段，不经过AudioTrack，全速渲染后写入clipPath
+     * 在单独的线程渲染，实时画面不暂停；期间开始播放音频会中止离线渲染。结果在离线线程通过onClipRendered回调
+     */
+    public void renderClip(byte[] pcm, String clipPath){
+        if (mHandler != null) {
+            Message message = new Message();
+            message.what = MSG_RENDER_CLIP;
+            message.obj = new ClipTask(pcm, clipPath);
+            mHandler.sendMessage(message);
+        }
+    }
+
+    /**
+     * 播放预渲染的口型片段，只做底图解码和嘴部贴图，不做推理
+     */
+    public void playClip(String clipPath){
+        if (mHandler != null) {
+            Message message = new Message();
+            message.what = MSG_PLAY_CLIP;
+            message.obj = clipPath;
+            mHandler.sendMessage(message);
+        }
+    }
+
+    /**
+     * 离线渲染一段音频并送入编码器，帧时间戳按帧序号计算，不受音频时钟限制
+     * 线程和中止规则同renderClip，结果在离线线程通过onVideoExported回调，sink在回调前已结束
+     */
+    public void exportVideo(byte[] pcm, EncoderSink sink, String outputPath){
+        if (mHandler != null) {
+            Message message = new Message();
+            message.what = MSG_EXPORT_VIDEO;
+            message.obj = new ExportTask(pcm, sink, outputPath);
+            mHandler.sendMessage(message);
+        }
+    }
+
     public void stopPush() {
         if (mHandler != null) {
             mHandler.sendEmptyMessage(MSG_STOP_PUSH_AUDIO);
         }
     }
 
+    /**
+     * 打断播放，在一帧内生效
+     * 还没处理的推流、播放和排队消息直接丢弃，停止命令走优先队列，不用等前面的音频消息处理完
+     */
     public void stopPlayAudio(){
-        if (mHandler != null) {
-            mHandler.sendEmptyMessage(MSG_STOP_PLAY_AUDIO);
+        Handler handler = mHandler;
+        if (handler != null) {
+            handler.removeMessages(MSG_START_PUSH_AUDIO);
+            handler.removeMessages(MSG_PUSH_AUDIO);
+            handler.removeMessages(MSG_STOP_PUSH_AUDIO);
+            handler.removeMessages(MSG_PLAY_PCM);
+            handler.removeMessages(MSG_QUEUE_PCM);
+            handler.removeMessages(MSG_PLAY_CLIP);
+            Message message = new Message();
+            message.what = MSG_STOP_PLAY_AUDIO;
+            message.obj = SystemClock.uptimeMillis();
+            sendControl(message, true);
         }
     }
 
+    /**
+     * @param now true时打断当前区间立即播放，命令走优先队列，连续请求以最后一次为准
+     */
     public void requireMotion(String name, boolean now) {
         if (mHandler != null) {
             Message message = new Message();
             message.what = MSG_REQUIRE_MOTION;
             message.obj = name;
             message.arg1 = now ? 0 : 1;
-            mHandler.sendMessage(message);
+            sendControl(message, now);
         }
     }
 
@@ -222,24 +461,58 @@ public class RenderThread extends Thread {
             Message message = new Message();
             message.what = MSG_REQUIRE_MOTION_RANDOM;
             message.arg1 = now ? 0 : 1;
-            mHandler.sendMessage(message);
+            sendControl(message, now);
+        }
+    }
+
+    /**
+     * 需要立即生效的控制命令走优先队列，其它按顺序排队
+     * 直接插到消息队列最前面会让连续的两条命令倒序执行，所以命令先按顺序进优先队列，
+     * 队首只放一个触发消息，处理时把优先队列按提交顺序取完，后提交的命令最后生效
+     */
+    private void sendControl(Message message, boolean urgent) {
+        Handler handler = mHandler;
+        if (handler == null) {
+            return;
+        }
+        if (urgent) {
+            synchronized (mUrgent) {
+                mUrgent.add(message);
+            }
+            handler.sendMessageAtFrontOfQueue(handler.obtainMessage(MSG_URGENT));
+        } else {
+            handler.sendMessage(message);
+        }
+    }
+
+    private Message pollUrgent() {
+        synchronized (mUrgent) {
+            return mUrgent.poll();
         }
     }
 
     private void handleAudioStep() {
         if (isRendering) {
             long useTime = renderStep();
-            long delay = 40 - (useTime);
+            long now = SystemClock.uptimeMillis();
+            if (mQuality != null) {
+                applyQuality(mQuality.onFrame(useTime, now));
+            }
+            if (mPowerGovernor != null) {
+                applyPower(mPowerGovernor.update(now));
+            }
+            updateFrameInterval();
+            long delay = mFrameInterval - (useTime);
             if (delay < 0) {
-                Logger.w("渲染耗时过高: " + (useTime) + "(>40ms)");
+                Logger.w("渲染耗时过高: " + (useTime) + "(>" + mFrameInterval + "ms)");
                 delay = 0;
             }
             if (mHandler != null) {
                 mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_RENDER_STEP), delay);
             }
         } else {
-            if (mPreviewQueue != null) {
-                mPreviewQueue.clear();
+            if (mScheduler != null) {
+                mScheduler.clear();
             }
             if (mHandler != null) {
                 mHandler.sendEmptyMessage(MSG_QUIT);
@@ -247,61 +520,157 @@ public class RenderThread extends Thread {
         }
     }
 
+    private void applyQuality(int level) {
+        if (level < 0) {
+            return;
+        }
+        long oldInterval = mQualityInterval;
+        mQualityInterval = QualityController.interval(level);
+        scrfdncnn.setQuality(QualityController.fastResize(level) ? DuixNcnn.QUALITY_FASTRESIZE : 0);
+        long percentile = mQuality.getPercentile();
+        Logger.i("渲染质量档位: " + level + " 帧间隔: " + oldInterval + "->" + mQualityInterval + "ms p90: " + percentile + "ms");
+        if (mQualityListener != null) {
+            mQualityListener.onQualityChange(level, mQualityInterval, percentile);
+        }
+    }
+
+    private void applyPower(int level) {
+        if (level < 0) {
+            return;
+        }
+        int threads = scrfdncnn.setThreads(mPowerGovernor.threads());
+        Logger.i("功耗档位: " + level + " 口型帧间隔: " + mPowerGovernor.interval(true)
+                + "ms 静默帧间隔: " + mPowerGovernor.interval(false) + "ms munet线程: " + threads);
+    }
+
+    private void updateFrameInterval() {
+        long interval = mQualityInterval;
+        if (mPowerGovernor != null) {
+            interval = Math.max(interval, mPowerGovernor.interval(isSpeaking));
+        }
+        mFrameInterval = interval;
+    }
+
+    /**
+     * 渲染只用帧表，清空区间里的帧对象，区间名字和类型保留
+     */
+    private static void releaseFrames(ModelInfo info) {
+        if (info.getSilenceRegion() != null) {
+            info.getSilenceRegion().frames = new ArrayList<>();
+        }
+        if (info.getMotionRegions() != null) {
+            for (ModelInfo.Region region : info.getMotionRegions()) {
+                region.frames = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * 当前帧会显示mFrameInterval，对齐到显示期间的中点
+     */
+    private int playIndex() {
+        return audioPlayer.getPlayIndex((mFrameInterval - QualityController.BASE_INTERVAL) / 2);
+    }
+
+    /**
+     * 降帧率时按时间跳过队列里的帧，动作的播放速度不变
+     */
+    private void skipFrames() {
+        mFrameDebt += (float) mFrameInterval / QualityController.BASE_INTERVAL - 1f;
+        while (mFrameDebt >= 1f) {
+            int skipped = mScheduler.next();
+            if (skipped < 0) {
+                break;
+            }
+            mFrameDebt -= 1f;
+            notifyMotion(mScheduler.mark());
+        }
+        // 没有帧可跳时不再累计
+        mFrameDebt = Math.min(mFrameDebt, 1f);
+    }
+
+    /**
+     * @param mark 调度器报告的区间位置标记，见FrameTable.MARK_START
+     */
+    private void notifyMotion(int mark) {
+        if ((mark & FrameTable.MARK_START) != 0){
+            callback.onMotionPlayStart(mFrameTable.actionName(mark));
+        }
+        if ((mark & FrameTable.MARK_END) != 0){
+            callback.onMotionPlayComplete(mFrameTable.actionName(mark));
+        }
+    }
+
     private long renderStep() {
         long startTime = System.currentTimeMillis();
-        ModelInfo.Frame frame;
-        if (requireMotion) {
-            // 收到动作的通知
-            requireMotion = false;
-            if (prepareActionRegion != null){
-                mPreviewQueue.clear();
-                Logger.d("发现想要播放的动作区间region: " + prepareActionRegion);
-                mPreviewQueue.addAll(prepareActionRegion.frames);
-            }
-        }
-        if (mPreviewQueue.isEmpty()) {
-            // 先假设把静默的都加进来
-            ModelInfo.Region silenceRegion = mModelInfo.getSilenceRegion();
-            mPreviewQueue.addAll(silenceRegion.frames);
-            List<ModelInfo.Frame> copiedList = new ArrayList<>(silenceRegion.frames);
-            // 反向的也加进来
-            Collections.reverse(copiedList);
-            mPreviewQueue.addAll(copiedList);
-        }
-        frame = mPreviewQueue.poll();
-
-        if (frame != null) {
-            int readyCnt = scrfdncnn.readycnt(mCurrentBnfSession);
-            if (readyCnt > 0 && audioPlayer != null){
-                if (mLastBnfSession != mCurrentBnfSession){
-                    mLastBnfSession = mCurrentBnfSession;
-                    // 通知新的一段读取完成了,准备播放
-                    audioPlayer.startPlay();
-                }
-                int bnfIndex = audioPlayer.getPlayIndex();
-                Logger.i("scrfdncnn readyCnt: " + readyCnt + " bnfIndex: " + bnfIndex);
-                scrfRst = scrfdncnn.filerst(mCurrentBnfSession, !TextUtils.isEmpty(frame.sgPath) ? frame.sgPath : frame.rawPath, !TextUtils.isEmpty(frame.maskPath) ? frame.maskPath : "", frame.rect, "", bnfIndex, rawBuffer.array(),  maskBuffer.array(),mModelInfo.getWidth() * mModelInfo.getHeight() * 3);
-                isLip = true;
-                if (scrfRst < 0){
-                    Logger.i("scrfdncnn.filerst bnf index: " + bnfIndex + " rst: " + scrfRst);
+        if (mClipReader != null && renderClipStep()) {
+            long useTime = System.currentTimeMillis() - startTime;
+            if (mReporter != null){
+                mReporter.onRenderStat(scrfRst, isLip, useTime);
+            }
+            return useTime;
+        }
+        if (mFrameInterval > QualityController.BASE_INTERVAL) {
+            skipFrames();
+        }
+        int frameId = mScheduler.next();
+        int mark = mScheduler.mark();
+
+        if (frameId >= 0) {
+            if (mPrefetcher != null) {
+                // 先取走当前帧，再让预读线程在本帧合成期间解码后面的帧
+                takePrefetched(frameId);
+                mPrefetcher.prefetch(mLookahead, mScheduler.peek(mLookahead, mLookahead.length));
+            }
+            int playIndex = audioPlayer != null && mCurrentBnfSession > 0 ? playIndex() : -1;
+            int flags = 0;
+            if (isBaseFrame(frameId)) {
+                // 底图已在rawBuffer中(预读或上一帧)，只需恢复被改过的区域
+                flags = DuixNcnn.TICK_BASE | (mBaseDirty ? DuixNcnn.TICK_DIRTY : 0);
+            }
+            if (playIndex >= 0) {
+                // 可能做口型合成，等离线渲染的当前一批做完
+                synchronized (mComposeLock) {
+                    scrfRst = tick(frameId, playIndex, flags);
                 }
             } else {
-                isLip = false;
-                scrfRst = scrfdncnn.fileload(!TextUtils.isEmpty(frame.sgPath) ? frame.sgPath : frame.rawPath, !TextUtils.isEmpty(frame.maskPath) ? frame.maskPath : "", mModelInfo.getWidth(), mModelInfo.getHeight(), rawBuffer.array(), maskBuffer.array(), mModelInfo.getWidth() * mModelInfo.getHeight() * 3);
-                if (scrfRst < 0){
-                    Logger.i("scrfdncnn.fileload rst: " + scrfRst);
-                }
+                scrfRst = tick(frameId, playIndex, flags);
+            }
+            int readyCnt = mTickStatus[DuixNcnn.TICK_READY];
+            if (readyCnt > 0 && audioPlayer != null && mLastBnfSession != mCurrentBnfSession){
+                mLastBnfSession = mCurrentBnfSession;
+                // 通知新的一段读取完成了,准备播放
+                audioPlayer.startPlay();
             }
-            if (frame.startFlag){
-                callback.onMotionPlayStart(frame.actionName);
+            isSpeaking = readyCnt > 0 && playIndex >= 0;
+            isLip = mTickStatus[DuixNcnn.TICK_LIP] == DuixNcnn.TICK_LIPSYNC;
+            if (scrfRst < 0){
+                Logger.i("scrfdncnn.tick frame: " + frameId + " bnf index: " + playIndex + " rst: " + scrfRst);
+                // rawBuffer内容不确定，下一帧整帧解码
+                setBaseFrame(-1);
+            } else {
+                setBaseFrame(frameId);
+                if (isLip) {
+                    Logger.i("scrfdncnn readyCnt: " + readyCnt + " bnfIndex: " + playIndex);
+                    markBaseDirty(mFrameTable.boxes(), frameId * 4);
+                }
             }
-            if (frame.endFlag){
-                callback.onMotionPlayComplete(frame.actionName);
+            if (mReporter != null){
+                mReporter.onTickStat(mTickStatus);
             }
+            notifyMotion(mark);
             if (mRenderSink != null) {
                 mRenderSink.onVideoFrame(new ImageFrame(rawBuffer, maskBuffer, mModelInfo.getWidth(), mModelInfo.getHeight()));
             }
         }
+        if (mBargeInTime > 0 && !isLip) {
+            long frameLatency = SystemClock.uptimeMillis() - mBargeInTime;
+            Logger.d("barge-in audio stop: " + mBargeInStopLatency + "ms frame: " + frameLatency + "ms");
+            if (mReporter != null){
+                mReporter.onBargeIn(mBargeInStopLatency, frameLatency);
+            }
+            mBargeInTime = 0;
+        }
         long useTime = System.currentTimeMillis() - startTime;
         if (mReporter != null){
             mReporter.onRenderStat(scrfRst, isLip, useTime);
@@ -309,6 +678,398 @@ public class RenderThread extends Thread {
         return useTime;
     }
 
+    /**
+     * 就绪数、静音判断、底图解码和口型合成一次完成
+     */
+    private int tick(int frameId, int playIndex, int flags) {
+        int size = mModelInfo.getWidth() * mModelInfo.getHeight() * 3;
+        return scrfdncnn.tick(mCurrentBnfSession, frameId, playIndex, flags, mBaseDirtyRect,
+                rawBuffer.array(), maskBuffer.array(), size, mTickStatus);
+    }
+
+    private boolean renderClipStep() {
+        int index = audioPlayer != null ? playIndex() : 0;
+        if (mClipEnded || index >= mClipReader.getFrameCount()) {
+            closeClip();
+            return false;
+        }
+        try {
+            mClipFrame = mClipReader.readFrame(index, mClipFrame);
+            scrfRst = loadClipBase(mClipFrame.picPath, mClipFrame.maskPath);
+            mClipReader.applyPatch(mClipFrame, rawBuffer.array());
+            markBaseDirty(mClipFrame.rect, 0);
+        } catch (IOException e) {
+            Logger.e("clip frame " + index + " read error: " + e);
+            closeClip();
+            return false;
+        }
+        isLip = true;
+        if (mRenderSink != null) {
+            mRenderSink.onVideoFrame(new ImageFrame(rawBuffer, maskBuffer, mModelInfo.getWidth(), mModelInfo.getHeight()));
+        }
+        return true;
+    }
+
+    private void closeClip() {
+        if (mClipReader != null) {
+            try {
+                mClipReader.close();
+            } catch (IOException ignore) {
+            }
+            mClipReader = null;
+        }
+    }
+
+    /**
+     * 取预读好的底图，成功时rawBuffer/maskBuffer已是该帧的底图
+     */
+    private boolean takePrefetched(int frameId) {
+        if (isBaseFrame(frameId)) {
+            return false;
+        }
+        if (!mPrefetcher.take(frameId, rawBuffer.array(), maskBuffer.array())) {
+            return false;
+        }
+        setBaseFrame(frameId);
+        return true;
+    }
+
+    /**
+     * 量化模型和原模型放在同一目录，文件名加_int8后缀，如dh_model_int8.param/dh_model_int8.bin
+     * @return param和bin，没有时返回null
+     */
+    private static String[] int8Files(ModelInfo info) {
+        File param = int8File(info.getUnetparam());
+        File bin = int8File(info.getUnetbin());
+        if (param == null || bin == null || !param.exists() || !bin.exists()) {
+            return null;
+        }
+        return new String[]{param.getAbsolutePath(), bin.getAbsolutePath()};
+    }
+
+    private static File int8File(String path) {
+        if (path == null) {
+            return null;
+        }
+        File file = new File(path);
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String int8Name = dot > 0 ? name.substring(0, dot) + "_int8" + name.substring(dot) : name + "_int8";
+        return new File(file.getParentFile(), int8Name);
+    }
+
+    private static int decodeThreads() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (cores >= 8) {
+            return 2;
+        }
+        return cores >= 4 ? 1 : 0;
+    }
+
+    private boolean isBaseFrame(int frameId) {
+        return frameId >= 0 && frameId == mBaseFrameId;
+    }
+
+    private void setBaseFrame(int frameId) {
+        mBaseFrameId = frameId;
+        mBaseDirty = false;
+    }
+
+    /**
+     * 把底图加载到rawBuffer/maskBuffer
+     * 底图和上一帧相同时只按MCU对齐局部解码被改过的区域，失败时退回整帧解码
+     */
+    private int loadBaseFrame(int frameId) {
+        int size = mModelInfo.getWidth() * mModelInfo.getHeight() * 3;
+        if (isBaseFrame(frameId)) {
+            if (!mBaseDirty) {
+                return 0;
+            }
+            int rst = scrfdncnn.frameroi(frameId, mBaseDirtyRect, 1, rawBuffer.array(), size);
+            if (rst == 0) {
+                mBaseDirty = false;
+                return 0;
+            }
+            Logger.i("scrfdncnn.frameroi rst: " + rst);
+        }
+        int rst = scrfdncnn.frameload(frameId, rawBuffer.array(), maskBuffer.array(), size);
+        setBaseFrame(frameId);
+        return rst;
+    }
+
+    /**
+     * 片段里记录的是底图路径，在帧表里时按帧id加载，否则按路径整帧解码
+     */
+    private int loadClipBase(String picPath, String maskPath) {
+        int frameId = mFrameTable.find(picPath, maskPath);
+        if (frameId >= 0) {
+            return loadBaseFrame(frameId);
+        }
+        int width = mModelInfo.getWidth();
+        int height = mModelInfo.getHeight();
+        setBaseFrame(-1);
+        return scrfdncnn.fileload(picPath, maskPath, width, height, rawBuffer.array(), maskBuffer.array(), width * height * 3);
+    }
+
+    /**
+     * 记录rawBuffer中被改过的区域，下次复用底图时需要恢复
+     */
+    private void markBaseDirty(int[] rect, int offset) {
+        if (mBaseDirty) {
+            mBaseDirtyRect[0] = Math.min(mBaseDirtyRect[0], rect[offset]);
+            mBaseDirtyRect[1] = Math.min(mBaseDirtyRect[1], rect[offset + 1]);
+            mBaseDirtyRect[2] = Math.max(mBaseDirtyRect[2], rect[offset + 2]);
+            mBaseDirtyRect[3] = Math.max(mBaseDirtyRect[3], rect[offset + 3]);
+        } else {
+            System.arraycopy(rect, offset, mBaseDirtyRect, 0, 4);
+            mBaseDirty = true;
+        }
+    }
+
+    private void handleRenderClip(ClipTask task) {
+        int code = checkOffline();
+        if (code == 0) {
+            long session = scrfdncnn.newsession();
+            startOffline(() -> renderClipOffline(session, task.pcm, new File(task.clipPath)), rst -> {
+                if (callback != null) {
+                    callback.onClipRendered(rst, task.clipPath);
+                }
+            });
+        } else if (callback != null) {
+            callback.onClipRendered(code, task.clipPath);
+        }
+    }
+
+    private void handleExportVideo(ExportTask task) {
+        int code = checkOffline();
+        if (code == 0) {
+            long session = scrfdncnn.newsession();
+            startOffline(() -> exportVideoOffline(session, task.pcm, task.sink), rst -> {
+                if (callback != null) {
+                    callback.onVideoExported(rst, task.outputPath);
+                }
+            });
+            return;
+        }
+        try {
+            task.sink.finish();
+        } catch (IOException ignore) {
+        }
+        if (callback != null) {
+            callback.onVideoExported(code, task.outputPath);
+        }
+    }
+
+    private int checkOffline() {
+        if (mModelInfo == null || !isRendering) {
+            return -1000;
+        }
+        if (mCurrentBnfSession > 0 || mClipReader != null || mOfflineThread != null) {
+            // native只有一个当前会话，正在驱动口型或已有离线渲染时不能离线渲染
+            return -1001;
+        }
+        return 0;
+    }
+
+    /**
+     * 在离线线程上渲染，会话已在渲染线程创建，之后实时播放开新会话会替换掉它，离线渲染随之中止
+     * @param render 返回结果码
+     * @param done 收到结果码，此时已可以开始下一次离线渲染
+     */
+    private void startOffline(IntSupplier render, IntConsumer done) {
+        mOfflineCancel = false;
+        Thread thread = new Thread(() -> {
+            int code = -1004;
+            try {
+                code = render.getAsInt();
+            } finally {
+                mOfflineThread = null;
+                done.accept(code);
+            }
+        }, "duix-offline");
+        mOfflineThread = thread;
+        thread.start();
+    }
+
+    /**
+     * 释放native前等离线线程结束
+     */
+    private void joinOffline() {
+        Thread thread = mOfflineThread;
+        if (thread == null) {
+            return;
+        }
+        mOfflineCancel = true;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private int renderClipOffline(long session, byte[] pcm, File clipFile) {
+        File tmpFile = new File(clipFile.getPath() + ".tmp");
+        int code;
+        try (ClipWriter writer = new ClipWriter(tmpFile, mModelInfo.getWidth(), mModelInfo.getHeight(), pcm)) {
+            int[] rect = new int[4];
+            code = renderOffline(session, pcm, (index, frameId, raw, mask) -> {
+                System.arraycopy(mFrameTable.boxes(), frameId * 4, rect, 0, 4);
+                writer.writeFrame(mFrameTable.picPath(frameId), mFrameTable.maskPath(frameId), rect, raw);
+            });
+        } catch (IOException e) {
+            Logger.e("clip write error: " + e);
+            code = -1005;
+        }
+        if (code == 0 && !tmpFile.renameTo(clipFile)) {
+            code = -1005;
+        }
+        if (code != 0) {
+            tmpFile.delete();
+        }
+        return code;
+    }
+
+    private int exportVideoOffline(long session, byte[] pcm, EncoderSink sink) {
+        int width = mModelInfo.getWidth();
+        int height = mModelInfo.getHeight();
+        int code = renderOffline(session, pcm, (index, frameId, raw, mask) -> {
+            sink.onVideoFrame(new ImageFrame(ByteBuffer.wrap(raw), ByteBuffer.wrap(mask), width, height));
+            // 每帧交错写入对应的40ms音频
+            int offset = index * PCM_FRAME_SIZE;
+            if (offset < pcm.length) {
+                sink.onAudio(pcm, offset, Math.min(PCM_FRAME_SIZE, pcm.length - offset));
+            }
+            if (sink.getError() != null) {
+                throw sink.getError();
+            }
+        });
+        if (code == 0) {
+            long offset = sink.getFrameCount() * PCM_FRAME_SIZE;
+            if (offset < pcm.length) {
+                sink.onAudio(pcm, (int) offset, pcm.length - (int) offset);
+            }
+        }
+        try {
+            sink.finish();
+        } catch (IOException e) {
+            if (code == 0) {
+                code = -1006;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * 全速离线渲染: 不经过AudioTrack，按FrameScheduler的静默顺序逐个bnf块合成，在离线线程调用。
+     * 等待特征时阻塞在native里，不占用渲染线程；只有口型合成和实时渲染互斥
+     */
+    private int renderOffline(long session, byte[] pcm, OfflineFrameWriter writer) {
+        int width = mModelInfo.getWidth();
+        int height = mModelInfo.getHeight();
+        int size = width * height * 3;
+        if (clipRawBuffers == null) {
+            clipRawBuffers = new byte[OFFLINE_BATCH][size];
+            clipMaskBuffers = new byte[OFFLINE_BATCH][size];
+            if (!mModelInfo.isHasMask()) {
+                for (byte[] mask : clipMaskBuffers) {
+                    Arrays.fill(mask, (byte) 255);
+                }
+            }
+        }
+        if (mFrameTable.silence().length == 0) {
+            scrfdncnn.finsession(session);
+            return -1002;
+        }
+        // 独立的游标，不影响实时播放的帧顺序
+        FrameScheduler scheduler = new FrameScheduler(mFrameTable);
+        int[] frameIds = new int[OFFLINE_BATCH];
+        long startTime = System.currentTimeMillis();
+        int code = 0;
+        int allCnt = 0;
+        try {
+            scrfdncnn.pushfull(session, pcm, pcm.length, 0);
+            allCnt = scrfdncnn.allcnt(session);
+            int i = 0;
+            while (i < allCnt && code == 0) {
+                long waitStart = System.currentTimeMillis();
+                int readyCnt;
+                while ((readyCnt = scrfdncnn.waitready(session, i + 1, CLIP_WAIT_SLICE)) >= 0 && readyCnt <= i) {
+                    if (mOfflineCancel || System.currentTimeMillis() - waitStart > CLIP_WAIT_TIMEOUT) {
+                        break;
+                    }
+                }
+                if (readyCnt < 0 || mOfflineCancel) {
+                    // 实时播放开了新会话或线程在退出
+                    code = -1001;
+                    break;
+                }
+                if (readyCnt <= i) {
+                    code = -1003;
+                    break;
+                }
+                // 已就绪的块一次送进native
+                int count = scheduler.peek(frameIds, Math.min(OFFLINE_BATCH, Math.min(readyCnt, allCnt) - i));
+                int[] indexes = new int[count];
+                for (int k = 0; k < count; k++) {
+                    indexes[k] = i + k;
+                }
+                int rst;
+                synchronized (mComposeLock) {
+                    rst = scrfdncnn.framebatch(session, frameIds, indexes, clipRawBuffers, clipMaskBuffers, size);
+                }
+                if (rst <= 0) {
+                    Logger.i("offline framebatch bnf index: " + i + " rst: " + rst);
+                    code = rst == -1 ? -1001 : -1004;
+                    break;
+                }
+                for (int k = 0; k < rst; k++) {
+                    writer.onFrame(i + k, scheduler.next(), clipRawBuffers[k], clipMaskBuffers[k]);
+                }
+                i += rst;
+            }
+        } catch (IOException e) {
+            Logger.e("offline write error: " + e);
+            code = -1005;
+        }
+        scrfdncnn.finsession(session);
+        Logger.d("offline render frames: " + allCnt + " rst: " + code + " use: " + (System.currentTimeMillis() - startTime) + "ms");
+        return code;
+    }
+
+    private void handlePlayClip(String clipPath) {
+        closeClip();
+        if (audioPlayer == null || !isRendering) {
+            return;
+        }
+        ClipReader reader = null;
+        try {
+            reader = new ClipReader(new File(clipPath));
+            if (reader.getWidth() != mModelInfo.getWidth() || reader.getHeight() != mModelInfo.getHeight()) {
+                throw new IOException("clip size " + reader.getWidth() + "x" + reader.getHeight() + " mismatch");
+            }
+            byte[] pcm = reader.readPcm();
+            if (mCurrentBnfSession > 0) {
+                scrfdncnn.finsession(mCurrentBnfSession);
+                mCurrentBnfSession = -1;
+            }
+            audioPlayer.stop();
+            audioPlayer.pushStart();
+            audioPlayer.pushData(ByteBuffer.wrap(pcm));
+            audioPlayer.pushDone();
+            mClipEnded = false;
+            mClipReader = reader;
+            audioPlayer.startPlay();
+        } catch (IOException e) {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException ignore) {
+                }
+            }
+            callback.onPlayError(-1001, "clip load error: " + e.getMessage());
+        }
+    }
+
     private void handleStopRender() {
         Logger.i("handleStopRender");
         if (isRendering) {
@@ -319,6 +1080,11 @@ public class RenderThread extends Thread {
     }
 
     private void handleStartPushAudio(){
+        startSession();
+        mPushOpen = true;
+    }
+
+    private void startSession(){
         if (mCurrentBnfSession > 0){
             scrfdncnn.finsession(mCurrentBnfSession);
         }
@@ -335,6 +1101,23 @@ public class RenderThread extends Thread {
         }
     }
 
+    private void handlePlayPcm(byte[] data){
+        // 立即播放会打断当前音频，之前排队的也不再播放
+        mQueuedPcm.clear();
+        mPushOpen = false;
+        playPcmNow(data);
+    }
+
+    private void playPcmNow(byte[] data){
+        startSession();
+        if (audioPlayer != null && isRendering){
+            int rst = scrfdncnn.pushfull(mCurrentBnfSession, data, data.length, 0);
+            Logger.d("pushfull session: " + mCurrentBnfSession + " cached: " + (rst == 1));
+            audioPlayer.pushData(ByteBuffer.wrap(data));
+            audioPlayer.pushDone();
+        }
+    }
+
     private void handleStopPushAudio() {
         if (scrfdncnn != null && isRendering){
             scrfdncnn.finsession(mCurrentBnfSession);
@@ -342,46 +1125,87 @@ public class RenderThread extends Thread {
         if (audioPlayer != null){
             audioPlayer.pushDone();
         }
+        mPushOpen = false;
+        drainQueuedPcm();
     }
 
-    private void handleStopPlayAudio(){
+    private void handleQueuePcm(byte[] data){
+        if (audioPlayer == null || !isRendering) {
+            return;
+        }
+        if (data != null) {
+            mQueuedPcm.add(data);
+        }
+        drainQueuedPcm();
+    }
+
+    /**
+     * 把排队的音频接到当前会话后面，推流还没结束、在播放预渲染片段或会话已到上限时等下次
+     */
+    private void drainQueuedPcm(){
+        while (!mPushOpen && mClipReader == null && !mQueuedPcm.isEmpty()) {
+            byte[] data = mQueuedPcm.peek();
+            long session = mCurrentBnfSession;
+            if (session > 0 && scrfdncnn.allcnt(session) + data.length / PCM_FRAME_SIZE > MAX_CHAIN_FRAMES) {
+                return;
+            }
+            mQueuedPcm.poll();
+            if (session > 0 && audioPlayer.pushContinue()) {
+                // 同一会话接着算特征，帧序号和AudioTrack的播放位置一起连续增长
+                scrfdncnn.consession(session);
+                scrfdncnn.pushpcm(session, data, data.length, 0);
+                scrfdncnn.finsession(session);
+                audioPlayer.pushData(ByteBuffer.wrap(data));
+                audioPlayer.pushDone();
+                Logger.d("queue pcm session: " + session + " frames: " + scrfdncnn.allcnt(session));
+            } else {
+                playPcmNow(data);
+            }
+        }
+    }
+
+    private void handleStopPlayAudio(long requestTime){
+        mQueuedPcm.clear();
+        mPushOpen = false;
         if (scrfdncnn != null && isRendering){
+            closeClip();
             scrfdncnn.finsession(mCurrentBnfSession);
             mCurrentBnfSession = -1;
             if (audioPlayer != null){
-                audioPlayer.stop();
+                audioPlayer.stopNow();
             }
+            // 下一帧画面切回静默时上报打断耗时
+            mBargeInTime = requestTime;
+            mBargeInStopLatency = SystemClock.uptimeMillis() - requestTime;
         }
     }
 
     private void handleRequireMotion(String name, boolean now) {
-        ModelInfo.Region matchRegion = null;
-        for (ModelInfo.Region region : mModelInfo.getMotionRegions()){
-            if (name != null && name.equals(region.name)){
-                matchRegion = region;
-            }
-        }
-        if (matchRegion != null){
-            if (now){
-                prepareActionRegion = matchRegion;
-                requireMotion = true;
-            } else {
-                Logger.d("在播放队列最后插入动作区间region: " + matchRegion);
-                mPreviewQueue.addAll(matchRegion.frames);
+        if (now) {
+            if (mScheduler.playNow(name)) {
+                // 预读的是打断前的帧
+                if (mPrefetcher != null) {
+                    mPrefetcher.cancel();
+                }
+                Logger.d("立即播放动作区间: " + name);
             }
+        } else if (mScheduler.enqueue(name)) {
+            Logger.d("在播放队列最后插入动作区间: " + name);
         }
     }
 
     private void handleRequireMotionRandom(boolean now){
-        if (!mModelInfo.getMotionRegions().isEmpty()){
-            int randomIndex = new Random().nextInt(mModelInfo.getMotionRegions().size());
-            ModelInfo.Region region = mModelInfo.getMotionRegions().get(randomIndex);
+        if (mScheduler.motionCount() > 0){
+            int randomIndex = mRandom.nextInt(mScheduler.motionCount());
             if (now){
-                requireMotion = true;
-                prepareActionRegion = region;
+                mScheduler.playNow(randomIndex);
+                if (mPrefetcher != null) {
+                    mPrefetcher.cancel();
+                }
+                Logger.d("立即播放随机动作区间: " + mScheduler.motionName(randomIndex));
             } else {
-                Logger.d("在播放队列最后插入随机动作区间region: " + region);
-                mPreviewQueue.addAll(region.frames);
+                mScheduler.enqueue(randomIndex);
+                Logger.d("在播放队列最后插入随机动作区间: " + mScheduler.motionName(randomIndex));
             }
         }
     }
@@ -432,14 +1256,62 @@ public class RenderThread extends Thread {
                     byte[] data = (byte[])msg.obj;
                     render.handlePushAudio(data);
                     break;
+                case MSG_PLAY_PCM:
+                    render.handlePlayPcm((byte[])msg.obj);
+                    break;
                 case MSG_STOP_PLAY_AUDIO:
-                    render.handleStopPlayAudio();
+                    render.handleStopPlayAudio((Long) msg.obj);
+                    break;
+                case MSG_RENDER_CLIP:
+                    render.handleRenderClip((ClipTask) msg.obj);
+                    break;
+                case MSG_PLAY_CLIP:
+                    render.handlePlayClip((String) msg.obj);
+                    break;
+                case MSG_EXPORT_VIDEO:
+                    render.handleExportVideo((ExportTask) msg.obj);
+                    break;
+                case MSG_QUEUE_PCM:
+                    render.handleQueuePcm((byte[]) msg.obj);
+                    break;
+                case MSG_URGENT:
+                    // 一个触发消息处理全部，之后的触发消息取到空队列直接返回
+                    Message urgent;
+                    while ((urgent = render.pollUrgent()) != null) {
+                        handleMessage(urgent);
+                    }
                     break;
             }
         }
 
     }
 
+    static class ClipTask {
+        final byte[] pcm;
+        final String clipPath;
+
+        ClipTask(byte[] pcm, String clipPath) {
+            this.pcm = pcm;
+            this.clipPath = clipPath;
+        }
+    }
+
+    static class ExportTask {
+        final byte[] pcm;
+        final EncoderSink sink;
+        final String outputPath;
+
+        ExportTask(byte[] pcm, EncoderSink sink, String outputPath) {
+            this.pcm = pcm;
+            this.sink = sink;
+            this.outputPath = outputPath;
+        }
+    }
+
+    interface OfflineFrameWriter {
+        void onFrame(int index, int frameId, byte[] raw, byte[] mask) throws IOException;
+    }
+
     public interface RenderCallback {
         void onInitResult(int code, int subCode, String message, ModelInfo modelInfo);
 
@@ -452,9 +1324,33 @@ public class RenderThread extends Thread {
         void onMotionPlayStart(String name);
 
         void onMotionPlayComplete(String name);
+
+        void onClipRendered(int code, String clipPath);
+
+        void onVideoExported(int code, String outputPath);
     }
 
     public interface Reporter {
         void onRenderStat(int resultCode, boolean isLip, long useTime);
+
+        /**
+         * 每个模型帧的native统计，下标见DuixNcnn.TICK_*，耗时为微秒，数组在回调后复用
+         */
+        default void onTickStat(int[] status) {
+        }
+
+        /**
+         * 打断(stopAudio)的耗时，从调用到音频停止、到第一帧静默画面送出，单位ms
+         */
+        default void onBargeIn(long stopLatency, long frameLatency) {
+        }
+    }
+
+    /**
+     * 质量档位变化通知，在渲染线程回调
+     * level: 0 25fps全质量，1 25fps双线性缩放，2 20fps，3 15fps
+     */
+    public interface QualityListener {
+        void onQualityChange(int level, long frameInterval, long percentileTime);
     }
 }
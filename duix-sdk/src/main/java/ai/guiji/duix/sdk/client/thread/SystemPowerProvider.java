@@ -0,0 +1,79 @@
+package ai.guiji.duix.sdk.client.thread;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+
+/**
+ * 从系统读取温度和电量
+ *
+ * 温度状态需要Android 10，余量预测需要Android 11，更低的版本返回UNKNOWN/NaN。
+ * 电池状态取ACTION_BATTERY_CHANGED的粘性广播，不注册接收器。
+ */
+class SystemPowerProvider implements PowerStateProvider {
+
+    private static final long BATTERY_POLL_MS = 30000;      // 电量变化慢，不必每次都读广播
+
+    private final Context mContext;
+    private final PowerManager mPowerManager;
+    private long mBatteryTime;
+    private int mBatteryLevel = UNKNOWN;
+    private boolean mCharging;
+
+    SystemPowerProvider(Context context) {
+        mContext = context.getApplicationContext();
+        mPowerManager = (PowerManager) mContext.getSystemService(Context.POWER_SERVICE);
+    }
+
+    @Override
+    public int getThermalStatus() {
+        if (mPowerManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+            return UNKNOWN;
+        }
+        return mPowerManager.getCurrentThermalStatus();
+    }
+
+    @Override
+    public float getThermalHeadroom(int forecastSeconds) {
+        if (mPowerManager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return Float.NaN;
+        }
+        return mPowerManager.getThermalHeadroom(forecastSeconds);
+    }
+
+    @Override
+    public int getBatteryLevel() {
+        readBattery();
+        return mBatteryLevel;
+    }
+
+    @Override
+    public boolean isCharging() {
+        readBattery();
+        return mCharging;
+    }
+
+    @Override
+    public boolean isPowerSaveMode() {
+        return mPowerManager != null && mPowerManager.isPowerSaveMode();
+    }
+
+    private void readBattery() {
+        long now = System.currentTimeMillis();
+        if (mBatteryTime != 0 && now - mBatteryTime < BATTERY_POLL_MS) {
+            return;
+        }
+        mBatteryTime = now;
+        Intent intent = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (intent == null) {
+            return;
+        }
+        int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        mBatteryLevel = level >= 0 && scale > 0 ? level * 100 / scale : UNKNOWN;
+        mCharging = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+}
@@ -0,0 +1,59 @@
+package ai.guiji.duix.sdk.client.thread;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import java.io.File;
+import java.util.Arrays;
+
+import ai.guiji.duix.DuixNcnn;
+import ai.guiji.duix.sdk.client.Constant;
+import ai.guiji.duix.sdk.client.bean.WenetOptions;
+import ai.guiji.duix.sdk.client.util.Logger;
+
+/**
+ * wenet推理后端选择
+ *
+ * BACKEND_AUTO时在固定的mel块上测各后端耗时，取最快的。
+ * 测速结果按机型+模型+线程数缓存，同一设备只在第一次启动(或SDK升级后)测一次。
+ */
+class WenetSelector {
+
+    private static final String PREFS_NAME = "duix_wenet";
+    private static final int BENCH_ROUNDS = 5;
+
+    /**
+     * @return 交给initWenetex的后端
+     */
+    static int select(Context context, DuixNcnn ncnn, String wenetPath, WenetOptions options) {
+        if (options.backend != WenetOptions.BACKEND_AUTO) {
+            return options.backend;
+        }
+        SharedPreferences preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String key = cacheKey(wenetPath, options);
+        int cached = preferences.getInt(key, WenetOptions.BACKEND_AUTO);
+        if (cached != WenetOptions.BACKEND_AUTO) {
+            Logger.d("wenet backend cached: " + cached);
+            return cached;
+        }
+        int[] costs = new int[WenetOptions.BACKEND_COUNT];
+        long start = System.currentTimeMillis();
+        int best = ncnn.benchWenet(wenetPath, BENCH_ROUNDS, costs);
+        Logger.d("wenet bench costs(us): " + Arrays.toString(costs) + " best: " + best
+                + " took: " + (System.currentTimeMillis() - start) + "ms");
+        if (best < 0) {
+            return WenetOptions.BACKEND_ONNX;
+        }
+        preferences.edit().putInt(key, best).apply();
+        return best;
+    }
+
+    private static String cacheKey(String wenetPath, WenetOptions options) {
+        File file = new File(wenetPath);
+        return Build.MANUFACTURER + "/" + Build.MODEL + "/" + Build.HARDWARE
+                + "|" + file.getName() + ":" + file.length()
+                + "|" + options.intraThreads + "/" + options.interThreads + "/" + options.optLevel
+                + "|" + Constant.VERSION_CODE;
+    }
+}